@@ -1,37 +1,34 @@
 package com.dakuupa.pulsar;
 
-import com.dakuupa.pulsar.annotations.DbAutoIncrement;
-import com.dakuupa.pulsar.annotations.DbNotNull;
-import com.dakuupa.pulsar.annotations.DbPrimaryKey;
-import com.dakuupa.pulsar.annotations.DbSize;
-import com.dakuupa.pulsar.annotations.DbUnique;
-import com.dakuupa.pulsar.typeconverter.AbstractTypeConverter;
 import com.dakuupa.pulsar.typeconverter.TypeConverter;
-import com.dakuupa.pulsar.typeconverter.mysql.BooleanTypeConverter;
-import com.dakuupa.pulsar.typeconverter.mysql.DateTypeConverter;
-import com.dakuupa.pulsar.typeconverter.mysql.DoubleTypeConverter;
-import com.dakuupa.pulsar.typeconverter.mysql.FloatTypeConverter;
-import com.dakuupa.pulsar.typeconverter.mysql.IntegerTypeConverter;
-import com.dakuupa.pulsar.typeconverter.mysql.LongTypeConverter;
+import com.dakuupa.pulsar.typeconverter.TypeConverterRegistry;
 import com.dakuupa.pulsar.typeconverter.mysql.MySQLTypeConverter;
-import com.dakuupa.pulsar.typeconverter.mysql.StringTypeConverter;
 import java.io.File;
 import java.io.IOException;
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
@@ -49,36 +46,55 @@ import java.util.logging.SimpleFormatter;
 public abstract class AbstractDatabaseManager<T extends Entity> {
 
     private static final String NULL_STATEMENT_MSG = "Null statement";
+    private static final String[] GENERATED_COLUMNS = {"id"};
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int DEFAULT_BULK_LOAD_ROWS = 100000;
+    public static final int DEFAULT_WRITE_ATTEMPTS = 3;
+    // Connector/J streams rows one at a time with this fetch size
+    public static final int STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
     protected Logger logger;
 
     private String tableName;
     private Connection dbConnection;
     private Class<T> entityClass;
+    private EntityMetadata metadata;
+    private TypeConverterRegistry typeConverters = TypeConverterRegistry.getDefault();
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int fetchSize = STREAMING_FETCH_SIZE;
+    private StatementCache statementCache;
+    // statements of another connection the calling thread writes through,
+    // such as the write behind flusher's
+    private final ThreadLocal<StatementCache> boundStatements = new ThreadLocal<>();
+    private volatile WriteBehindBuffer<T> writeBehind;
+    private volatile IdentityMap<T> identityMap;
+    private volatile EntityCache<T> entityCache;
+    private volatile QueryCache queryCache;
+    private volatile OffHeapEntityCache<T> offHeapCache;
+    private EntityValues<T> entityValues;
+    // rows written inside an open unit of work by id, null deleted, published
+    // to the shared caches on commit; null outside a unit
+    private volatile Map<Long, T> unitWrites;
+    private boolean unitCleared;
+    // bumped by every write to the table, shared with its other managers
+    private AtomicLong tableVersion;
+    // index of the id in the data columns, -1 without one
+    private int idColumn = -1;
+    // whether the driver counts matched rather than changed rows, null until
+    // first asked
+    private Boolean foundRows;
+    // whether it is Connector/J with useAffectedRows=true, set along with it
+    private boolean affectedRows;
+    // data columns with a converter, in insert bind order
+    private final List<ColumnMapping> insertColumns = new ArrayList<>();
+    private String insertQuery;
+    private String updateQuery;
+    private String upsertQuery;
+    private String deleteQuery;
+    private String readQuery;
 
     private static File logFile;
     private static boolean verboseLogging;
 
-    private static final HashMap<Class, Class> TYPE_CONVERTERS = new HashMap<>();
-    private static final HashMap<String, Class> PRIMITIVE_TYPE_CONVERTERS = new HashMap<>();
-
-    static {
-        //initialize default type converters
-        TYPE_CONVERTERS.put(String.class, StringTypeConverter.class);
-        TYPE_CONVERTERS.put(Integer.class, IntegerTypeConverter.class);
-        TYPE_CONVERTERS.put(Double.class, DoubleTypeConverter.class);
-        TYPE_CONVERTERS.put(Long.class, LongTypeConverter.class);
-        TYPE_CONVERTERS.put(Float.class, FloatTypeConverter.class);
-        TYPE_CONVERTERS.put(Boolean.class, BooleanTypeConverter.class);
-        TYPE_CONVERTERS.put(Date.class, DateTypeConverter.class);
-
-        //init primitive types also
-        PRIMITIVE_TYPE_CONVERTERS.put("int", IntegerTypeConverter.class);
-        PRIMITIVE_TYPE_CONVERTERS.put("double", DoubleTypeConverter.class);
-        PRIMITIVE_TYPE_CONVERTERS.put("long", LongTypeConverter.class);
-        PRIMITIVE_TYPE_CONVERTERS.put("float", FloatTypeConverter.class);
-        PRIMITIVE_TYPE_CONVERTERS.put("boolean", BooleanTypeConverter.class);
-    }
-
     public AbstractDatabaseManager(Connection con) {
         init(con, (Class<T>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0]);
     }
@@ -95,10 +111,7 @@ public abstract class AbstractDatabaseManager<T extends Entity> {
     }
 
     public AbstractDatabaseManager(Connection con, TypeConverter... converters) {
-        for (TypeConverter converter : converters) {
-            Class<T> clazz = (Class<T>) ((ParameterizedType) converter.getClass().getGenericSuperclass()).getActualTypeArguments()[0];
-            TYPE_CONVERTERS.put(clazz, converter.getClass());
-        }
+        typeConverters = TypeConverterRegistry.getDefault().withOverrides(converters);
 
         init(con, (Class<T>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0]);
     }
@@ -108,10 +121,7 @@ public abstract class AbstractDatabaseManager<T extends Entity> {
         this.logFile = logFile;
         this.verboseLogging = verboseLogging;
 
-        for (TypeConverter converter : converters) {
-            Class<T> clazz = (Class<T>) ((ParameterizedType) converter.getClass().getGenericSuperclass()).getActualTypeArguments()[0];
-            TYPE_CONVERTERS.put(clazz, converter.getClass());
-        }
+        typeConverters = TypeConverterRegistry.getDefault().withOverrides(converters);
 
         init(con, (Class<T>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0]);
     }
@@ -142,23 +152,32 @@ public abstract class AbstractDatabaseManager<T extends Entity> {
         }
 
         dbConnection = con;
+        statementCache = new StatementCache(con);
 
         this.entityClass = entityClass;
-        this.tableName = entityClass.getSimpleName().toLowerCase();
-
-        String tableNameAnno = ReflectUtil.tableName(entityClass);
-        if (tableNameAnno != null) {
-            this.tableName = tableNameAnno.toLowerCase();
+        this.metadata = typeConverters.getMetadata(entityClass);
+        this.tableName = metadata.getTableName();
+        this.entityCache = EntityCache.forEntity(entityClass, tableName, metadata);
+        this.entityValues = new EntityValues<>(entityClass, metadata);
+        this.tableVersion = QueryCache.tableVersion(tableName);
+        List<ColumnMapping> dataColumns = metadata.getDataColumns();
+        for (int i = 0; i < dataColumns.size(); i++) {
+            if (dataColumns.get(i).isPrimaryKey()) {
+                idColumn = i;
+            }
+            if (dataColumns.get(i).getConverter() != null) {
+                insertColumns.add(dataColumns.get(i));
+            }
         }
 
-        for (Class key : TYPE_CONVERTERS.keySet()) {
+        for (Class key : typeConverters.getConverters().keySet()) {
             logger.log(Level.INFO, "Type Converter {0}", key.getCanonicalName());
         }
-        for (String key : PRIMITIVE_TYPE_CONVERTERS.keySet()) {
+        for (String key : typeConverters.getPrimitiveConverters().keySet()) {
             logger.log(Level.INFO, "Primitive Type Converter {0}", key);
         }
 
-        if (dbConnection != null && !ReflectUtil.isImmutable(entityClass)) {
+        if (dbConnection != null && !metadata.isImmutable()) {
             setupTable();
         }
     }
@@ -171,12 +190,13 @@ public abstract class AbstractDatabaseManager<T extends Entity> {
         List<String> dbColumnNames = new ArrayList<>();
         List<String> removedColumns = new ArrayList<>();
         List<String> fieldNames = new ArrayList<>();
-        List<Field> addedColumns = new ArrayList<>();
+        List<ColumnMapping> addedColumns = new ArrayList<>();
 
         try {
 
             if (!tableExists()) {
-                String query = getCreateQuery();
+                EntityMapper<T> mapper = getMapper();
+                String query = mapper != null ? mapper.getCreateQuery(tableName) : getCreateQuery();
                 logger.log(Level.INFO, "Creating table {0} using query: {1}", new Object[]{tableName, query});
 
                 try (Statement statement = getStatement()) {
@@ -207,45 +227,25 @@ public abstract class AbstractDatabaseManager<T extends Entity> {
                 }
 
                 //load Entity column info
-                T entityObj = getNewInstanceOfEntity();
-
-                if (entityObj != null) {
-
-                    Class clazz = entityObj.getClass();
-
-                    if (clazz != null) {
+                for (ColumnMapping mapping : metadata.getColumns()) {
 
-                        List<Field> fields = ReflectUtil.getAllFields(clazz);
-                        for (Field field : fields) {
+                    Column col = new Column(mapping);
+                    entityColumns.put(col.getName(), col);
 
-                            field.setAccessible(true);
-                            if (ReflectUtil.fieldIsOkForDatabase(field)) {
-
-                                Column col = new Column(field, this);
-                                entityColumns.put(col.getName(), col);
-
-                                fieldNames.add(ReflectUtil.getColumnName(field));
-
-                                if (!dbColumnNames.contains(ReflectUtil.getColumnName(field))) {
-                                    addedColumns.add(field);
-                                }
-                            }
+                    fieldNames.add(mapping.getColumnName());
 
-                        }
-                    } else {
-                        logger.info("Null entity!");
+                    if (!dbColumnNames.contains(mapping.getColumnName())) {
+                        addedColumns.add(mapping);
                     }
-                } else {
-                    logger.info("Null entity!");
                 }
 
                 //add new columns
-                for (Field added : addedColumns) {
+                for (ColumnMapping added : addedColumns) {
                     String addQuery = getAddColumnQuery(added);
                     if (addQuery != null && !addQuery.isEmpty()) {
                         logger.log(Level.INFO, "Add column query: {0}", addQuery);
 
-                        Column col = new Column(added, this);
+                        Column col = new Column(added);
                         dbColumns.put(col.getName(), col);
 
                         try (Statement statement = getStatement()) {
@@ -412,66 +412,31 @@ public abstract class AbstractDatabaseManager<T extends Entity> {
         return false;
     }
 
-    private String getAddColumnQuery(Field field) {
+    private String getAddColumnQuery(ColumnMapping column) {
         StringBuilder fieldQueryBuilder = new StringBuilder();
-        List<String> pks = new ArrayList<>();
-        try {
-            field.setAccessible(true);
-
-            if (ReflectUtil.fieldIsOkForDatabase(field)) {
-
-                // attribute order matters in create query, so load
-                // annotations, then add to query in particular order
-                boolean primaryKey = false;
-                boolean autoIncrement = false;
-                boolean notNull = false;
-                boolean unique = false;
-                int size = -1;
-                for (Annotation anno : field.getAnnotations()) {
-                    if (anno instanceof DbPrimaryKey) {
-                        primaryKey = true;
-                    } else if (anno instanceof DbAutoIncrement) {
-                        autoIncrement = true;
-                    } else if (anno instanceof DbNotNull) {
-                        notNull = true;
-                    } else if (anno instanceof DbUnique) {
-                        unique = true;
-                    }
-                }
-
-                if (field.isAnnotationPresent(DbSize.class)) {
-                    size = ReflectUtil.getSize(field);
-                }
-
-                fieldQueryBuilder.append("ALTER TABLE ").append(tableName).append(" ADD COLUMN `").append(ReflectUtil.getColumnName(field)).append("` ");
-                fieldQueryBuilder.append(getColumnType(field));
-
-                if (size != -1) {
-                    fieldQueryBuilder.append("(").append(size).append(")");
-                }
-
-                if (notNull) {
-                    fieldQueryBuilder.append(" NOT NULL ");
-                }
-                if (primaryKey) {
-                    pks.add(ReflectUtil.getColumnName(field));
-                }
-                if (autoIncrement) {
-                    fieldQueryBuilder.append(" AUTO_INCREMENT ");
-                }
-                if (unique) {
-                    fieldQueryBuilder.append(" UNIQUE ");
-                }
 
-                if (!pks.isEmpty()) {
-                    fieldQueryBuilder.append(", DROP PRIMARY KEY, ADD PRIMARY KEY(").append(getCommaList(pks)).append(")");
-                }
+        // attribute order matters in create query, so add to query in
+        // particular order
+        fieldQueryBuilder.append("ALTER TABLE ").append(tableName).append(" ADD COLUMN `").append(column.getColumnName()).append("` ");
+        fieldQueryBuilder.append(column.getDatabaseType());
 
-            }
+        if (column.getSize() != -1) {
+            fieldQueryBuilder.append("(").append(column.getSize()).append(")");
+        }
 
-        } catch (SecurityException e) {
-            logger.log(Level.SEVERE, null, e);
+        if (column.isNotNull()) {
+            fieldQueryBuilder.append(" NOT NULL ");
+        }
+        if (column.isAutoIncrement()) {
+            fieldQueryBuilder.append(" AUTO_INCREMENT ");
+        }
+        if (column.isUnique()) {
+            fieldQueryBuilder.append(" UNIQUE ");
+        }
+        if (column.isPrimaryKey()) {
+            fieldQueryBuilder.append(", DROP PRIMARY KEY, ADD PRIMARY KEY(").append(column.getColumnName()).append(")");
         }
+
         return fieldQueryBuilder.toString();
     }
 
@@ -479,113 +444,89 @@ public abstract class AbstractDatabaseManager<T extends Entity> {
 
         StringBuilder queryBuilder = new StringBuilder("CREATE TABLE " + tableName + "(");
 
-        T obj = getNewInstanceOfEntity();
-        if (obj != null) {
-            Class clazz = obj.getClass();
-            if (clazz != null) {
-                List<Field> fields = ReflectUtil.getAllFields(clazz);
-
-                Collections.sort(fields, new Comparator<Field>() {
-                    @Override
-                    public int compare(Field f1, Field f2) {
-                        return f1.getName().compareTo(f2.getName());
-                    }
-                });
-
-                for (Field field : fields) {
-                    logger.log(Level.FINE, "Field for create: {0}", field.getName());
-                }
+        List<String> fieldQueries = new ArrayList<>();
+        List<String> pks = new ArrayList<>();
 
-                List<String> fieldQueries = new ArrayList<>();
-                List<String> pks = new ArrayList<>();
-
-                for (Field field : fields) {
-
-                    try {
-                        field.setAccessible(true);
-
-                        if (ReflectUtil.fieldIsOkForDatabase(field)) {
-                            StringBuilder fieldQueryBuilder = new StringBuilder();
-
-                            // attribute order matters in create query, so load
-                            // annotations, then add to query in particular order
-                            boolean primaryKey = false;
-                            boolean autoIncrement = false;
-                            boolean notNull = false;
-                            boolean unique = false;
-                            int size = -1;
-                            for (Annotation anno : field.getAnnotations()) {
-                                if (anno instanceof DbPrimaryKey) {
-                                    primaryKey = true;
-                                } else if (anno instanceof DbAutoIncrement) {
-                                    autoIncrement = true;
-                                } else if (anno instanceof DbNotNull) {
-                                    notNull = true;
-                                } else if (anno instanceof DbUnique) {
-                                    unique = true;
-                                }
-                            }
+        for (ColumnMapping column : metadata.getCreateColumns()) {
+            logger.log(Level.FINE, "Field for create: {0}", column.getFieldName());
 
-                            if (field.isAnnotationPresent(DbSize.class)) {
-                                size = ReflectUtil.getSize(field);
-                            }
+            // attribute order matters in create query, so add to query in
+            // particular order
+            StringBuilder fieldQueryBuilder = new StringBuilder();
 
-                            fieldQueryBuilder.append(ReflectUtil.getColumnName(field)).append(" ");
-                            String dbType = getColumnType(field);
-                            fieldQueryBuilder.append(dbType);
+            fieldQueryBuilder.append(column.getColumnName()).append(" ");
+            String dbType = column.getDatabaseType();
+            fieldQueryBuilder.append(dbType);
 
-                            if (size != -1) {
-                                fieldQueryBuilder.append("(" + size + ")");
-                            } else if (dbType.equals(MySQLTypeConverter.DB_TYPE_INTEGER)) {
-                                fieldQueryBuilder.append("(" + MySQLTypeConverter.DB_DEFAULT_INT_SIZE + ")");
-                            }
+            if (column.getSize() != -1) {
+                fieldQueryBuilder.append("(").append(column.getSize()).append(")");
+            } else if (MySQLTypeConverter.DB_TYPE_INTEGER.equals(dbType)) {
+                fieldQueryBuilder.append("(").append(MySQLTypeConverter.DB_DEFAULT_INT_SIZE).append(")");
+            }
 
-                            if (notNull) {
-                                fieldQueryBuilder.append(" NOT NULL ");
-                            }
-                            if (primaryKey) {
-                                pks.add(ReflectUtil.getColumnName(field));
-                            }
-                            if (autoIncrement) {
-                                fieldQueryBuilder.append(" AUTO_INCREMENT ");
-                            }
-                            if (unique) {
-                                fieldQueryBuilder.append(" UNIQUE ");
-                            }
+            if (column.isNotNull()) {
+                fieldQueryBuilder.append(" NOT NULL ");
+            }
+            if (column.isPrimaryKey()) {
+                pks.add(column.getColumnName());
+            }
+            if (column.isAutoIncrement()) {
+                fieldQueryBuilder.append(" AUTO_INCREMENT ");
+            }
+            if (column.isUnique()) {
+                fieldQueryBuilder.append(" UNIQUE ");
+            }
 
-                            fieldQueries.add(fieldQueryBuilder.toString());
+            fieldQueries.add(fieldQueryBuilder.toString());
+        }
 
-                        }
+        queryBuilder.append(getCommaList(fieldQueries));
 
-                    } catch (SecurityException e) {
-                        logger.log(Level.SEVERE, null, e);
-                    }
+        if (!pks.isEmpty()) {
+            queryBuilder.append(", PRIMARY KEY (").append(getCommaList(pks)).append(")");
+        }
 
-                }
+        queryBuilder.append(");");
 
-                int totalFieldCount = fieldQueries.size();
-                int fieldCount = 1;
+        return queryBuilder.toString();
+    }
 
-                for (String fieldQuery : fieldQueries) {
-                    queryBuilder.append(fieldQuery);
-                    if (fieldCount != totalFieldCount) {
-                        queryBuilder.append(", ");
-                    }
-                    fieldCount++;
-                }
+    /**
+     * Write any queued saves and release the prepared statements cached by
+     * this manager, the connection itself is left open
+     */
+    public void close() {
+        try {
+            disableWriteBehind();
+        } finally {
+            disableOffHeapCache();
+            statementCache.close();
+        }
+    }
 
-                if (!pks.isEmpty()) {
-                    queryBuilder.append(", PRIMARY KEY (").append(getCommaList(pks)).append(")");
-                }
+    /**
+     * Close the prepared statements the calling thread cached, for threads
+     * such as flushers and scan workers that are done with this manager
+     */
+    void releaseStatements() {
+        statementCache.release();
+    }
 
-                queryBuilder.append(");");
-            }
+    /**
+     * Send the calling thread's statements through another connection's
+     * cache, or back through the manager's connection with null
+     */
+    void bindStatements(StatementCache statements) {
+        if (statements == null) {
+            boundStatements.remove();
+        } else {
+            boundStatements.set(statements);
         }
-
-        return queryBuilder.toString();
     }
 
-    public void close() {
+    private StatementCache statements() {
+        StatementCache bound = boundStatements.get();
+        return bound != null ? bound : statementCache;
     }
 
     protected final Statement getStatement() {
@@ -611,7 +552,8 @@ public abstract class AbstractDatabaseManager<T extends Entity> {
     }
 
     /**
-     * Convenience method that updates or inserts based on persisted flag
+     * Convenience method that updates or inserts based on persisted flag. With
+     * write behind enabled the entity is queued instead.
      *
      * @param entity
      * @return true if successful
@@ -619,7 +561,9 @@ public abstract class AbstractDatabaseManager<T extends Entity> {
     public boolean save(T entity) {
 
         if (entity != null) {
-            if (entity.isPersisted()) {
+            if (writeBehind != null) {
+                return queue(entity);
+            } else if (entity.isPersisted()) {
                 update(entity);
                 return true;
             } else {
@@ -632,309 +576,2316 @@ public abstract class AbstractDatabaseManager<T extends Entity> {
 
     }
 
-    private String getEscapedField(Object value) {
-        if (value != null) {
-            if (value instanceof String) {
-                return "\"" + value + "\"";
-            } else if (value instanceof Boolean || value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof Float) {
-                return value + "";
-            } else {
-                return "\"" + value + "\"";
-            }
-        }
-        logger.severe("Trying to escape null entity");
-        return null;
-    }
-
-    public boolean insert(T entity) {
-
-        HashMap<String, Object> cv = getData(entity);
-        if (cv.size() > 0) {
-            try {
-                StringBuilder insertQueryBuilder = new StringBuilder("INSERT INTO " + tableName + "(");
+    /**
+     * Batched counterpart of {@link #save(Entity)}, new entities are inserted
+     * with {@link #insertAll(Collection)} and persisted ones are updated. With
+     * write behind enabled the entities are queued instead.
+     *
+     * @param entities entities to save
+     * @return number of saved or queued entities
+     */
+    public int saveAll(Collection<T> entities) {
 
-                List<String> values = new ArrayList<>();
-                List<String> columns = new ArrayList<>();
+        if (entities == null || entities.isEmpty()) {
+            return 0;
+        }
 
-                for (Map.Entry<String, Object> entry : cv.entrySet()) {
-                    String key = entry.getKey();
-                    Object value = entry.getValue();
-                    columns.add(key);
-                    values.add(getEscapedField(value));
+        if (writeBehind != null) {
+            int queued = 0;
+            for (T entity : entities) {
+                if (entity == null) {
+                    logger.severe("Trying to save null entity");
+                } else if (queue(entity)) {
+                    queued++;
                 }
+            }
+            return queued;
+        }
 
-                insertQueryBuilder.append(getCommaList(columns)).append(") VALUES (");
-                insertQueryBuilder.append(getCommaList(values)).append(");");
-                logger.log(Level.FINE, "Insert query: {0}", insertQueryBuilder);
-
-                String[] generatedColumns = {"id"};
-                try (PreparedStatement statement = dbConnection.prepareStatement(insertQueryBuilder.toString(), generatedColumns)) {
-                    if (statement != null) {
-                        int affectedRows = statement.executeUpdate();
-
-                        if (affectedRows > 0) {
-
-                            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
-                                if (generatedKeys.next()) {
-                                    entity.setId(generatedKeys.getLong(1));
-                                } else {
-                                    throw new SQLException("Creating user failed, no ID obtained.");
-                                }
-                            }
-
-                        }
-                    } else {
-                        logger.severe(NULL_STATEMENT_MSG);
-                    }
-                }
+        return saveNow(entities);
+    }
 
-            } catch (SQLException ex) {
-                logger.log(Level.SEVERE, null, ex);
+    /**
+     * saveAll without write behind, also used by the write behind flusher
+     */
+    int saveNow(Collection<T> entities) {
+
+        List<T> inserts = new ArrayList<>();
+        List<T> updates = new ArrayList<>();
+        for (T entity : entities) {
+            if (entity == null) {
+                logger.severe("Trying to save null entity");
+            } else if (entity.isPersisted()) {
+                updates.add(entity);
+            } else {
+                inserts.add(entity);
             }
         }
 
-        return false;
+        return updateAll(updates) + insertAll(inserts);
     }
 
-    public boolean update(T entity) {
+    /**
+     * Insert the entity, or update the existing row when its primary key or a
+     * unique column matches one
+     *
+     * @param entity entity to upsert
+     * @return inserted and updated counts
+     */
+    public UpsertResult upsert(T entity) {
 
-        HashMap<String, Object> cv = getData(entity);
-        if (cv.size() > 0) {
-            try {
-                StringBuilder query = new StringBuilder("UPDATE " + tableName + " ");
+        if (entity == null) {
+            logger.severe("Trying to upsert null entity");
+            return new UpsertResult(0, 0, 0);
+        }
 
-                List<String> updates = new ArrayList<>();
+        return upsertAll(Collections.singletonList(entity));
+    }
 
-                for (Map.Entry<String, Object> entry : cv.entrySet()) {
-                    String key = entry.getKey();
-                    Object value = entry.getValue();
-                    updates.add(" " + key + " = " + getEscapedField(value) + " ");
-                }
+    /**
+     * Batched INSERT ... ON DUPLICATE KEY UPDATE of entities whose persisted
+     * state is unknown, matched on the primary key and unique columns. Every
+     * entity ends up persisted and, where the driver reports it, with the id
+     * of its row. Null fields are left out of both the insert and the update,
+     * so new rows get the column default and existing rows keep their value.
+     * Entities with the same null fields share a batch.
+     * <p>
+     * Unless the connection URL sets useAffectedRows=true, Connector/J counts
+     * an existing row left unchanged like an insert, so the result then only
+     * tells updated rows apart (see {@link UpsertResult}). Ids are taken from
+     * the rows written, so an entity that matched an existing row on a unique
+     * column gets that row's id, except for an unchanged row under
+     * useAffectedRows=true, which reports no key and keeps the id it had.
+     *
+     * @param entities entities to upsert
+     * @return inserted and updated counts
+     */
+    public UpsertResult upsertAll(Collection<T> entities) {
 
-                query.append("SET ").append(getCommaList(updates)).append(" WHERE id = ").append(entity.getId());
+        if (entities == null || entities.isEmpty()) {
+            return new UpsertResult(0, 0, 0);
+        }
 
-                logger.log(Level.FINE, "Update query: {0}", query);
+        if (!hasUniqueKey()) {
+            logger.log(Level.SEVERE, "Upsert needs a primary key or unique column on {0}", tableName);
+            return new UpsertResult(0, 0, 0);
+        }
 
-                try (Statement statement = getStatement()) {
-                    if (statement != null) {
-                        statement.execute(query.toString());
+        int[] totals = new int[3];
+        Map<BitSet, List<T>> batches = new LinkedHashMap<>();
+        for (T entity : entities) {
+            if (entity == null) {
+                logger.severe("Trying to upsert null entity");
+                continue;
+            }
+            if (isPartialWrite(entity, "upsert")) {
+                continue;
+            }
+            BitSet nulls = getNullColumns(entity);
+            List<T> batch = batches.get(nulls);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                batches.put(nulls, batch);
+            }
+            batch.add(entity);
+        }
 
-                        return true;
-                    } else {
-                        logger.severe(NULL_STATEMENT_MSG);
+        for (Map.Entry<BitSet, List<T>> entry : batches.entrySet()) {
+            BitSet nulls = entry.getKey();
+            String query = getUpsertQuery(nulls);
+            logger.log(Level.FINE, "Upsert query: {0}", query);
+
+            try {
+                PreparedStatement statement = prepareInsert(query, nulls, metadata.isNoID() ? null : GENERATED_COLUMNS);
+                List<T> chunk = new ArrayList<>(Math.min(batchSize, entry.getValue().size()));
+                for (T entity : entry.getValue()) {
+                    bindInsert(statement, entity, 1, nulls);
+                    statement.addBatch();
+                    chunk.add(entity);
+
+                    if (chunk.size() >= batchSize) {
+                        executeUpsertBatch(statement, chunk, totals);
+                        chunk.clear();
                     }
                 }
+                if (!chunk.isEmpty()) {
+                    executeUpsertBatch(statement, chunk, totals);
+                }
 
             } catch (SQLException ex) {
                 logger.log(Level.SEVERE, null, ex);
-                return false;
             }
         }
-        return false;
-    }
-
-    public boolean delete(T entity) {
-
-        HashMap cv = getData(entity);
-        if (cv.size() > 0) {
-
-            try {
-                String query = "DELETE FROM " + tableName + " WHERE id = " + entity.getId();
-
-                logger.log(Level.FINE, "Delete query: {0}", query);
-
-                try (Statement statement = getStatement()) {
-                    if (statement != null) {
-                        statement.execute(query);
 
-                    } else {
-                        logger.severe(NULL_STATEMENT_MSG);
-                    }
-                }
+        return new UpsertResult(totals[0], totals[1], totals[2]);
+    }
 
+    private boolean hasUniqueKey() {
+        for (ColumnMapping column : metadata.getDataColumns()) {
+            if (column.isPrimaryKey() || column.isUnique()) {
                 return true;
-            } catch (SQLException ex) {
-                logger.log(Level.SEVERE, "Delete failure", ex);
-                return false;
             }
-
         }
         return false;
     }
 
-    public T read(long id) {
-        try {
-            String query = "SELECT * FROM " + tableName + " WHERE id  = " + id;
+    private void executeUpsertBatch(PreparedStatement statement, List<T> chunk, int[] totals) throws SQLException {
+        int[] counts = statement.executeBatch();
+
+        // with found rows an unchanged row also counts 1, so a 1 may be
+        // either an insert or an existing row
+        boolean found = reportsFoundRows();
+        boolean reported = counts.length == chunk.size();
+        for (int count : counts) {
+            if (count == 2 || (count == 0 && !found)) {
+                totals[1]++;
+            } else if (count == 1 && !found) {
+                totals[0]++;
+            } else {
+                totals[2]++;
+                if (count != 1) {
+                    reported = false;
+                }
+            }
+        }
 
-            logger.log(Level.FINE, "Read query: {0}", query);
+        for (T entity : chunk) {
+            entity.setPersisted(true);
+        }
 
-            try (Statement statement = getStatement()) {
-                if (statement != null) {
-                    try (ResultSet rs = statement.executeQuery(query)) {
-                        if (rs.next()) {
-                            T obj = setData(rs, getNewInstanceOfEntity());;
-                            return obj;
+        // Connector/J gives one generated key per counted row, so an updated
+        // row yields two keys and only the first is its id. The update clause
+        // sets LAST_INSERT_ID(id), so that key is the id of the row written
+        // even when it matched on a unique column and not the preset id.
+        if (!metadata.isNoID() && reported) {
+            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                keys:
+                for (int i = 0; i < counts.length; i++) {
+                    T entity = chunk.get(i);
+                    for (int k = 0; k < counts[i]; k++) {
+                        if (!generatedKeys.next()) {
+                            break keys;
+                        }
+                        long key = generatedKeys.getLong(1);
+                        if (k == 0 && key > 0) {
+                            entity.setId(key);
                         }
                     }
-                } else {
-                    logger.severe(NULL_STATEMENT_MSG);
                 }
             }
-            return null;
-        } catch (SQLException ex) {
-            logger.log(Level.SEVERE, null, ex);
-            return null;
+        }
+
+        for (T entity : chunk) {
+            written(entity);
         }
     }
 
     /**
-     * List records in table based on where X = ? clauses
-     *
-     * @param args where arguments
-     * @return list of records for table
+     * @return whether the connection counts the rows an update matched rather
+     * than those it changed, as Connector/J does unless useAffectedRows=true
      */
-    public List<T> listWhereArgsEquals(QueryArguments args) {
-
-        List<T> list = new ArrayList<>();
-
-        StringBuilder query = new StringBuilder("SELECT * FROM " + tableName);
-
-        if (!args.getArgs().isEmpty()) {
-            query.append(" WHERE ");
-
-            int argCount = 1;
-            for (Map.Entry<String, Object> entry : args.getArgs().entrySet()) {
-                String key = entry.getKey();
-                Object value = entry.getValue();
-
-                query.append(key).append(" = ").append(getEscapedField(value)).append(" ");
-
-                if (argCount != args.getArgs().size()) {
-                    query.append(" AND ");
+    private boolean reportsFoundRows() {
+        if (foundRows == null) {
+            boolean found = false;
+            try {
+                com.mysql.jdbc.Connection mysqlConnection = null;
+                if (dbConnection instanceof com.mysql.jdbc.Connection) {
+                    mysqlConnection = (com.mysql.jdbc.Connection) dbConnection;
+                } else if (dbConnection.isWrapperFor(com.mysql.jdbc.Connection.class)) {
+                    mysqlConnection = dbConnection.unwrap(com.mysql.jdbc.Connection.class);
                 }
-                argCount++;
-            }
-
-        }
-        logger.log(Level.FINE, "listWhereArgsEquals query: {0}", query);
-
-        try {
-
-            try (Statement statement = getStatement()) {
-                if (statement != null) {
-                    try (ResultSet rs = statement.executeQuery(query.toString())) {
-                        while (rs != null && rs.next()) {
-                            list.add(setData(rs, getNewInstanceOfEntity()));
-                        }
-                    }
-
-                } else {
-                    logger.severe(NULL_STATEMENT_MSG);
+                if (mysqlConnection != null) {
+                    // drivers before 5.1.7 have no useAffectedRows option
+                    found = true;
+                    Method option = mysqlConnection.getClass().getMethod("getUseAffectedRows");
+                    found = !((Boolean) option.invoke(mysqlConnection));
+                    affectedRows = !found;
                 }
+            } catch (NoSuchMethodException ex) {
+                // found rows it is
+            } catch (SQLException | ReflectiveOperationException ex) {
+                logger.log(Level.WARNING, null, ex);
             }
-        } catch (SQLException ex) {
-            logger.log(Level.SEVERE, null, ex);
+            foundRows = found;
         }
-        return list;
+        return foundRows;
     }
 
-    private T getNewInstanceOfEntity() {
+    /**
+     * @return whether an update of a row to the values it has counts 0, so
+     * that 0 does not tell that no row matched
+     */
+    private boolean reportsAffectedRows() {
+        reportsFoundRows();
+        return affectedRows;
+    }
+
+    private boolean queue(T entity) {
         try {
-            return entityClass.newInstance();
-        } catch (IllegalAccessException | InstantiationException e) {
-            return null;
+            writeBehind.add(entity);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            logger.log(Level.SEVERE, "Interrupted while queueing save", ex);
+            return false;
         }
     }
 
     /**
-     * List all records for table
+     * Write behind that drops entities which failed to save
+     * {@link #DEFAULT_WRITE_ATTEMPTS} times, see
+     * {@link #enableWriteBehind(ConnectionSource, int, int, long, int, WriteFailureCallback)}
      *
-     * @return list of records
+     * @param source connection for the queued saves
+     * @param capacity maximum number of queued entities
+     * @param flushSize queue size that triggers a write
+     * @param flushIntervalMillis longest time a save stays queued
+     * @throws SQLException if no connection could be had
      */
-    public List<T> list() {
-        QueryArguments args = new QueryArguments();
-        return listWhereArgsEquals(args);
+    public void enableWriteBehind(ConnectionSource source, int capacity, int flushSize, long flushIntervalMillis) throws SQLException {
+        enableWriteBehind(source, capacity, flushSize, flushIntervalMillis, DEFAULT_WRITE_ATTEMPTS, null);
     }
 
     /**
-     * List with custom query
+     * Queue saves in memory and write them from a background thread in
+     * batches. Saves of the same row are coalesced so the last one wins, and
+     * save blocks while the queue is full. Reads do not see queued saves until
+     * they are flushed, and while enabled writes should go through save and
+     * saveAll so they are not interleaved with the flusher's.
+     * <p>
+     * Queued saves are written and committed on a connection of their own,
+     * held until write behind is disabled, so they never join a
+     * {@link UnitOfWork} or wait on an open {@link EntityCursor} of the
+     * manager's connection. Entities that fail are retried one at a time on
+     * later flushes, and handed to the callback once they have failed
+     * maxAttempts times or when the last write on disabling fails them.
      *
-     * @param query
-     * @return list of records
+     * @param source connection for the queued saves
+     * @param capacity maximum number of queued entities
+     * @param flushSize queue size that triggers a write
+     * @param flushIntervalMillis longest time a save stays queued
+     * @param maxAttempts writes of an entity before giving up on it
+     * @param failures receives the entities given up on, or null to drop
+     * them
+     * @throws SQLException if no connection could be had
      */
-    public List<T> list(String query) {
-        List<T> list = new ArrayList<>();
+    public synchronized void enableWriteBehind(ConnectionSource source, int capacity, int flushSize, long flushIntervalMillis,
+            int maxAttempts, WriteFailureCallback<T> failures) throws SQLException {
+        if (capacity < 1 || flushSize < 1 || flushIntervalMillis < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("Write behind capacity, flush size, interval and attempts must be at least 1");
+        }
+        disableWriteBehind();
 
+        Connection connection = source.getConnection();
         try {
-            try (Statement statement = getStatement()) {
-                if (statement != null) {
-                    try (ResultSet rs = statement.executeQuery(query)) {
-                        while (rs != null && rs.next()) {
-                            list.add(setData(rs, getNewInstanceOfEntity()));
-                        }
-                    }
-
-                } else {
-                    logger.severe(NULL_STATEMENT_MSG);
-                }
-            }
-
+            connection.setAutoCommit(true);
         } catch (SQLException ex) {
-            logger.log(Level.SEVERE, null, ex);
+            connection.close();
+            throw ex;
         }
-        return list;
-
+        writeBehind = new WriteBehindBuffer<>(this, connection, capacity, flushSize, flushIntervalMillis, maxAttempts, failures);
     }
 
-    public int count() {
+    /**
+     * Write anything still queued, hand what fails to the failure callback
+     * and go back to saving synchronously
+     */
+    public synchronized void disableWriteBehind() {
+        if (writeBehind != null) {
+            WriteBehindBuffer<T> buffer = writeBehind;
+            writeBehind = null;
+            buffer.close();
+        }
+    }
 
-        try {
+    public boolean isWriteBehind() {
+        return writeBehind != null;
+    }
 
-            try (Statement statement = getStatement()) {
-                if (statement != null) {
-                    String cntField = "id";
-                    if (ReflectUtil.noID(entityClass)) {
-                        cntField = "*";
-                    }
+    /**
+     * @return number of saves waiting for write behind, 0 without it
+     */
+    public int getQueuedSaves() {
+        WriteBehindBuffer<T> buffer = writeBehind;
+        return buffer != null ? buffer.size() : 0;
+    }
 
-                    String query = "SELECT count(" + cntField + ") FROM " + tableName;
+    /**
+     * Write every queued save before returning, does nothing without write
+     * behind
+     *
+     * @throws IllegalStateException if some entities could not be saved, they
+     * stay queued for the next flush unless they were given up on
+     */
+    public void flush() {
+        WriteBehindBuffer<T> buffer = writeBehind;
+        if (buffer != null) {
+            buffer.flush();
+        }
+    }
+
+    /**
+     * Load entities with LOAD DATA LOCAL INFILE, see
+     * {@link #bulkLoad(Iterator, int)}
+     *
+     * @param entities entities to load
+     * @return number of rows loaded
+     */
+    public long bulkLoad(Iterable<? extends T> entities) {
+        if (entities == null) {
+            return 0;
+        }
+        return bulkLoad(entities.iterator(), DEFAULT_BULK_LOAD_ROWS);
+    }
+
+    /**
+     * Load entities with LOAD DATA LOCAL INFILE, much faster than inserts for
+     * large loads. Rows are encoded as the driver reads them, so nothing is
+     * written to disk and only one row is held in memory, and each statement
+     * loads at most chunkRows rows. Needs Connector/J with
+     * allowLoadLocalInfile and local_infile enabled on the server. Generated
+     * ids are not returned and the entities are left unpersisted. Entities
+     * read by a projection are skipped.
+     *
+     * @param entities entities to load
+     * @param chunkRows maximum rows per LOAD DATA statement
+     * @return number of rows loaded
+     */
+    public long bulkLoad(Iterator<? extends T> entities, int chunkRows) {
+
+        if (entities == null || !entities.hasNext()) {
+            return 0;
+        }
+        if (chunkRows < 1) {
+            throw new IllegalArgumentException("Chunk rows must be at least 1");
+        }
+
+        List<ColumnMapping> columns = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (ColumnMapping column : metadata.getDataColumns()) {
+            if (column.getConverter() != null) {
+                columns.add(column);
+                names.add(column.getColumnName());
+            }
+        }
+
+        // the default field and line format, so it does not depend on sql_mode escaping
+        String query = "LOAD DATA LOCAL INFILE 'pulsar.tsv' INTO TABLE " + tableName
+                + " CHARACTER SET utf8mb4 (" + getCommaList(names) + ")";
+        logger.log(Level.FINE, "Bulk load query: {0}", query);
+
+        long loaded = 0;
+        try (Statement statement = getStatement()) {
+            if (statement == null) {
+                logger.severe(NULL_STATEMENT_MSG);
+                return 0;
+            }
+
+            com.mysql.jdbc.Statement mysqlStatement;
+            if (statement instanceof com.mysql.jdbc.Statement) {
+                mysqlStatement = (com.mysql.jdbc.Statement) statement;
+            } else if (statement.isWrapperFor(com.mysql.jdbc.Statement.class)) {
+                mysqlStatement = statement.unwrap(com.mysql.jdbc.Statement.class);
+            } else {
+                logger.severe("Bulk load needs a MySQL Connector/J statement");
+                return 0;
+            }
+
+            while (entities.hasNext()) {
+                EntityRowStream rows = new EntityRowStream(columns, entities, chunkRows);
+                mysqlStatement.setLocalInfileInputStream(rows);
+                try {
+                    loaded += statement.executeUpdate(query);
+                } finally {
+                    mysqlStatement.setLocalInfileInputStream(null);
+                }
+                logger.log(Level.FINE, "Bulk loaded chunk of {0} rows", rows.getRows());
+                if (rows.getSkipped() > 0) {
+                    logger.log(Level.SEVERE, "Skipped {0} partial entities in bulk load of {1}", new Object[]{rows.getSkipped(), tableName});
+                }
+            }
+
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+        }
+        // a failed chunk may still have loaded rows
+        tableChanged();
+
+        return loaded;
+    }
+
+    /**
+     * Insert the entity, null fields are left out so their column defaults
+     * apply
+     *
+     * @param entity entity to insert
+     * @return true if a row was inserted
+     */
+    public boolean insert(T entity) {
+
+        if (entity == null) {
+            logger.severe("Trying to insert null entity");
+            return false;
+        }
+        if (isPartialWrite(entity, "insert")) {
+            return false;
+        }
+
+        try {
+            BitSet nulls = getNullColumns(entity);
+            String query = getInsertQuery(nulls);
+            logger.log(Level.FINE, "Insert query: {0}", query);
+
+            PreparedStatement statement = prepareInsert(query, nulls, GENERATED_COLUMNS);
+            bindInsert(statement, entity, 1, nulls);
+            return executeInsert(statement, entity);
+
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+        }
+
+        return false;
+    }
+
+    /**
+     * @return columns written by insert, in bind order
+     */
+    private List<String> getInsertColumnNames() {
+        EntityMapper<T> mapper = getMapper();
+        if (mapper != null) {
+            return Arrays.asList(mapper.getColumnNames());
+        }
+
+        List<String> columns = new ArrayList<>();
+        for (ColumnMapping column : metadata.getDataColumns()) {
+            if (column.getConverter() != null) {
+                columns.add(column.getColumnName());
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Entities read by a projection hold defaults in the columns they were
+     * read without, so inserting or upserting them would write those defaults
+     * over the row
+     *
+     * @return true if the entity is partial and must not be written
+     */
+    private boolean isPartialWrite(T entity, String operation) {
+        if (entity.isPartial()) {
+            logger.log(Level.SEVERE, "Trying to {0} partial entity {1}", new Object[]{operation, entity.getId()});
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param nulls insert columns to leave out, or null for none
+     * @return columns written by insert, in bind order
+     */
+    private List<String> getInsertColumnNames(BitSet nulls) {
+        if (nulls == null) {
+            return getInsertColumnNames();
+        }
+
+        List<String> columns = new ArrayList<>();
+        for (int i = 0; i < insertColumns.size(); i++) {
+            if (!nulls.get(i)) {
+                columns.add(insertColumns.get(i).getColumnName());
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @param entity entity to insert
+     * @return insert columns the entity holds null in, left out of its insert
+     * so the column defaults apply, or null when every column has a value
+     */
+    private BitSet getNullColumns(T entity) {
+        BitSet nulls = null;
+        for (int i = 0; i < insertColumns.size(); i++) {
+            if (insertColumns.get(i).isNull(entity)) {
+                if (nulls == null) {
+                    nulls = new BitSet(insertColumns.size());
+                }
+                nulls.set(i);
+            }
+        }
+        return nulls;
+    }
+
+    private String getInsertQuery() {
+        if (insertQuery == null) {
+            insertQuery = buildInsertQuery(getInsertColumnNames());
+        }
+        return insertQuery;
+    }
+
+    /**
+     * @param nulls insert columns to leave out, or null for none
+     * @return insert query with one statement per set of left out columns
+     */
+    private String getInsertQuery(BitSet nulls) {
+        return nulls == null ? getInsertQuery() : buildInsertQuery(getInsertColumnNames(nulls));
+    }
+
+    private String buildInsertQuery(List<String> columns) {
+        List<String> placeholders = new ArrayList<>();
+        for (String column : columns) {
+            placeholders.add("?");
+        }
+        return "INSERT INTO " + tableName + "(" + getCommaList(columns) + ") VALUES (" + getCommaList(placeholders) + ");";
+    }
+
+    /**
+     * Insert query that updates every inserted non key column on a duplicate
+     * key. The id is passed through LAST_INSERT_ID so updated rows report it
+     * as their generated key.
+     *
+     * @param nulls insert columns to leave out, or null for none
+     */
+    private String getUpsertQuery(BitSet nulls) {
+        if (nulls == null && upsertQuery != null) {
+            return upsertQuery;
+        }
+
+        List<String> keys = new ArrayList<>();
+        for (ColumnMapping column : metadata.getDataColumns()) {
+            if (column.isPrimaryKey()) {
+                keys.add(column.getColumnName());
+            }
+        }
+
+        List<String> columns = getInsertColumnNames(nulls);
+        List<String> updates = new ArrayList<>();
+        for (String column : columns) {
+            if (!keys.contains(column)) {
+                updates.add(column + " = VALUES(" + column + ")");
+            }
+        }
+        if (!metadata.isNoID()) {
+            updates.add("id = LAST_INSERT_ID(id)");
+        } else if (updates.isEmpty()) {
+            String column = insertColumns.get(0).getColumnName();
+            updates.add(column + " = " + column);
+        }
+
+        String insert = buildInsertQuery(columns);
+        String query = insert.substring(0, insert.length() - 1) + " ON DUPLICATE KEY UPDATE " + getCommaList(updates);
+        if (nulls == null) {
+            upsertQuery = query;
+        }
+        return query;
+    }
+
+    private String getUpdateQuery() {
+        if (updateQuery == null) {
+            List<String> updates = new ArrayList<>();
+            for (String column : getInsertColumnNames()) {
+                updates.add(column + " = ?");
+            }
+            updateQuery = "UPDATE " + tableName + " SET " + getCommaList(updates) + " WHERE id = ?";
+        }
+        return updateQuery;
+    }
+
+    private String getPartialUpdateQuery(List<ColumnMapping> columns) {
+        List<String> updates = new ArrayList<>();
+        for (ColumnMapping column : columns) {
+            updates.add(column.getColumnName() + " = ?");
+        }
+        return "UPDATE " + tableName + " SET " + getCommaList(updates) + " WHERE id = ?";
+    }
+
+    private String getDeleteQuery() {
+        if (deleteQuery == null) {
+            deleteQuery = "DELETE FROM " + tableName + " WHERE id = ?";
+        }
+        return deleteQuery;
+    }
+
+    private String getReadQuery() {
+        if (readQuery == null) {
+            readQuery = "SELECT * FROM " + tableName + " WHERE id = ?";
+        }
+        return readQuery;
+    }
+
+    private void bindId(PreparedStatement statement, int index, T entity) throws SQLException {
+        if (entity.getId() != null) {
+            statement.setLong(index, entity.getId());
+        } else {
+            statement.setNull(index, Types.BIGINT);
+        }
+    }
+
+    /**
+     * Bind a query argument, dates are stored as epoch milliseconds like
+     * DateTypeConverter does
+     */
+    private void bindArgument(PreparedStatement statement, int index, Object value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.NULL);
+        } else if (value instanceof Date) {
+            statement.setLong(index, ((Date) value).getTime());
+        } else {
+            statement.setObject(index, value);
+        }
+    }
+
+    /**
+     * Bind the insert columns of an entity, straight from its fields
+     *
+     * @return next free parameter index
+     */
+    private int bindInsert(PreparedStatement statement, T entity, int index) throws SQLException {
+        EntityMapper<T> mapper = getMapper();
+        if (mapper != null) {
+            return mapper.bind(statement, entity, index);
+        }
+
+        for (ColumnMapping column : metadata.getDataColumns()) {
+            if (column.getConverter() != null) {
+                column.bind(statement, index++, entity);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Inserts with left out columns are one of many shapes and cached apart
+     * from the fixed insert
+     *
+     * @param nulls insert columns left out, or null for none
+     */
+    private PreparedStatement prepareInsert(String query, BitSet nulls, String[] generatedColumns) throws SQLException {
+        if (nulls == null) {
+            return statements().prepare(query, generatedColumns);
+        }
+        return statements().prepareVariant(query, generatedColumns);
+    }
+
+    /**
+     * Bind the insert columns of an entity except the left out ones
+     *
+     * @param nulls insert columns to leave out, or null for none
+     * @return next free parameter index
+     */
+    private int bindInsert(PreparedStatement statement, T entity, int index, BitSet nulls) throws SQLException {
+        if (nulls == null) {
+            return bindInsert(statement, entity, index);
+        }
+
+        for (int i = 0; i < insertColumns.size(); i++) {
+            if (!nulls.get(i)) {
+                insertColumns.get(i).bind(statement, index++, entity);
+            }
+        }
+        return index;
+    }
+
+    private boolean executeInsert(PreparedStatement statement, T entity) throws SQLException {
+        int affectedRows = statement.executeUpdate();
+
+        if (affectedRows > 0) {
+
+            entity.setPersisted(true);
+
+            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                if (generatedKeys.next()) {
+                    entity.setId(generatedKeys.getLong(1));
+                } else {
+                    throw new SQLException("Creating user failed, no ID obtained.");
+                }
+            }
+
+            written(entity);
+        }
+        return affectedRows > 0;
+    }
+
+    /**
+     * Insert entities with JDBC batches of {@link #getBatchSize()} rows on one
+     * prepared statement. Generated ids are assigned back, in order, to the
+     * entities that had no id. Null fields are left out like in
+     * {@link #insert(Entity)}, and entities with the same null fields share a
+     * batch. Add rewriteBatchedStatements=true to the connection URL to have
+     * MySQL Connector/J send each batch as a single multi-row insert.
+     *
+     * @param entities entities to insert
+     * @return number of inserted rows
+     */
+    public int insertAll(Collection<T> entities) {
+
+        if (entities == null || entities.isEmpty()) {
+            return 0;
+        }
+
+        Map<BitSet, List<T>> batches = new LinkedHashMap<>();
+        for (T entity : entities) {
+            if (entity == null) {
+                logger.severe("Trying to insert null entity");
+                continue;
+            }
+            if (isPartialWrite(entity, "insert")) {
+                continue;
+            }
+            BitSet nulls = getNullColumns(entity);
+            List<T> batch = batches.get(nulls);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                batches.put(nulls, batch);
+            }
+            batch.add(entity);
+        }
+
+        int inserted = 0;
+        for (Map.Entry<BitSet, List<T>> entry : batches.entrySet()) {
+            BitSet nulls = entry.getKey();
+            String query = getInsertQuery(nulls);
+            logger.log(Level.FINE, "Insert batch query: {0}", query);
+
+            try {
+                PreparedStatement statement = prepareInsert(query, nulls, GENERATED_COLUMNS);
+                List<T> chunk = new ArrayList<>(Math.min(batchSize, entry.getValue().size()));
+                for (T entity : entry.getValue()) {
+                    bindInsert(statement, entity, 1, nulls);
+                    statement.addBatch();
+                    chunk.add(entity);
+
+                    if (chunk.size() >= batchSize) {
+                        inserted += executeInsertBatch(statement, chunk);
+                        chunk.clear();
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    inserted += executeInsertBatch(statement, chunk);
+                }
+
+            } catch (SQLException ex) {
+                logger.log(Level.SEVERE, null, ex);
+            }
+        }
+
+        return inserted;
+    }
+
+    private int executeInsertBatch(PreparedStatement statement, List<T> chunk) throws SQLException {
+        int[] counts = statement.executeBatch();
+
+        int inserted = 0;
+        for (int count : counts) {
+            if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                inserted++;
+            }
+        }
+
+        for (T entity : chunk) {
+            entity.setPersisted(true);
+        }
+
+        if (!metadata.isNoID()) {
+            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                for (T entity : chunk) {
+                    if (entity.getId() == null || entity.getId() <= 0) {
+                        if (generatedKeys.next()) {
+                            entity.setId(generatedKeys.getLong(1));
+                        } else {
+                            throw new SQLException("Batch insert returned fewer ids than rows.");
+                        }
+                    }
+                }
+            }
+        }
+
+        for (T entity : chunk) {
+            written(entity);
+        }
+
+        return inserted;
+    }
+
+    /**
+     * Update the row of an entity. Entities read or written by this manager
+     * only send the columns changed since then, and nothing at all when no
+     * column changed. Entities read by a projection never send the columns
+     * they were read without.
+     *
+     * @param entity entity to update
+     * @return true if successful
+     */
+    public boolean update(T entity) {
+
+        if (entity == null) {
+            logger.severe("Trying to update null entity");
+            return false;
+        }
+
+        List<ColumnMapping> changed = getChangedColumns(entity);
+        if (changed != null && changed.isEmpty()) {
+            logger.log(Level.FINE, "Skipping update of unchanged entity {0}", entity.getId());
+            return true;
+        }
+
+        try {
+            PreparedStatement statement;
+            int index;
+            if (changed == null) {
+                String query = getUpdateQuery();
+                logger.log(Level.FINE, "Update query: {0}", query);
+
+                statement = statements().prepare(query);
+                index = bindInsert(statement, entity, 1);
+            } else {
+                String query = getPartialUpdateQuery(changed);
+                logger.log(Level.FINE, "Update query: {0}", query);
+
+                // one shape per set of changed columns
+                statement = statements().prepareVariant(query);
+                index = 1;
+                for (ColumnMapping column : changed) {
+                    column.bind(statement, index++, entity);
+                }
+            }
+            bindId(statement, index, entity);
+            statement.executeUpdate();
+            written(entity);
+            return true;
+
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
+    /**
+     * Batched counterpart of {@link #update(Entity)}. Entities with the same
+     * changed columns share a batch and unchanged ones are skipped.
+     *
+     * @param entities entities to update
+     * @return number of updated or unchanged entities, not counting those
+     * whose update matched no row
+     */
+    public int updateAll(Collection<T> entities) {
+        return updateAll(entities, null);
+    }
+
+    /**
+     * {@link #updateAll(Collection)} that tells which updates matched no row.
+     * With useAffectedRows=true Connector/J also counts 0 for a row updated
+     * to the values it has, so those rows are taken as matched.
+     *
+     * @param entities entities to update
+     * @param missing receives the entities whose row was not found, or null
+     * @return number of updated or unchanged entities
+     */
+    int updateAll(Collection<T> entities, List<T> missing) {
+
+        if (entities == null || entities.isEmpty()) {
+            return 0;
+        }
+
+        int updated = 0;
+        Map<String, List<T>> batches = new LinkedHashMap<>();
+        Map<String, List<ColumnMapping>> batchColumns = new HashMap<>();
+        for (T entity : entities) {
+            if (entity == null) {
+                logger.severe("Trying to update null entity");
+                continue;
+            }
+
+            List<ColumnMapping> changed = getChangedColumns(entity);
+            if (changed != null && changed.isEmpty()) {
+                updated++;
+                continue;
+            }
+
+            String query = changed == null ? getUpdateQuery() : getPartialUpdateQuery(changed);
+            List<T> batch = batches.get(query);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                batches.put(query, batch);
+                batchColumns.put(query, changed);
+            }
+            batch.add(entity);
+        }
+
+        for (Map.Entry<String, List<T>> entry : batches.entrySet()) {
+            String query = entry.getKey();
+            List<ColumnMapping> changed = batchColumns.get(query);
+            logger.log(Level.FINE, "Update batch query: {0}", query);
+
+            try {
+                PreparedStatement statement = changed == null ? statements().prepare(query) : statements().prepareVariant(query);
+                List<T> chunk = new ArrayList<>();
+                for (T entity : entry.getValue()) {
+                    int index;
+                    if (changed == null) {
+                        index = bindInsert(statement, entity, 1);
+                    } else {
+                        index = 1;
+                        for (ColumnMapping column : changed) {
+                            column.bind(statement, index++, entity);
+                        }
+                    }
+                    bindId(statement, index, entity);
+                    statement.addBatch();
+                    chunk.add(entity);
+
+                    if (chunk.size() >= batchSize) {
+                        updated += executeUpdateBatch(statement, chunk, missing);
+                        chunk.clear();
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    updated += executeUpdateBatch(statement, chunk, missing);
+                }
+
+            } catch (SQLException ex) {
+                logger.log(Level.SEVERE, null, ex);
+            }
+        }
+
+        return updated;
+    }
+
+    private int executeUpdateBatch(PreparedStatement statement, List<T> chunk, List<T> missing) throws SQLException {
+        int[] counts = statement.executeBatch();
+        if (counts.length != chunk.size()) {
+            throw new SQLException("Batch update returned " + counts.length + " counts for " + chunk.size() + " rows.");
+        }
+
+        boolean affected = reportsAffectedRows();
+        int updated = 0;
+        for (int i = 0; i < counts.length; i++) {
+            T entity = chunk.get(i);
+            if (counts[i] == 0 && !affected) {
+                if (missing != null) {
+                    missing.add(entity);
+                }
+            } else if (counts[i] != Statement.EXECUTE_FAILED) {
+                updated++;
+                written(entity);
+            }
+        }
+        return updated;
+    }
+
+    public boolean delete(T entity) {
+
+        if (entity == null) {
+            logger.severe("Trying to delete null entity");
+            return false;
+        }
+
+        try {
+            String query = getDeleteQuery();
+            logger.log(Level.FINE, "Delete query: {0}", query);
+
+            PreparedStatement statement = statements().prepare(query);
+            bindId(statement, 1, entity);
+            statement.executeUpdate();
+            forget(entity.getId());
+            return true;
+
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Delete failure", ex);
+            return false;
+        }
+    }
+
+    public T read(long id) {
+        return read(id, null);
+    }
+
+    /**
+     * Read a record with only the projected columns
+     *
+     * @param id record id
+     * @param projection columns to select, null for all
+     * @return partial record, or null if there is none
+     */
+    public T read(long id, Projection projection) {
+
+        IdentityMap<T> identities = identityMap;
+        if (identities != null) {
+            T cached = identities.get(id);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        long[] stamps = null;
+        if (projection == null) {
+            T cached = fromCaches(id);
+            if (cached != null) {
+                return cached;
+            }
+            stamps = cacheStamps();
+        }
+
+        try {
+            long start = System.nanoTime();
+            String query = projection == null ? getReadQuery()
+                    : "SELECT " + getSelectList(projection) + " FROM " + tableName + " WHERE id = ?";
+            logger.log(Level.FINE, "Read query: {0}", query);
+
+            PreparedStatement statement = statements().prepare(query);
+            statement.setLong(1, id);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next()) {
+                    T obj = setData(rs, RowPlan.forResultSet(rs, metadata), getNewInstanceOfEntity());
+                    if (identities != null && !obj.isPartial()) {
+                        identities.put(obj);
+                    }
+                    if (stamps != null) {
+                        cacheLoaded(Collections.singletonList(obj), stamps, System.nanoTime() - start);
+                    }
+                    return obj;
+                }
+            }
+            return null;
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * List records in table based on where X = ? clauses
+     *
+     * @param args where arguments
+     * @return list of records for table
+     */
+    public List<T> listWhereArgsEquals(QueryArguments args) {
+        return listWhereArgsEquals(args, null);
+    }
+
+    /**
+     * List records based on where X = ? clauses with only the projected
+     * columns
+     *
+     * @param args where arguments
+     * @param projection columns to select, null for all
+     * @return list of partial records for table
+     */
+    public List<T> listWhereArgsEquals(QueryArguments args, Projection projection) {
+
+        List<String> keys = getSortedKeys(args);
+        checkColumns(keys);
+        String select = projection == null ? "*" : getSelectList(projection);
+        StringBuilder query = new StringBuilder("SELECT " + select + " FROM " + tableName);
+        appendWhere(query, keys);
+        logger.log(Level.FINE, "listWhereArgsEquals query: {0}", query);
+
+        List<Object> params = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            params.add(args.getArgs().get(key));
+        }
+        try {
+            return queryList(query.toString(), params, args.getCacheTtl());
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Read records by id with IN lists of up to the batch size, see
+     * {@link #readAllBy(String, Collection)}
+     *
+     * @param ids ids to read
+     * @return records by id in input order, and the ids without one
+     */
+    public MultiGetResult<Long, T> readAll(Collection<Long> ids) {
+        return readAllBy(getUniqueColumn("id"), ids);
+    }
+
+    /**
+     * Read records by a unique column with IN lists of up to the batch size.
+     * The last list is padded with a repeated value so every chunk reuses one
+     * statement. The chunks run one after another, JDBC has no way to
+     * pipeline queries on one connection, so raise the batch size to save
+     * round trips.
+     *
+     * @param <K> key type
+     * @param column primary key or unique column
+     * @param values column values to read
+     * @return records by value in input order, and the values without one
+     */
+    public <K> MultiGetResult<K, T> readAllBy(String column, Collection<K> values) {
+        return readAllBy(getUniqueColumn(column), values);
+    }
+
+    private <K> MultiGetResult<K, T> readAllBy(ColumnMapping column, Collection<K> values) {
+
+        Map<K, T> found = new LinkedHashMap<>();
+        List<K> missing = new ArrayList<>();
+        if (values == null || values.isEmpty()) {
+            return new MultiGetResult<>(found, missing);
+        }
+
+        // distinct keys in input order
+        Map<Object, K> keys = new LinkedHashMap<>();
+        for (K value : values) {
+            if (value != null && !keys.containsKey(normalizeKey(value))) {
+                keys.put(normalizeKey(value), value);
+            }
+        }
+        // ids already in the identity map or a cache are not read again
+        Map<Object, T> rows = new HashMap<>();
+        List<Object> lookups = new ArrayList<>(keys.size());
+        IdentityMap<T> identities = identityMap;
+        for (Object key : keys.keySet()) {
+            T cached = null;
+            if (column.isPrimaryKey() && key instanceof Long) {
+                cached = identities != null ? identities.find((Long) key) : null;
+                if (cached == null) {
+                    cached = fromCaches((Long) key);
+                }
+            }
+            if (cached != null) {
+                rows.put(key, cached);
+            } else {
+                lookups.add(key);
+            }
+        }
+        if (!lookups.isEmpty()) {
+            long[] stamps = column.isPrimaryKey() ? cacheStamps() : null;
+            long start = System.nanoTime();
+            readChunks(column, lookups, rows);
+            if (stamps != null) {
+                List<T> loaded = new ArrayList<>(lookups.size());
+                for (Object key : lookups) {
+                    if (rows.containsKey(key)) {
+                        loaded.add(rows.get(key));
+                    }
+                }
+                cacheLoaded(loaded, stamps, System.nanoTime() - start);
+            }
+        }
+
+        for (Map.Entry<Object, K> key : keys.entrySet()) {
+            T entity = rows.get(key.getKey());
+            if (entity != null) {
+                found.put(key.getValue(), entity);
+            } else {
+                missing.add(key.getValue());
+            }
+        }
+        if (!missing.isEmpty()) {
+            logger.log(Level.FINE, "readAll found no record for {0} of {1} keys", new Object[]{missing.size(), keys.size()});
+        }
+        return new MultiGetResult<>(found, missing);
+    }
+
+    /**
+     * Read rows by column value in padded IN lists, keyed by normalized value.
+     * Each chunk is a full round trip, not pipelined.
+     */
+    private void readChunks(ColumnMapping column, List<Object> lookups, Map<Object, T> rows) {
+
+        int chunkSize = Math.min(batchSize, lookups.size());
+        List<String> placeholders = new ArrayList<>(chunkSize);
+        for (int i = 0; i < chunkSize; i++) {
+            placeholders.add("?");
+        }
+        String query = "SELECT * FROM " + tableName + " WHERE " + column.getColumnName() + " IN (" + getCommaList(placeholders) + ")";
+        logger.log(Level.FINE, "readAll query: {0}", query);
+
+        try {
+            PreparedStatement statement = statements().prepare(query);
+            List<T> chunkRows = new ArrayList<>();
+            for (int start = 0; start < lookups.size(); start += chunkSize) {
+                int end = Math.min(start + chunkSize, lookups.size());
+                for (int i = 0; i < chunkSize; i++) {
+                    bindArgument(statement, i + 1, lookups.get(Math.min(start + i, end - 1)));
+                }
+                try (ResultSet rs = statement.executeQuery()) {
+                    addRows(rs, chunkRows);
+                }
+                for (T entity : chunkRows) {
+                    rows.put(normalizeKey(column.getDatabaseValue(entity)), entity);
+                }
+                chunkRows.clear();
+            }
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Key as the database holds it, so requested values match row values of
+     * another numeric type
+     */
+    private Object normalizeKey(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1L : 0L;
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Float) {
+            return ((Number) value).doubleValue();
+        }
+        return value;
+    }
+
+    private ColumnMapping getUniqueColumn(String name) {
+        for (ColumnMapping column : metadata.getDataColumns()) {
+            if (column.getColumnName().equals(name) && (column.isPrimaryKey() || column.isUnique())) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("Column " + name + " must be a unique column of " + tableName);
+    }
+
+    /**
+     * Records with an id above afterId, in id order. Every page is an index
+     * seek on the primary key, unlike LIMIT with an OFFSET.
+     *
+     * @param afterId last id of the previous page, null for the first page
+     * @param limit maximum number of records
+     * @return records of the page
+     */
+    public List<T> listPage(Long afterId, int limit) {
+        PageToken token = PageToken.first("id");
+        if (afterId != null) {
+            token = token.after(afterId);
+        }
+        return listPage(null, token, limit).getItems();
+    }
+
+    /**
+     * Keyset paged records matching where X = ? clauses, ordered by the
+     * token's unique column and starting after its last value
+     *
+     * @param filters where arguments, may be null
+     * @param token position from {@link PageToken#first(String)} or
+     * {@link Page#getNextToken()}
+     * @param limit maximum number of records
+     * @return records of the page and the token of the next one
+     */
+    public Page<T> listPage(QueryArguments filters, PageToken token, int limit) {
+
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page limit must be positive");
+        }
+
+        ColumnMapping column = getUniqueColumn(token.getColumn());
+
+        List<String> keys = filters != null ? getSortedKeys(filters) : Collections.<String>emptyList();
+        checkColumns(keys);
+
+        StringBuilder query = new StringBuilder("SELECT * FROM " + tableName);
+        appendWhere(query, keys);
+        if (!token.isFirst()) {
+            query.append(keys.isEmpty() ? " WHERE " : " AND ").append(column.getColumnName())
+                    .append(token.isDescending() ? " < ?" : " > ?");
+        }
+        query.append(" ORDER BY ").append(column.getColumnName()).append(token.isDescending() ? " DESC" : " ASC").append(" LIMIT ?");
+        logger.log(Level.FINE, "listPage query: {0}", query);
+
+        List<T> list = new ArrayList<>();
+        try {
+            PreparedStatement statement = statements().prepare(query.toString());
+            int index = filters != null ? bindArguments(statement, 1, keys, filters) : 1;
+            if (!token.isFirst()) {
+                bindArgument(statement, index++, token.getLastValue());
+            }
+            // one extra row tells whether there is a next page
+            statement.setInt(index, limit + 1);
+            try (ResultSet rs = statement.executeQuery()) {
+                addRows(rs, list);
+            }
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+            return new Page<>(list, null);
+        }
+
+        PageToken next = null;
+        if (list.size() > limit) {
+            list.remove(limit);
+            next = token.after(column.getDatabaseValue(list.get(limit - 1)));
+        }
+        return new Page<>(list, next);
+    }
+
+    /**
+     * Delete every row matching where X = ? clauses in one statement
+     *
+     * @param where where arguments, at least one is required
+     * @return number of deleted rows
+     */
+    public int deleteWhere(QueryArguments where) {
+
+        if (where == null || where.getArgs().isEmpty()) {
+            logger.severe("Trying to delete without where arguments");
+            return 0;
+        }
+
+        List<String> keys = getSortedKeys(where);
+        checkColumns(keys);
+        StringBuilder query = new StringBuilder("DELETE FROM " + tableName);
+        appendWhere(query, keys);
+        logger.log(Level.FINE, "deleteWhere query: {0}", query);
+
+        try {
+            PreparedStatement statement = statements().prepare(query.toString());
+            bindArguments(statement, 1, keys, where);
+            int affected = statement.executeUpdate();
+            // cached instances of the matched rows are now stale
+            forgetAll();
+            return affected;
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Delete failure", ex);
+            return 0;
+        }
+    }
+
+    /**
+     * Delete rows by id with IN lists of up to the batch size. The last list
+     * is padded with a repeated id so every chunk reuses one statement.
+     *
+     * @param ids ids to delete
+     * @return number of deleted rows
+     */
+    public int deleteByIds(Collection<Long> ids) {
+        try {
+            return executeDeleteByIds(ids);
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, "Delete failure", ex);
+            return 0;
+        }
+    }
+
+    /**
+     * {@link #deleteByIds(Collection)} that throws instead of logging, for
+     * callers that roll back on failure
+     */
+    int executeDeleteByIds(Collection<Long> ids) throws SQLException {
+
+        if (ids == null || ids.isEmpty()) {
+            return 0;
+        }
+
+        List<Long> values = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            if (id != null) {
+                values.add(id);
+            }
+        }
+        if (values.isEmpty()) {
+            return 0;
+        }
+
+        int chunkSize = Math.min(batchSize, values.size());
+        List<String> placeholders = new ArrayList<>(chunkSize);
+        for (int i = 0; i < chunkSize; i++) {
+            placeholders.add("?");
+        }
+        String query = "DELETE FROM " + tableName + " WHERE id IN (" + getCommaList(placeholders) + ")";
+        logger.log(Level.FINE, "deleteByIds query: {0}", query);
+
+        int deleted = 0;
+        PreparedStatement statement = statements().prepare(query);
+        for (int start = 0; start < values.size(); start += chunkSize) {
+            int end = Math.min(start + chunkSize, values.size());
+            for (int i = 0; i < chunkSize; i++) {
+                statement.setLong(i + 1, values.get(Math.min(start + i, end - 1)));
+            }
+            deleted += statement.executeUpdate();
+        }
+        for (Long id : values) {
+            forget(id);
+        }
+        return deleted;
+    }
+
+    /**
+     * Update every row matching where X = ? clauses in one statement
+     *
+     * @param set column values to write
+     * @param where where arguments, at least one is required
+     * @return number of updated rows
+     */
+    public int updateWhere(QueryArguments set, QueryArguments where) {
+
+        if (set == null || set.getArgs().isEmpty()) {
+            logger.severe("Trying to update without values");
+            return 0;
+        }
+        if (where == null || where.getArgs().isEmpty()) {
+            logger.severe("Trying to update without where arguments");
+            return 0;
+        }
+
+        List<String> columns = getSortedKeys(set);
+        List<String> keys = getSortedKeys(where);
+        checkColumns(columns);
+        checkColumns(keys);
+
+        List<String> updates = new ArrayList<>();
+        for (String column : columns) {
+            updates.add(column + " = ?");
+        }
+        StringBuilder query = new StringBuilder("UPDATE " + tableName + " SET " + getCommaList(updates));
+        appendWhere(query, keys);
+        logger.log(Level.FINE, "updateWhere query: {0}", query);
+
+        try {
+            PreparedStatement statement = statements().prepare(query.toString());
+            int index = bindArguments(statement, 1, columns, set);
+            bindArguments(statement, index, keys, where);
+            int affected = statement.executeUpdate();
+            // cached instances of the matched rows are now stale
+            forgetAll();
+            return affected;
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+            return 0;
+        }
+    }
+
+    /**
+     * Atomically add to a numeric column on the server
+     *
+     * @param id row id
+     * @param column column to change
+     * @param delta amount to add, negative to subtract
+     * @return number of updated rows
+     */
+    public int increment(long id, String column, long delta) {
+
+        checkColumns(Collections.singletonList(column));
+        String query = "UPDATE " + tableName + " SET " + column + " = " + column + " + ? WHERE id = ?";
+        logger.log(Level.FINE, "increment query: {0}", query);
+
+        try {
+            PreparedStatement statement = statements().prepare(query);
+            statement.setLong(1, delta);
+            statement.setLong(2, id);
+            int affected = statement.executeUpdate();
+            forget(id);
+            return affected;
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+            return 0;
+        }
+    }
+
+    /**
+     * List records matching criteria
+     *
+     * @param criteria conditions, ordering and limit
+     * @return list of records
+     */
+    public List<T> list(Criteria criteria) {
+        return list(criteria, null);
+    }
+
+    /**
+     * List records matching criteria with only the projected columns
+     *
+     * @param criteria conditions, ordering and limit
+     * @param projection columns to select, null for all
+     * @return list of records
+     */
+    public List<T> list(Criteria criteria, Projection projection) {
+
+        List<Object> params = new ArrayList<>();
+        String select = projection == null ? "*" : getSelectList(projection);
+        String query = criteria.toSql("SELECT " + select + " FROM " + tableName, metadata, params, true);
+        logger.log(Level.FINE, "Criteria query: {0}", query);
+
+        try {
+            return queryList(query, params, criteria.getCacheTtl());
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Count records matching criteria, ordering and limit are ignored
+     *
+     * @param criteria conditions
+     * @return number of records
+     */
+    public int count(Criteria criteria) {
+
+        List<Object> params = new ArrayList<>();
+        String query = criteria.toSql("SELECT count(*) FROM " + tableName, metadata, params, false);
+        logger.log(Level.FINE, "Criteria count query: {0}", query);
+
+        try {
+            return queryCount(query, params, criteria.getCacheTtl());
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+        }
+        return 0;
+    }
+
+    /**
+     * @param column numeric column
+     * @param where where arguments, may be null
+     * @return exact sum of the column, 0 when no rows match
+     */
+    public BigDecimal sum(String column, QueryArguments where) {
+        BigDecimal value = (BigDecimal) aggregate(Aggregate.SUM, column, where);
+        return value != null ? value : BigDecimal.ZERO;
+    }
+
+    /**
+     * @param column numeric column
+     * @param where where arguments, may be null
+     * @return average of the column, NaN when no rows match
+     */
+    public double avg(String column, QueryArguments where) {
+        Double value = (Double) aggregate(Aggregate.AVG, column, where);
+        return value != null ? value : Double.NaN;
+    }
+
+    /**
+     * @param <V> field type of the column
+     * @param column column
+     * @param where where arguments, may be null
+     * @return smallest value, converted like the field, or null when no rows
+     * match
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V min(String column, QueryArguments where) {
+        return (V) aggregate(Aggregate.MIN, column, where);
+    }
+
+    /**
+     * @param <V> field type of the column
+     * @param column column
+     * @param where where arguments, may be null
+     * @return largest value, converted like the field, or null when no rows
+     * match
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V max(String column, QueryArguments where) {
+        return (V) aggregate(Aggregate.MAX, column, where);
+    }
+
+    /**
+     * @param column column
+     * @param where where arguments, may be null
+     * @return number of distinct non null values
+     */
+    public long countDistinct(String column, QueryArguments where) {
+        Long value = (Long) aggregate(Aggregate.COUNT_DISTINCT, column, where);
+        return value != null ? value : 0;
+    }
+
+    private Object aggregate(Aggregate aggregate, String column, QueryArguments where) {
+        Map<Object, Object> result = aggregateBy(aggregate, column, where);
+        return result.isEmpty() ? null : result.values().iterator().next();
+    }
+
+    /**
+     * Aggregate a column per group, computed by the database so only the
+     * results are transferred. Sums are BigDecimal, so large integral sums
+     * keep every digit, averages are Double, distinct counts Long, and minimum
+     * and maximum values are converted like the field.
+     *
+     * @param <V> value type
+     * @param aggregate aggregate function
+     * @param column column to aggregate
+     * @param where where arguments, may be null
+     * @param groupBy columns to group by, none for a single total
+     * @return value per group in the order returned, keyed by the group value
+     * for one group column and by a list of values for several
+     */
+    @SuppressWarnings("unchecked")
+    public <V> Map<Object, V> aggregateBy(Aggregate aggregate, String column, QueryArguments where, String... groupBy) {
+
+        List<String> groups = Arrays.asList(groupBy);
+        checkColumns(Collections.singletonList(column));
+        checkColumns(groups);
+        List<String> keys = where != null ? getSortedKeys(where) : Collections.<String>emptyList();
+        checkColumns(keys);
+
+        List<String> select = new ArrayList<>(groups);
+        select.add(aggregate.apply(column));
+        StringBuilder query = new StringBuilder("SELECT " + getCommaList(select) + " FROM " + tableName);
+        appendWhere(query, keys);
+        if (!groups.isEmpty()) {
+            query.append(" GROUP BY ").append(getCommaList(groups));
+        }
+        logger.log(Level.FINE, "Aggregate query: {0}", query);
+
+        Map<Object, V> result = new LinkedHashMap<>();
+        try {
+            PreparedStatement statement = statements().prepare(query.toString());
+            if (where != null) {
+                bindArguments(statement, 1, keys, where);
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                int valueIndex = groups.size() + 1;
+                while (rs.next()) {
+                    Object key;
+                    if (groups.size() == 1) {
+                        key = readColumnValue(rs, 1, groups.get(0));
+                    } else {
+                        List<Object> values = new ArrayList<>(groups.size());
+                        for (int i = 0; i < groups.size(); i++) {
+                            values.add(readColumnValue(rs, i + 1, groups.get(i)));
+                        }
+                        key = values;
+                    }
+
+                    Object value;
+                    switch (aggregate) {
+                        case SUM:
+                            value = rs.getBigDecimal(valueIndex);
+                            break;
+                        case AVG:
+                            value = rs.getDouble(valueIndex);
+                            break;
+                        case COUNT_DISTINCT:
+                            value = rs.getLong(valueIndex);
+                            break;
+                        default:
+                            value = readColumnValue(rs, valueIndex, column);
+                            break;
+                    }
+                    if (rs.wasNull()) {
+                        value = null;
+                    }
+                    result.put(key, (V) value);
+                }
+            }
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+        }
+        return result;
+    }
+
+    /**
+     * @return value read with the column's converter, or null for SQL NULL
+     */
+    private Object readColumnValue(ResultSet rs, int index, String column) throws SQLException {
+        ColumnMapping mapping = metadata.getColumnByColumnName(column);
+        Object value = mapping.getConverter() != null ? mapping.getValue(rs, index) : rs.getObject(index);
+        return rs.wasNull() ? null : value;
+    }
+
+    /**
+     * @return projected columns with the id first, so partial entities can
+     * still be updated
+     */
+    private String getSelectList(Projection projection) {
+        checkColumns(projection.getColumns());
+
+        List<String> columns = new ArrayList<>();
+        if (!metadata.isNoID()) {
+            columns.add("id");
+        }
+        for (String column : projection.getColumns()) {
+            if (!columns.contains(column)) {
+                columns.add(column);
+            }
+        }
+        return getCommaList(columns);
+    }
+
+    /**
+     * @param entity entity to check
+     * @param column column name
+     * @return false if the entity was read by a projection without the column
+     */
+    public boolean isLoaded(T entity, String column) {
+        BitSet unloaded = entity.getUnloaded();
+        if (unloaded == null) {
+            return true;
+        }
+        List<ColumnMapping> columns = metadata.getDataColumns();
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).getColumnName().equals(column)) {
+                return !unloaded.get(i);
+            }
+        }
+        throw new IllegalArgumentException("Unknown column " + column + " for table " + tableName);
+    }
+
+    /**
+     * @return argument keys in sorted order, so each set of columns maps to
+     * one statement
+     */
+    private List<String> getSortedKeys(QueryArguments args) {
+        List<String> keys = new ArrayList<>(args.getArgs().keySet());
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private void appendWhere(StringBuilder query, List<String> keys) {
+        for (int i = 0; i < keys.size(); i++) {
+            query.append(i == 0 ? " WHERE " : " AND ").append(keys.get(i)).append(" = ?");
+        }
+    }
+
+    /**
+     * @return next free parameter index
+     */
+    private int bindArguments(PreparedStatement statement, int index, List<Object> values) throws SQLException {
+        for (Object value : values) {
+            bindArgument(statement, index++, value);
+        }
+        return index;
+    }
+
+    /**
+     * @return next free parameter index
+     */
+    private int bindArguments(PreparedStatement statement, int index, List<String> keys, QueryArguments args) throws SQLException {
+        for (String key : keys) {
+            bindArgument(statement, index++, args.getArgs().get(key));
+        }
+        return index;
+    }
+
+    /**
+     * Column names are written into the query, so only mapped columns are
+     * accepted
+     */
+    private void checkColumns(List<String> columns) {
+        for (String column : columns) {
+            if (metadata.getColumnByColumnName(column) == null) {
+                throw new IllegalArgumentException("Unknown column " + column + " for table " + tableName);
+            }
+        }
+    }
+
+    /**
+     * Map every remaining row, resolving column ordinals once for the result
+     * set
+     */
+    private void addRows(ResultSet rs, List<T> list) throws SQLException {
+        addRows(rs, list, null);
+    }
+
+    /**
+     * @param values receives the values of every row as read, before identity
+     * map instances with unsaved changes take their place, or null
+     */
+    private void addRows(ResultSet rs, List<T> list, List<Object[]> values) throws SQLException {
+        if (rs != null) {
+            RowPlan plan = RowPlan.forResultSet(rs, metadata);
+            IdentityMap<T> identities = identityMap;
+            int idOrdinal = identities != null && idColumn >= 0 ? plan.getOrdinal(idColumn) : 0;
+            while (rs.next()) {
+                if (idOrdinal > 0) {
+                    long id = rs.getLong(idOrdinal);
+                    T cached = rs.wasNull() ? null : identities.get(id);
+                    if (cached != null) {
+                        if (values != null) {
+                            values.add(entityValues.capture(setData(rs, plan, getNewInstanceOfEntity())));
+                        }
+                        list.add(cached);
+                        continue;
+                    }
+                }
+
+                T entity = setData(rs, plan, getNewInstanceOfEntity());
+                if (values != null) {
+                    values.add(entityValues.capture(entity));
+                }
+                if (idOrdinal > 0 && !entity.isPartial()) {
+                    identities.put(entity);
+                }
+                list.add(entity);
+            }
+        }
+    }
+
+    /**
+     * Turn on the identity map, so reads and lists return the instance
+     * already read for an id instead of a new one. Cursors and parallel scans
+     * bypass it. It is unbounded, clear it at the end of each request.
+     *
+     * @return the identity map, for its counters
+     */
+    public synchronized IdentityMap<T> enableIdentityMap() {
+        if (identityMap == null) {
+            identityMap = new IdentityMap<>();
+        }
+        return identityMap;
+    }
+
+    public synchronized void disableIdentityMap() {
+        identityMap = null;
+    }
+
+    /**
+     * @return identity map, or null when it is not enabled
+     */
+    public IdentityMap<T> getIdentityMap() {
+        return identityMap;
+    }
+
+    /**
+     * Drop every instance from the identity map, if enabled
+     */
+    public void clearIdentityMap() {
+        IdentityMap<T> identities = identityMap;
+        if (identities != null) {
+            identities.clear();
+        }
+    }
+
+    /**
+     * @return cache shared by the managers of the entity class, or null when
+     * the class is not annotated with DbCached
+     */
+    public EntityCache<T> getEntityCache() {
+        return entityCache;
+    }
+
+    /**
+     * Drop every row from the shared cache, if the entity has one
+     */
+    public void clearEntityCache() {
+        EntityCache<T> shared = entityCache;
+        if (shared != null) {
+            shared.clear();
+        }
+    }
+
+    /**
+     * Record a successful write: snapshot the entity for change tracking,
+     * make it the cached instance for its id and refresh the shared cache
+     */
+    private void written(T entity) {
+        tableChanged();
+        takeSnapshot(entity);
+        IdentityMap<T> identities = identityMap;
+        if (identities != null && !entity.isPartial()) {
+            identities.put(entity);
+        }
+        // writes on another connection are committed already
+        if (boundStatements.get() == null && deferCacheWrite(entity.getId(), entity)) {
+            return;
+        }
+        EntityCache<T> shared = entityCache;
+        if (shared != null) {
+            shared.put(entity);
+        }
+        OffHeapEntityCache<T> offHeap = offHeapCache;
+        if (offHeap != null) {
+            offHeap.put(entity);
+        }
+    }
+
+    private void forget(Long id) {
+        tableChanged();
+        IdentityMap<T> identities = identityMap;
+        if (identities != null && id != null) {
+            identities.remove(id);
+        }
+        if (id != null && !deferCacheWrite(id, null)) {
+            invalidateCaches(id);
+        }
+    }
+
+    private void forgetAll() {
+        tableChanged();
+        clearIdentityMap();
+        synchronized (this) {
+            if (unitWrites != null) {
+                unitCleared = true;
+            }
+        }
+        clearEntityCache();
+        clearOffHeapCache();
+    }
+
+    private void invalidateCaches(long id) {
+        EntityCache<T> shared = entityCache;
+        if (shared != null) {
+            shared.invalidate(id);
+        }
+        OffHeapEntityCache<T> offHeap = offHeapCache;
+        if (offHeap != null) {
+            offHeap.invalidate(id);
+        }
+    }
+
+    /**
+     * Inside a unit of work, evict the row from the shared caches now and
+     * remember it for {@link #publishCacheWrites()}
+     *
+     * @return true if the write was deferred
+     */
+    private synchronized boolean deferCacheWrite(Long id, T entity) {
+        if (unitWrites == null) {
+            return false;
+        }
+        if (id != null) {
+            unitWrites.put(id, entity);
+            invalidateCaches(id);
+        }
+        return true;
+    }
+
+    /**
+     * Hold back shared and off-heap cache updates until the unit of work on
+     * this manager's connection commits, so other connections never read
+     * uncommitted rows from them. Rows read meanwhile are not cached, they
+     * may be uncommitted too.
+     */
+    synchronized void deferCacheWrites() {
+        if (unitWrites == null) {
+            unitWrites = new HashMap<>();
+            unitCleared = false;
+        }
+    }
+
+    /**
+     * Apply the cache updates held back since {@link #deferCacheWrites()}:
+     * rows written and unchanged since are cached, the others evicted
+     */
+    synchronized void publishCacheWrites() {
+        Map<Long, T> writes = unitWrites;
+        unitWrites = null;
+        if (writes == null) {
+            return;
+        }
+        if (unitCleared) {
+            clearEntityCache();
+            clearOffHeapCache();
+            return;
+        }
+
+        EntityCache<T> shared = entityCache;
+        OffHeapEntityCache<T> offHeap = offHeapCache;
+        for (Map.Entry<Long, T> write : writes.entrySet()) {
+            T entity = write.getValue();
+            if (entity != null && write.getKey().equals(entity.getId()) && !isDirty(entity)) {
+                if (shared != null) {
+                    shared.put(entity);
+                }
+                if (offHeap != null) {
+                    offHeap.put(entity);
+                }
+            } else {
+                invalidateCaches(write.getKey());
+            }
+        }
+    }
+
+    /**
+     * Drop the cache updates held back since {@link #deferCacheWrites()}, the
+     * unit of work rolled back
+     */
+    synchronized void discardCacheWrites() {
+        unitWrites = null;
+    }
+
+    private boolean isUnitWrite(long id) {
+        Map<Long, T> writes = unitWrites;
+        if (writes == null) {
+            return false;
+        }
+        synchronized (this) {
+            return unitWrites != null && unitWrites.containsKey(id);
+        }
+    }
+
+    /**
+     * Copy of a row from the shared or off-heap cache, made the cached
+     * instance for its id
+     *
+     * @return entity, or null when neither cache holds the row
+     */
+    private T fromCaches(long id) {
+        if (isUnitWrite(id)) {
+            return null;
+        }
+        EntityCache<T> shared = entityCache;
+        T cached = shared != null ? shared.get(id) : null;
+        if (cached == null) {
+            OffHeapEntityCache<T> offHeap = offHeapCache;
+            cached = offHeap != null ? offHeap.get(id) : null;
+        }
+        if (cached != null) {
+            takeSnapshot(cached);
+            IdentityMap<T> identities = identityMap;
+            if (identities != null) {
+                identities.put(cached);
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * @return write stamps of the shared and off-heap caches, taken before a
+     * read, or null when neither is used or a unit of work is open
+     */
+    private long[] cacheStamps() {
+        EntityCache<T> shared = entityCache;
+        OffHeapEntityCache<T> offHeap = offHeapCache;
+        if (shared == null && offHeap == null || unitWrites != null) {
+            return null;
+        }
+        return new long[]{shared != null ? shared.stamp() : 0, offHeap != null ? offHeap.stamp() : 0};
+    }
+
+    private void cacheLoaded(List<T> entities, long[] stamps, long nanos) {
+        EntityCache<T> shared = entityCache;
+        if (shared != null) {
+            shared.loaded(entities, stamps[0], nanos);
+        }
+        OffHeapEntityCache<T> offHeap = offHeapCache;
+        if (offHeap != null) {
+            offHeap.loaded(entities, stamps[1]);
+        }
+    }
+
+    /**
+     * Keep rows read by id in direct buffers outside the heap
+     *
+     * @param maxBytes maximum size of the encoded rows
+     * @return the cache, for its counters
+     */
+    public OffHeapEntityCache<T> enableOffHeapCache(long maxBytes) {
+        try {
+            return enableOffHeapCache(maxBytes, null);
+        } catch (IOException ex) {
+            // no file is opened for direct buffers
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Keep rows read by id outside the heap, in direct buffers or in buffers
+     * mapped to a file. Only int, long, double, float, boolean, String and
+     * Date columns can be encoded. Load a whole table with
+     * {@link #loadOffHeapCache()}.
+     *
+     * @param maxBytes maximum size of the encoded rows
+     * @param mapFile file to map, or null for direct buffers
+     * @return the cache, for its counters
+     * @throws IOException if the file cannot be opened
+     */
+    public synchronized OffHeapEntityCache<T> enableOffHeapCache(long maxBytes, File mapFile) throws IOException {
+        disableOffHeapCache();
+        offHeapCache = new OffHeapEntityCache<>(entityClass, metadata, maxBytes, mapFile);
+        return offHeapCache;
+    }
 
-                    logger.log(Level.FINE, "Count query: {0}", query);
+    /**
+     * Stop using the off-heap cache and release its buffers
+     */
+    public synchronized void disableOffHeapCache() {
+        OffHeapEntityCache<T> offHeap = offHeapCache;
+        offHeapCache = null;
+        if (offHeap != null) {
+            offHeap.close();
+        }
+    }
 
-                    try (ResultSet resultSet = statement.executeQuery(query)) {
-                        if (resultSet != null) {
-                            while (resultSet.next()) {
-                                return resultSet.getInt(1);
-                            }
-                        }
-                    }
-                } else {
-                    logger.severe(NULL_STATEMENT_MSG);
+    /**
+     * @return off-heap cache, or null when it is not enabled
+     */
+    public OffHeapEntityCache<T> getOffHeapCache() {
+        return offHeapCache;
+    }
+
+    /**
+     * Drop every row from the off-heap cache, if enabled
+     */
+    public void clearOffHeapCache() {
+        OffHeapEntityCache<T> offHeap = offHeapCache;
+        if (offHeap != null) {
+            offHeap.clear();
+        }
+    }
+
+    /**
+     * Stream every row of the table into the off-heap cache, with one row on
+     * the heap at a time
+     *
+     * @return number of rows cached
+     */
+    public long loadOffHeapCache() {
+        OffHeapEntityCache<T> offHeap = offHeapCache;
+        if (offHeap == null) {
+            throw new IllegalStateException("Off-heap cache is not enabled for " + tableName);
+        }
+
+        long stamp = offHeap.stamp();
+        long cached = 0;
+        try (EntityCursor<T> cursor = iterate()) {
+            for (T entity : cursor) {
+                if (offHeap.load(entity, stamp)) {
+                    cached++;
                 }
             }
+        }
+        logger.log(Level.FINE, "Cached {0} rows of {1} off-heap", new Object[]{cached, tableName});
+        return cached;
+    }
 
-        } catch (SQLException ex) {
-            logger.log(Level.SEVERE, null, ex);
+    /**
+     * Make cached query results of the table stale
+     */
+    void tableChanged() {
+        tableVersion.incrementAndGet();
+    }
+
+    /**
+     * Cache list and count results of this manager, the cache may be shared
+     * with managers of other tables. Results are stale once any manager of
+     * the table writes to it; writes made any other way are only seen when a
+     * result expires.
+     *
+     * @param queryCache cache to use, null to stop caching
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * @return query cache, or null when results are not cached
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Run a select, through the query cache when one is set, the ttl is not 0
+     * and no unit of work is open on the manager
+     */
+    private List<T> queryList(String query, List<Object> params, long cacheTtl) throws SQLException {
+        QueryCache cache = queryCache;
+        List<Object> key = null;
+        long version = 0;
+        if (cache != null && cacheTtl != 0 && unitWrites == null) {
+            key = QueryCache.key(entityClass, query, params);
+            // read before the query, so a write during it makes the result stale
+            version = tableVersion.get();
+            Object[][] rows = (Object[][]) cache.get(key, version);
+            if (rows != null) {
+                return restoreRows(rows);
+            }
         }
-        return 0;
+
+        List<T> list = new ArrayList<>();
+        List<Object[]> values = key != null ? new ArrayList<Object[]>() : null;
+        PreparedStatement statement = statements().prepare(query);
+        bindArguments(statement, 1, params);
+        try (ResultSet rs = statement.executeQuery()) {
+            addRows(rs, list, values);
+        }
+
+        if (key != null) {
+            Object[][] rows = values.toArray(new Object[values.size()][]);
+            cache.put(key, rows, rows.length + 1, version, cacheTtl);
+        }
+        return list;
     }
 
-    public int count(String whereClause) {
+    /**
+     * Copies of cached rows, or the identity map instances for their ids
+     */
+    private List<T> restoreRows(Object[][] rows) {
+        List<T> list = new ArrayList<>(rows.length);
+        IdentityMap<T> identities = identityMap;
+        for (Object[] values : rows) {
+            T entity = entityValues.restore(values);
+            T cached = identities != null && entity.getId() != null ? identities.find(entity.getId()) : null;
+            if (cached != null) {
+                list.add(cached);
+                continue;
+            }
+            takeSnapshot(entity);
+            if (identities != null && !entity.isPartial()) {
+                identities.put(entity);
+            }
+            list.add(entity);
+        }
+        return list;
+    }
+
+    /**
+     * Run a count, through the query cache when one is set, the ttl is not 0
+     * and no unit of work is open on the manager
+     */
+    private int queryCount(String query, List<Object> params, long cacheTtl) throws SQLException {
+        QueryCache cache = queryCache;
+        List<Object> key = null;
+        long version = 0;
+        if (cache != null && cacheTtl != 0 && unitWrites == null) {
+            key = QueryCache.key(entityClass, query, params);
+            version = tableVersion.get();
+            Integer count = (Integer) cache.get(key, version);
+            if (count != null) {
+                return count;
+            }
+        }
+
+        int count = 0;
+        PreparedStatement statement = statements().prepare(query);
+        bindArguments(statement, 1, params);
+        try (ResultSet rs = statement.executeQuery()) {
+            if (rs.next()) {
+                count = rs.getInt(1);
+            }
+        }
+
+        if (key != null) {
+            cache.put(key, count, 1, version, cacheTtl);
+        }
+        return count;
+    }
 
+    private T getNewInstanceOfEntity() {
         try {
+            return entityClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
 
-            try (Statement statement = getStatement()) {
-                if (statement != null) {
-                    String query = "SELECT count(id) FROM " + tableName + " WHERE " + whereClause;
+    /**
+     * List all records for table
+     *
+     * @return list of records
+     */
+    public List<T> list() {
+        QueryArguments args = new QueryArguments();
+        return listWhereArgsEquals(args);
+    }
 
-                    logger.log(Level.FINE, "Count query: {0}", query);
+    /**
+     * List all records for table with only the projected columns
+     *
+     * @param projection columns to select
+     * @return list of partial records
+     */
+    public List<T> list(Projection projection) {
+        return listWhereArgsEquals(new QueryArguments(), projection);
+    }
 
-                    try (ResultSet resultSet = statement.executeQuery(query)) {
-                        if (resultSet != null) {
-                            while (resultSet.next()) {
-                                return resultSet.getInt(1);
-                            }
-                        }
+    /**
+     * List with custom query
+     *
+     * @param query
+     * @return list of records
+     */
+    public List<T> list(String query) {
+        List<T> list = new ArrayList<>();
+
+        try {
+            try (Statement statement = getStatement()) {
+                if (statement != null) {
+                    try (ResultSet rs = statement.executeQuery(query)) {
+                        addRows(rs, list);
                     }
 
                 } else {
@@ -945,95 +2896,234 @@ public abstract class AbstractDatabaseManager<T extends Entity> {
         } catch (SQLException ex) {
             logger.log(Level.SEVERE, null, ex);
         }
-        return 0;
+        return list;
+
     }
 
-    private HashMap getData(T entity) {
-        HashMap cv = new HashMap();
+    /**
+     * Cursor over every record in the table, see
+     * {@link #iterateWhereArgsEquals(QueryArguments)}
+     *
+     * @return cursor to iterate and close
+     */
+    public EntityCursor<T> iterate() {
+        return iterateWhereArgsEquals(new QueryArguments());
+    }
 
-        if (entity != null) {
-            List<Field> fields = ReflectUtil.getAllFields(entity.getClass());
-            for (Field field : fields) {
+    /**
+     * Cursor over records matching where X = ? clauses. Rows are fetched with
+     * the manager's fetch size, streamed one at a time by default, and mapped
+     * as they are consumed instead of being collected in a list.
+     *
+     * @param args where arguments
+     * @return cursor to iterate and close
+     */
+    public EntityCursor<T> iterateWhereArgsEquals(QueryArguments args) {
 
-                try {
-                    field.setAccessible(true);
-
-                    if (!ReflectUtil.containsIgnore(field)) {
-
-                        Class<?> type = field.getType();
-                        String columnName = ReflectUtil.getColumnName(field);
-
-                        if (field.isAnnotationPresent(DbPrimaryKey.class) && ReflectUtil.noID(entity.getClass())) {
-                            logger.finer("Entity has no ID annotation");
-                        } else if (TYPE_CONVERTERS.containsKey(type)) {
-                            Class<?> converterClazz = TYPE_CONVERTERS.get(type);
-                            logger.log(Level.FINER, "{0} using type converter: {1}", new Object[]{field.getName(), converterClazz.getCanonicalName()});
-                            AbstractTypeConverter converter = (AbstractTypeConverter) Class.forName(converterClazz.getCanonicalName()).newInstance();
-                            Object obj = converter.getDatabaseValue(entity, field.getName());
-                            logger.log(Level.FINER, "{0} value is {1}", new Object[]{field.getName(), converter.getDatabaseValue(entity, field.getName())});
-                            putValue(cv, columnName, obj);
-                        } else if (PRIMITIVE_TYPE_CONVERTERS.containsKey(type.getName())) {
-                            Class<?> converterClazz = PRIMITIVE_TYPE_CONVERTERS.get(type.getName());
-                            logger.log(Level.FINER, "{0} using primitive type converter: {1}", new Object[]{field.getName(), converterClazz.getCanonicalName()});
-                            AbstractTypeConverter converter = (AbstractTypeConverter) Class.forName(converterClazz.getCanonicalName()).newInstance();
-                            putValue(cv, columnName, converter.getDatabaseValue(entity, field.getName()));
-                        } else {
-                            logger.log(Level.FINER, "Unknown type {0} when getting data for field ''{1}''.", new Object[]{type.getName(), field.getName()});
-                        }
-                    }
+        List<String> keys = getSortedKeys(args);
+        checkColumns(keys);
+        StringBuilder query = new StringBuilder("SELECT * FROM " + tableName);
+        appendWhere(query, keys);
+        logger.log(Level.FINE, "iterateWhereArgsEquals query: {0}", query);
 
-                } catch (IllegalAccessException | IllegalArgumentException | ClassNotFoundException | InstantiationException ex) {
-                    logger.log(Level.SEVERE, null, ex);
-                }
+        PreparedStatement statement = null;
+        try {
+            statement = dbConnection.prepareStatement(query.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            bindArguments(statement, 1, keys, args);
+            return new EntityCursor<>(this, statement, statement.executeQuery());
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+            closeQuietly(statement);
+            return EntityCursor.empty(this);
+        }
+    }
+
+    /**
+     * Cursor over records matching criteria, see
+     * {@link #iterateWhereArgsEquals(QueryArguments)}
+     *
+     * @param criteria conditions, ordering and limit
+     * @return cursor to iterate and close
+     */
+    public EntityCursor<T> iterate(Criteria criteria) {
+
+        List<Object> params = new ArrayList<>();
+        String query = criteria.toSql("SELECT * FROM " + tableName, metadata, params, true);
+        logger.log(Level.FINE, "Criteria cursor query: {0}", query);
+
+        PreparedStatement statement = null;
+        try {
+            statement = dbConnection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            bindArguments(statement, 1, params);
+            return new EntityCursor<>(this, statement, statement.executeQuery());
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+            closeQuietly(statement);
+            return EntityCursor.empty(this);
+        }
+    }
+
+    /**
+     * Cursor over a custom query, see
+     * {@link #iterateWhereArgsEquals(QueryArguments)}
+     *
+     * @param query
+     * @return cursor to iterate and close
+     */
+    public EntityCursor<T> iterate(String query) {
+
+        Statement statement = null;
+        try {
+            statement = dbConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            return new EntityCursor<>(this, statement, statement.executeQuery(query));
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+            closeQuietly(statement);
+            return EntityCursor.empty(this);
+        }
+    }
+
+    /**
+     * Scan the whole table in id ranges read in parallel, each on its own
+     * connection from the source, with a pool of one thread per partition
+     *
+     * @param source connections for the partitions
+     * @param partitions number of id ranges
+     * @param callback receives every row, concurrently across partitions
+     * @return number of rows scanned
+     * @throws SQLException if a partition fails, the others are cancelled
+     */
+    public long parallelScan(ConnectionSource source, int partitions, PartitionCallback<T> callback) throws SQLException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, partitions));
+        try {
+            return parallelScan(source, partitions, callback, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Scan the whole table in id ranges read in parallel on the executor
+     *
+     * @param source connections for the partitions
+     * @param partitions number of id ranges
+     * @param callback receives every row, concurrently across partitions
+     * @param executor runs the partitions
+     * @return number of rows scanned
+     * @throws SQLException if a partition fails, the others are cancelled
+     */
+    public long parallelScan(ConnectionSource source, int partitions, PartitionCallback<T> callback, ExecutorService executor) throws SQLException {
+        return new ParallelScanner<>(this, source, partitions).scan(executor, callback);
+    }
 
+    private void closeQuietly(Statement statement) {
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException ex) {
+                logger.log(Level.WARNING, null, ex);
             }
-        } else {
-            logger.severe("Trying to get data from null entity");
         }
+    }
+
+    /**
+     * Map the current row to a new entity, for cursors
+     */
+    T mapRow(ResultSet rs, RowPlan plan) {
+        return setData(rs, plan, getNewInstanceOfEntity());
+    }
+
+    public int count() {
+
+        try {
+            String cntField = "id";
+            if (metadata.isNoID()) {
+                cntField = "*";
+            }
+
+            String query = "SELECT count(" + cntField + ") FROM " + tableName;
+
+            logger.log(Level.FINE, "Count query: {0}", query);
+
+            return queryCount(query, Collections.emptyList(), QueryCache.DEFAULT_TTL);
+
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+        }
+        return 0;
+    }
+
+    /**
+     * Count records matching a where clause, through the query cache when one
+     * is set. Only writes to this table invalidate the cached count, so a
+     * clause that reads other tables is refreshed by the ttl alone.
+     *
+     * @param whereClause SQL condition without the WHERE keyword
+     * @return number of records
+     */
+    public int count(String whereClause) {
+
+        try {
+            String query = "SELECT count(id) FROM " + tableName + " WHERE " + whereClause;
 
-        return cv;
+            logger.log(Level.FINE, "Count query: {0}", query);
+
+            return queryCount(query, Collections.emptyList(), QueryCache.DEFAULT_TTL);
+
+        } catch (SQLException ex) {
+            logger.log(Level.SEVERE, null, ex);
+        }
+        return 0;
     }
 
-    private T setData(ResultSet resultSet, T entityClassObject) {
+    private T setData(ResultSet resultSet, RowPlan plan, T entityClassObject) {
 
         if (entityClassObject != null) {
-            List<Field> fields = ReflectUtil.getAllFields(entityClassObject.getClass());
-            for (Field field : fields) {
 
+            // set entity as persisted when read
+            entityClassObject.setPersisted(true);
+
+            EntityMapper<T> mapper = getMapper();
+            if (mapper != null) {
                 try {
-                    field.setAccessible(true);
+                    mapper.read(resultSet, plan.getMapperOrdinals(), entityClassObject);
+                } catch (SQLException e) {
+                    logger.log(Level.SEVERE, null, e);
+                }
+                entityClassObject.setUnloaded(plan.getMissing());
+                takeSnapshot(entityClassObject);
+                return entityClassObject;
+            }
 
-                    String columnName = ReflectUtil.getColumnName(field);
+            List<ColumnMapping> columns = metadata.getDataColumns();
+            for (int i = 0; i < columns.size(); i++) {
+                ColumnMapping column = columns.get(i);
+                int ordinal = plan.getOrdinal(i);
+                if (ordinal == 0) {
+                    continue;
+                }
 
-                    // set entity as persisted when read
-                    if (field.getName().equals("persisted")) {
-                        field.set(entityClassObject, true);
-                    }
+                try {
+                    TypeConverter<?> converter = column.getConverter();
 
-                    if (field.isAnnotationPresent(DbPrimaryKey.class) && ReflectUtil.noID(entityClassObject.getClass())) {
-                        logger.fine("Entity has no ID annotation");
-                    } else if (!ReflectUtil.containsIgnore(field)) {
-                        Class<?> type = field.getType();
-
-                        if (TYPE_CONVERTERS.containsKey(type)) {
-                            Class<?> converterClazz = TYPE_CONVERTERS.get(type);
-                            logger.log(Level.FINER, "{0} using type converter: {1}", new Object[]{field.getName(), converterClazz.getCanonicalName()});
-                            AbstractTypeConverter converter = (AbstractTypeConverter) Class.forName(converterClazz.getCanonicalName()).newInstance();
-                            field.set(entityClassObject, converter.getValue(resultSet, columnName));
-                        } else if (PRIMITIVE_TYPE_CONVERTERS.containsKey(type.getName())) {
-                            Class<?> converterClazz = PRIMITIVE_TYPE_CONVERTERS.get(type.getName());
-                            logger.log(Level.FINER, "{0} using primitive type converter: {1}", new Object[]{field.getName(), converterClazz.getCanonicalName()});
-                            AbstractTypeConverter converter = (AbstractTypeConverter) Class.forName(converterClazz.getCanonicalName()).newInstance();
-                            field.set(entityClassObject, converter.getValue(resultSet, columnName));
-                        } else {
-                            logger.log(Level.SEVERE, "Unknown type {0} when setting data for field ''{1}''.", new Object[]{type.getName(), field.getName()});
+                    if (converter != null) {
+                        if (logger.isLoggable(Level.FINER)) {
+                            logger.log(Level.FINER, "{0} using type converter: {1}", new Object[]{column.getFieldName(), converter.getClass().getCanonicalName()});
                         }
+                        column.read(resultSet, ordinal, entityClassObject);
+                    } else {
+                        logger.log(Level.SEVERE, "Unknown type {0} when setting data for field ''{1}''.", new Object[]{column.getType().getName(), column.getFieldName()});
                     }
 
-                } catch (IllegalAccessException | IllegalArgumentException | SQLException | ClassNotFoundException | InstantiationException e) {
+                } catch (IllegalArgumentException | IllegalStateException | ClassCastException | SQLException e) {
                     logger.log(Level.SEVERE, null, e);
                 }
             }
+            entityClassObject.setUnloaded(plan.getMissing());
+            takeSnapshot(entityClassObject);
             return entityClassObject;
         } else {
             logger.info("Trying to set data from null entity");
@@ -1042,26 +3132,118 @@ public abstract class AbstractDatabaseManager<T extends Entity> {
 
     }
 
-    private void putValue(HashMap values, String key, Object value) {
+    /**
+     * Remember the current column values of an entity, aligned with
+     * {@link EntityMetadata#getDataColumns()} and followed by a bitset of the
+     * null columns, see {@link ColumnMapping#snapshot(Entity, long[], int, int)}
+     */
+    private void takeSnapshot(T entity) {
+        List<ColumnMapping> columns = metadata.getDataColumns();
+        int count = columns.size();
+        long[] snapshot = new long[count + (count + 63) / 64];
+        for (int i = 0; i < count; i++) {
+            ColumnMapping column = columns.get(i);
+            if (column.getConverter() != null) {
+                column.snapshot(entity, snapshot, i, count);
+            }
+        }
+        entity.setSnapshot(snapshot);
+    }
+
+    /**
+     * @return columns changed since the last snapshot, the loaded columns of a
+     * partial entity without one, or null when the entity has no snapshot and
+     * every column has to be written
+     */
+    private List<ColumnMapping> getChangedColumns(T entity) {
+        long[] snapshot = entity.getSnapshot();
+        List<ColumnMapping> columns = metadata.getDataColumns();
+        int count = columns.size();
+        if (snapshot == null || snapshot.length != count + (count + 63) / 64) {
+            if (!entity.isPartial()) {
+                return null;
+            }
+            // the columns a projection left out hold defaults, not row values
+            List<ColumnMapping> loaded = new ArrayList<>();
+            BitSet unloaded = entity.getUnloaded();
+            for (int i = 0; i < count; i++) {
+                ColumnMapping column = columns.get(i);
+                if (column.getConverter() != null && !column.isPrimaryKey() && !unloaded.get(i)) {
+                    loaded.add(column);
+                }
+            }
+            return loaded;
+        }
 
-        if (values != null) {
-            if (value instanceof Double) {
-                values.put(key, (Double) value);
-            } else if (value instanceof Float) {
-                values.put(key, (Float) value);
-            } else if (value instanceof Long) {
-                values.put(key, (Long) value);
-            } else if (value instanceof Integer) {
-                values.put(key, (Integer) value);
-            } else if (value instanceof Boolean) {
-                values.put(key, (Boolean) value);
-            } else if (value instanceof String) {
-                values.put(key, (String) value);
+        List<ColumnMapping> changed = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ColumnMapping column = columns.get(i);
+            // the primary key identifies the row and is never updated
+            if (column.getConverter() != null && !column.isPrimaryKey()
+                    && column.changedSince(entity, snapshot, i, count)) {
+                changed.add(column);
             }
-        } else {
-            logger.severe("Trying to put data into null values");
         }
+        return changed;
+    }
+
+    /**
+     * @param entity entity to check
+     * @return true if the entity has columns that update would write
+     */
+    public boolean isDirty(T entity) {
+        List<ColumnMapping> changed = getChangedColumns(entity);
+        return changed == null || !changed.isEmpty();
+    }
+
+    /**
+     * @return cached column model of the managed entity class
+     */
+    public EntityMetadata getMetadata() {
+        return metadata;
+    }
+
+    private EntityMapper<T> getMapper() {
+        return (EntityMapper<T>) metadata.getMapper();
+    }
+
+    /**
+     * @return maximum number of rows sent in one JDBC batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize maximum number of rows sent in one JDBC batch
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
 
+    public Connection getConnection() {
+        return dbConnection;
+    }
+
+    /**
+     * @return fetch size of cursors
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * @param fetchSize fetch size of cursors, {@link #STREAMING_FETCH_SIZE} to
+     * stream rows one at a time or a positive size with useCursorFetch=true
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 0 && fetchSize != STREAMING_FETCH_SIZE) {
+            throw new IllegalArgumentException("Fetch size must not be negative");
+        }
+        this.fetchSize = fetchSize;
     }
 
     public String getTableName() {
@@ -1070,27 +3252,32 @@ public abstract class AbstractDatabaseManager<T extends Entity> {
 
     public void setTableName(String tableName) {
         this.tableName = tableName;
+        insertQuery = null;
+        updateQuery = null;
+        upsertQuery = null;
+        deleteQuery = null;
+        readQuery = null;
+        entityCache = EntityCache.forEntity(entityClass, tableName, metadata);
+        tableVersion = QueryCache.tableVersion(tableName);
+        // rows of the previous table
+        disableOffHeapCache();
     }
 
     public String getColumnType(Field field) {
-        try {
-            Class<?> type = field.getType();
-
-            if (TYPE_CONVERTERS.containsKey(type)) {
-                Class<?> converterClazz = TYPE_CONVERTERS.get(type);
-                AbstractTypeConverter converter = (AbstractTypeConverter) Class.forName(converterClazz.getCanonicalName()).newInstance();
-                return converter.getDatabaseType(field);
-            } else if (PRIMITIVE_TYPE_CONVERTERS.containsKey(type.getName())) {
-                Class<?> converterClazz = PRIMITIVE_TYPE_CONVERTERS.get(type.getName());
-                AbstractTypeConverter converter = (AbstractTypeConverter) Class.forName(converterClazz.getCanonicalName()).newInstance();
-                return converter.getDatabaseType(field);
-            }
-        } catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
-            logger.log(Level.SEVERE, null, e);
+        TypeConverter<?> converter = typeConverters.getConverter(field.getType());
+        if (converter != null) {
+            return converter.getDatabaseType(field);
         }
         return null;
     }
 
+    /**
+     * @return converters used by this manager
+     */
+    public TypeConverterRegistry getTypeConverters() {
+        return typeConverters;
+    }
+
     public static void setLogFile(File file) {
         logFile = file;
         if (!logFile.exists()) {
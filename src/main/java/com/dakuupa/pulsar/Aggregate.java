@@ -0,0 +1,32 @@
+package com.dakuupa.pulsar;
+
+/**
+ * SQL aggregate functions for the manager's aggregate queries
+ *
+ * @author etwilliams
+ */
+public enum Aggregate {
+
+    SUM("SUM(", ")"),
+    MIN("MIN(", ")"),
+    MAX("MAX(", ")"),
+    AVG("AVG(", ")"),
+    COUNT_DISTINCT("COUNT(DISTINCT ", ")");
+
+    private final String prefix;
+    private final String suffix;
+
+    Aggregate(String prefix, String suffix) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+
+    /**
+     * @param column column name
+     * @return aggregate expression over the column
+     */
+    public String apply(String column) {
+        return prefix + column + suffix;
+    }
+
+}
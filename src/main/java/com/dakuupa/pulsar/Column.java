@@ -63,6 +63,26 @@ public class Column {
         }
     }
 
+    public Column(ColumnMapping mapping) {
+
+        name = mapping.getColumnName();
+        type = mapping.getDatabaseType();
+        nullable = !mapping.isNotNull();
+        primaryKey = mapping.isPrimaryKey();
+        autoIncrement = mapping.isAutoIncrement();
+        unique = mapping.isUnique();
+
+        if (mapping.getSize() != -1) {
+            size = mapping.getSize();
+        } else if (type != null && type.equals(IntegerTypeConverter.DB_TYPE_INTEGER)) {
+            size = MySQLTypeConverter.DB_DEFAULT_INT_SIZE;
+        } else if (type != null && type.equals(IntegerTypeConverter.DB_TYPE_BOOLEAN)) {
+            size = MySQLTypeConverter.DB_DEFAULT_BOOLEAN_SIZE;
+        } else if (mapping.getType() == Date.class) {
+            size = MySQLTypeConverter.DB_DEFAULT_BIG_INT_SIZE;
+        }
+    }
+
     public Column(ResultSet rs) throws SQLException {
         String columnNameField = rs.getString("Field");
         String typeField = rs.getString("Type");
@@ -0,0 +1,407 @@
+package com.dakuupa.pulsar;
+
+import com.dakuupa.pulsar.annotations.DbAutoIncrement;
+import com.dakuupa.pulsar.annotations.DbNotNull;
+import com.dakuupa.pulsar.annotations.DbPrimaryKey;
+import com.dakuupa.pulsar.annotations.DbSize;
+import com.dakuupa.pulsar.annotations.DbUnique;
+import com.dakuupa.pulsar.typeconverter.BooleanConverter;
+import com.dakuupa.pulsar.typeconverter.DoubleConverter;
+import com.dakuupa.pulsar.typeconverter.FloatConverter;
+import com.dakuupa.pulsar.typeconverter.IndexedConverter;
+import com.dakuupa.pulsar.typeconverter.IntConverter;
+import com.dakuupa.pulsar.typeconverter.LongConverter;
+import com.dakuupa.pulsar.typeconverter.TypeConverter;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Date;
+
+/**
+ * Immutable mapping between an entity field and its table column. Built once
+ * per entity class by {@link EntityMetadata}.
+ *
+ * @author etwilliams
+ */
+public final class ColumnMapping {
+
+    private final Field field;
+    private final FieldAccessor accessor;
+    private final String fieldName;
+    private final String columnName;
+    private final Class<?> type;
+    private final boolean primaryKey;
+    private final boolean autoIncrement;
+    private final boolean notNull;
+    private final boolean unique;
+    private final int size;
+    private final TypeConverter<?> converter;
+    private final String databaseType;
+    private final ValueKind kind;
+    private final boolean primitive;
+
+    ColumnMapping(Field field, FieldAccessor accessor, TypeConverter<?> converter, String databaseType) {
+        this.field = field;
+        this.accessor = accessor;
+        this.fieldName = field.getName();
+        this.columnName = ReflectUtil.getColumnName(field);
+        this.type = field.getType();
+        this.converter = converter;
+        this.databaseType = databaseType;
+
+        boolean pk = false;
+        boolean ai = false;
+        boolean nn = false;
+        boolean uq = false;
+        for (Annotation anno : field.getAnnotations()) {
+            if (anno instanceof DbPrimaryKey) {
+                pk = true;
+            } else if (anno instanceof DbAutoIncrement) {
+                ai = true;
+            } else if (anno instanceof DbNotNull) {
+                nn = true;
+            } else if (anno instanceof DbUnique) {
+                uq = true;
+            }
+        }
+        this.primaryKey = pk;
+        this.autoIncrement = ai;
+        this.notNull = nn;
+        this.unique = uq;
+        this.size = field.isAnnotationPresent(DbSize.class) ? ReflectUtil.getSize(field) : -1;
+        this.kind = ValueKind.of(accessor.getPrimitiveType(), converter);
+        this.primitive = type.isPrimitive();
+    }
+
+    /**
+     * Read the column into the entity field, without boxing when the field is
+     * primitive and the converter has a primitive contract
+     *
+     * @param rs result set positioned on a row
+     * @param columnIndex column ordinal
+     * @param entity entity to populate
+     * @throws SQLException
+     */
+    public void read(ResultSet rs, int columnIndex, Entity entity) throws SQLException {
+        switch (kind) {
+            case INT:
+                accessor.setInt(entity, ((IntConverter) converter).readInt(rs, columnIndex));
+                break;
+            case LONG:
+                accessor.setLong(entity, ((LongConverter) converter).readLong(rs, columnIndex));
+                break;
+            case DOUBLE:
+                accessor.setDouble(entity, ((DoubleConverter) converter).readDouble(rs, columnIndex));
+                break;
+            case FLOAT:
+                accessor.setFloat(entity, ((FloatConverter) converter).readFloat(rs, columnIndex));
+                break;
+            case BOOLEAN:
+                accessor.setBoolean(entity, ((BooleanConverter) converter).readBoolean(rs, columnIndex));
+                break;
+            default:
+                accessor.set(entity, getValue(rs, columnIndex));
+                break;
+        }
+    }
+
+    /**
+     * @param rs result set positioned on a row
+     * @param columnIndex column ordinal
+     * @return boxed column value, read by ordinal when the converter supports
+     * it and by the column label otherwise
+     * @throws SQLException
+     */
+    Object getValue(ResultSet rs, int columnIndex) throws SQLException {
+        if (converter instanceof IndexedConverter) {
+            return ((IndexedConverter<?>) converter).getValue(rs, columnIndex);
+        }
+        return converter.getValue(rs, rs.getMetaData().getColumnLabel(columnIndex));
+    }
+
+    /**
+     * Bind the entity field as a statement parameter, without boxing when the
+     * field is primitive and the converter has a primitive contract
+     *
+     * @param statement statement to bind to
+     * @param index parameter index
+     * @param entity entity to read from
+     * @throws SQLException
+     */
+    public void bind(PreparedStatement statement, int index, Entity entity) throws SQLException {
+        if (kind == ValueKind.OBJECT) {
+            Object value = converter.getDatabaseValue(entity, fieldName);
+            if (value != null) {
+                statement.setObject(index, value);
+            } else {
+                statement.setNull(index, Types.NULL);
+            }
+            return;
+        }
+
+        if (primitive) {
+            switch (kind) {
+                case INT:
+                    ((IntConverter) converter).bindInt(statement, index, accessor.getInt(entity));
+                    break;
+                case LONG:
+                    ((LongConverter) converter).bindLong(statement, index, accessor.getLong(entity));
+                    break;
+                case DOUBLE:
+                    ((DoubleConverter) converter).bindDouble(statement, index, accessor.getDouble(entity));
+                    break;
+                case FLOAT:
+                    ((FloatConverter) converter).bindFloat(statement, index, accessor.getFloat(entity));
+                    break;
+                default:
+                    ((BooleanConverter) converter).bindBoolean(statement, index, accessor.getBoolean(entity));
+                    break;
+            }
+            return;
+        }
+
+        // wrapper field, unboxing the stored value allocates nothing
+        Object value = accessor.get(entity);
+        if (value == null) {
+            statement.setNull(index, kind.sqlType);
+            return;
+        }
+        switch (kind) {
+            case INT:
+                ((IntConverter) converter).bindInt(statement, index, (Integer) value);
+                break;
+            case LONG:
+                ((LongConverter) converter).bindLong(statement, index, (Long) value);
+                break;
+            case DOUBLE:
+                ((DoubleConverter) converter).bindDouble(statement, index, (Double) value);
+                break;
+            case FLOAT:
+                ((FloatConverter) converter).bindFloat(statement, index, (Float) value);
+                break;
+            default:
+                ((BooleanConverter) converter).bindBoolean(statement, index, (Boolean) value);
+                break;
+        }
+    }
+
+    /**
+     * Record the column in a change snapshot of one long per column followed
+     * by a bitset of the null columns. Numbers, booleans and dates are kept
+     * exactly, strings as a 64 bit hash and other values as their hash code,
+     * so no value is copied and primitive fields are read without boxing.
+     *
+     * @param entity entity to read from
+     * @param snapshot snapshot of the row
+     * @param index position of the column
+     * @param columns number of columns in the snapshot
+     */
+    void snapshot(Entity entity, long[] snapshot, int index, int columns) {
+        if (primitive && kind != ValueKind.OBJECT) {
+            snapshot[index] = primitiveBits(entity);
+            return;
+        }
+        Object value = getDatabaseValue(entity);
+        if (value == null) {
+            snapshot[columns + (index >>> 6)] |= 1L << index;
+        } else {
+            snapshot[index] = valueBits(value);
+        }
+    }
+
+    /**
+     * @param entity entity to read from
+     * @param snapshot snapshot from {@link #snapshot(Entity, long[], int, int)}
+     * @param index position of the column
+     * @param columns number of columns in the snapshot
+     * @return true if the column differs from the snapshot, a changed string
+     * is only missed on a 64 bit hash collision
+     */
+    boolean changedSince(Entity entity, long[] snapshot, int index, int columns) {
+        if (primitive && kind != ValueKind.OBJECT) {
+            return snapshot[index] != primitiveBits(entity);
+        }
+        boolean wasNull = (snapshot[columns + (index >>> 6)] & (1L << index)) != 0;
+        Object value = getDatabaseValue(entity);
+        if (value == null) {
+            return !wasNull;
+        }
+        return wasNull || snapshot[index] != valueBits(value);
+    }
+
+    private long primitiveBits(Entity entity) {
+        switch (kind) {
+            case INT:
+                return accessor.getInt(entity);
+            case LONG:
+                return accessor.getLong(entity);
+            case DOUBLE:
+                return Double.doubleToLongBits(accessor.getDouble(entity));
+            case FLOAT:
+                return Float.floatToIntBits(accessor.getFloat(entity));
+            default:
+                return accessor.getBoolean(entity) ? 1 : 0;
+        }
+    }
+
+    private static long valueBits(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Double) {
+            return Double.doubleToLongBits((Double) value);
+        } else if (value instanceof Float) {
+            return Float.floatToIntBits((Float) value);
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        } else if (value instanceof Date) {
+            return ((Date) value).getTime();
+        } else if (value instanceof String) {
+            // FNV-1a over the chars
+            String string = (String) value;
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < string.length(); i++) {
+                hash ^= string.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+        return value.hashCode();
+    }
+
+    /**
+     * @param entity entity to read from
+     * @return true if the converter writes null for the field, never for
+     * primitive fields
+     */
+    boolean isNull(Entity entity) {
+        if (primitive && kind != ValueKind.OBJECT) {
+            return false;
+        }
+        return getDatabaseValue(entity) == null;
+    }
+
+    /**
+     * @param entity entity to read from
+     * @return value the converter writes for the field, boxed for primitive
+     * fields
+     */
+    public Object getDatabaseValue(Entity entity) {
+        if (kind == ValueKind.OBJECT) {
+            return converter.getDatabaseValue(entity, fieldName);
+        }
+        return accessor.get(entity);
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * @return direct getter and setter for the field
+     */
+    public FieldAccessor getAccessor() {
+        return accessor;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public boolean isPrimaryKey() {
+        return primaryKey;
+    }
+
+    public boolean isAutoIncrement() {
+        return autoIncrement;
+    }
+
+    public boolean isNotNull() {
+        return notNull;
+    }
+
+    public boolean isUnique() {
+        return unique;
+    }
+
+    /**
+     * @return DbSize annotation value, or -1 when the field has none
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return shared converter bound to the field type, or null when the type
+     * has no converter
+     */
+    public TypeConverter<?> getConverter() {
+        return converter;
+    }
+
+    /**
+     * @return class of the bound converter, or null when the type has no
+     * converter
+     */
+    public Class<?> getConverterClass() {
+        return converter != null ? converter.getClass() : null;
+    }
+
+    /**
+     * @return database type reported by the converter, or null when the type
+     * has no converter
+     */
+    public String getDatabaseType() {
+        return databaseType;
+    }
+
+    /**
+     * How a column moves between JDBC and its field
+     */
+    private enum ValueKind {
+
+        INT(Types.INTEGER),
+        LONG(Types.BIGINT),
+        DOUBLE(Types.DOUBLE),
+        FLOAT(Types.FLOAT),
+        BOOLEAN(Types.BOOLEAN),
+        OBJECT(Types.NULL);
+
+        private final int sqlType;
+
+        ValueKind(int sqlType) {
+            this.sqlType = sqlType;
+        }
+
+        static ValueKind of(Class<?> primitiveType, TypeConverter<?> converter) {
+            if (primitiveType == int.class && converter instanceof IntConverter) {
+                return INT;
+            } else if (primitiveType == long.class && converter instanceof LongConverter) {
+                return LONG;
+            } else if (primitiveType == double.class && converter instanceof DoubleConverter) {
+                return DOUBLE;
+            } else if (primitiveType == float.class && converter instanceof FloatConverter) {
+                return FLOAT;
+            } else if (primitiveType == boolean.class && converter instanceof BooleanConverter) {
+                return BOOLEAN;
+            }
+            return OBJECT;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnMapping{" + "fieldName=" + fieldName + ", columnName=" + columnName + ", databaseType=" + databaseType + '}';
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.dakuupa.pulsar;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Supplies connections for work that runs beside a manager's own connection,
+ * such as the partitions of a parallel scan. Connections are closed by the
+ * caller when done, which returns them to a pool if they came from one.
+ *
+ * @author etwilliams
+ */
+public interface ConnectionSource {
+
+    Connection getConnection() throws SQLException;
+
+}
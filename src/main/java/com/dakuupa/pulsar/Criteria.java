@@ -0,0 +1,296 @@
+package com.dakuupa.pulsar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Fluent where clause, ordering and limit for a manager query. Conditions are
+ * ANDed unless grouped with {@link #or(Criteria...)}. Column names are checked
+ * against the entity's mapped columns and every value is a statement
+ * parameter, so the same criteria shape always compiles to the same SQL and
+ * reuses one cached prepared statement.
+ *
+ * <pre>
+ * Criteria.create().gt("qty", 5).startsWith("name", "ab").orderBy("id").limit(50)
+ * </pre>
+ *
+ * @author etwilliams
+ */
+public class Criteria {
+
+    private final List<Condition> conditions = new ArrayList<>();
+    private final List<String> orderBy = new ArrayList<>();
+    private int limit = -1;
+    private long cacheTtl = QueryCache.DEFAULT_TTL;
+
+    public static Criteria create() {
+        return new Criteria();
+    }
+
+    /**
+     * column = value, or IS NULL for a null value
+     */
+    public Criteria eq(String column, Object value) {
+        if (value == null) {
+            return isNull(column);
+        }
+        return add(new Condition(Kind.COMPARE, column, " = ?", value));
+    }
+
+    /**
+     * column &lt;&gt; value, or IS NOT NULL for a null value
+     */
+    public Criteria ne(String column, Object value) {
+        if (value == null) {
+            return isNotNull(column);
+        }
+        return add(new Condition(Kind.COMPARE, column, " <> ?", value));
+    }
+
+    public Criteria lt(String column, Object value) {
+        return add(new Condition(Kind.COMPARE, column, " < ?", checkValue(value)));
+    }
+
+    public Criteria le(String column, Object value) {
+        return add(new Condition(Kind.COMPARE, column, " <= ?", checkValue(value)));
+    }
+
+    public Criteria gt(String column, Object value) {
+        return add(new Condition(Kind.COMPARE, column, " > ?", checkValue(value)));
+    }
+
+    public Criteria ge(String column, Object value) {
+        return add(new Condition(Kind.COMPARE, column, " >= ?", checkValue(value)));
+    }
+
+    /**
+     * column BETWEEN from AND to, both inclusive
+     */
+    public Criteria between(String column, Object from, Object to) {
+        return add(new Condition(Kind.BETWEEN, column, " BETWEEN ? AND ?", checkValue(from), checkValue(to)));
+    }
+
+    /**
+     * column IN (values), the list is padded to a power of two with repeated
+     * values so varying sizes share a few statements
+     */
+    public Criteria in(String column, Collection<?> values) {
+        List<Object> list = new ArrayList<>();
+        for (Object value : values) {
+            list.add(checkValue(value));
+        }
+        return add(new Condition(Kind.IN, column, null, list.toArray()));
+    }
+
+    /**
+     * column LIKE 'prefix%', with LIKE wildcards in the prefix matched
+     * literally
+     */
+    public Criteria startsWith(String column, String prefix) {
+        StringBuilder pattern = new StringBuilder();
+        for (char c : checkValue(prefix).toString().toCharArray()) {
+            if (c == '%' || c == '_' || c == '\\') {
+                pattern.append('\\');
+            }
+            pattern.append(c);
+        }
+        pattern.append('%');
+        return add(new Condition(Kind.LIKE, column, " LIKE ?", pattern.toString()));
+    }
+
+    public Criteria isNull(String column) {
+        return add(new Condition(Kind.NULL, column, " IS NULL"));
+    }
+
+    public Criteria isNotNull(String column) {
+        return add(new Condition(Kind.NULL, column, " IS NOT NULL"));
+    }
+
+    /**
+     * Match any of the alternatives, each of them an AND of its conditions
+     */
+    public Criteria or(Criteria... alternatives) {
+        if (alternatives.length == 0) {
+            throw new IllegalArgumentException("OR needs at least one alternative");
+        }
+        for (Criteria alternative : alternatives) {
+            if (!alternative.orderBy.isEmpty() || alternative.limit >= 0) {
+                throw new IllegalArgumentException("OR alternatives cannot be ordered or limited");
+            }
+        }
+        return add(new Condition(Kind.OR, null, null, (Object[]) alternatives));
+    }
+
+    public Criteria orderBy(String column) {
+        orderBy.add(column);
+        orderBy.add(" ASC");
+        return this;
+    }
+
+    public Criteria orderByDesc(String column) {
+        orderBy.add(column);
+        orderBy.add(" DESC");
+        return this;
+    }
+
+    public Criteria limit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative");
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Override the query cache ttl for this query
+     *
+     * @param millis milliseconds to keep the result, 0 to bypass the cache
+     */
+    public Criteria cacheFor(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Cache ttl must not be negative");
+        }
+        this.cacheTtl = millis;
+        return this;
+    }
+
+    long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    private Criteria add(Condition condition) {
+        conditions.add(condition);
+        return this;
+    }
+
+    private static Object checkValue(Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value must not be null, use isNull or isNotNull");
+        }
+        return value;
+    }
+
+    /**
+     * Compile to SQL, collecting statement parameters in order
+     *
+     * @param prefix select or delete clause the criteria applies to
+     * @param metadata entity the columns must belong to
+     * @param params receives the parameter values
+     * @param orderAndLimit false to leave out ORDER BY and LIMIT, as for
+     * counts
+     * @return query text
+     */
+    String toSql(String prefix, EntityMetadata metadata, List<Object> params, boolean orderAndLimit) {
+        StringBuilder sql = new StringBuilder(prefix);
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ");
+            appendConditions(sql, metadata, params);
+        }
+
+        if (orderAndLimit) {
+            for (int i = 0; i < orderBy.size(); i += 2) {
+                sql.append(i == 0 ? " ORDER BY " : ", ").append(checkColumn(metadata, orderBy.get(i))).append(orderBy.get(i + 1));
+            }
+            if (limit >= 0) {
+                sql.append(" LIMIT ?");
+                params.add(limit);
+            }
+        }
+        return sql.toString();
+    }
+
+    private void appendConditions(StringBuilder sql, EntityMetadata metadata, List<Object> params) {
+        for (int i = 0; i < conditions.size(); i++) {
+            if (i > 0) {
+                sql.append(" AND ");
+            }
+            conditions.get(i).appendTo(sql, metadata, params);
+        }
+    }
+
+    private static String checkColumn(EntityMetadata metadata, String column) {
+        if (metadata.getColumnByColumnName(column) == null) {
+            throw new IllegalArgumentException("Unknown column " + column + " for table " + metadata.getTableName());
+        }
+        return column;
+    }
+
+    @Override
+    public String toString() {
+        return "Criteria{" + "conditions=" + conditions.size() + ", orderBy=" + orderBy + ", limit=" + limit + '}';
+    }
+
+    private enum Kind {
+        COMPARE, BETWEEN, IN, LIKE, NULL, OR
+    }
+
+    private static final class Condition {
+
+        private final Kind kind;
+        private final String column;
+        private final String operator;
+        private final Object[] values;
+
+        Condition(Kind kind, String column, String operator, Object... values) {
+            this.kind = kind;
+            this.column = column;
+            this.operator = operator;
+            this.values = values;
+        }
+
+        void appendTo(StringBuilder sql, EntityMetadata metadata, List<Object> params) {
+            switch (kind) {
+                case OR:
+                    sql.append('(');
+                    for (int i = 0; i < values.length; i++) {
+                        Criteria alternative = (Criteria) values[i];
+                        if (i > 0) {
+                            sql.append(" OR ");
+                        }
+                        sql.append('(');
+                        if (alternative.conditions.isEmpty()) {
+                            sql.append("1 = 1");
+                        } else {
+                            alternative.appendConditions(sql, metadata, params);
+                        }
+                        sql.append(')');
+                    }
+                    sql.append(')');
+                    break;
+                case IN:
+                    checkColumn(metadata, column);
+                    if (values.length == 0) {
+                        sql.append("1 = 0");
+                        break;
+                    }
+                    int size = Integer.highestOneBit(values.length);
+                    if (size < values.length) {
+                        size <<= 1;
+                    }
+                    sql.append(column).append(" IN (");
+                    for (int i = 0; i < size; i++) {
+                        sql.append(i == 0 ? "?" : ", ?");
+                        params.add(values[Math.min(i, values.length - 1)]);
+                    }
+                    sql.append(')');
+                    break;
+                case LIKE:
+                    ColumnMapping mapping = metadata.getColumnByColumnName(checkColumn(metadata, column));
+                    if (mapping.getType() != String.class) {
+                        throw new IllegalArgumentException("Column " + column + " is not a String column");
+                    }
+                    sql.append(column).append(operator);
+                    params.addAll(Arrays.asList(values));
+                    break;
+                default:
+                    sql.append(checkColumn(metadata, column)).append(operator);
+                    params.addAll(Arrays.asList(values));
+                    break;
+            }
+        }
+
+    }
+
+}
@@ -5,6 +5,7 @@ import com.dakuupa.pulsar.annotations.DbIgnore;
 import com.dakuupa.pulsar.annotations.DbNotNull;
 import com.dakuupa.pulsar.annotations.DbPrimaryKey;
 import com.dakuupa.pulsar.annotations.DbSize;
+import java.util.BitSet;
 
 /**
  * Base DB entity class
@@ -31,6 +32,19 @@ public abstract class Entity {
      */
     private boolean persisted = false;
 
+    @DbIgnore
+    /**
+     * snapshot holds compact column values as last read or written, so
+     * updates only send changed columns
+     */
+    private transient long[] snapshot;
+
+    @DbIgnore
+    /**
+     * unloaded marks the columns a projection did not select
+     */
+    private transient BitSet unloaded;
+
     @DbIgnore
     public static final long INVALID_ID = -1;
 
@@ -50,4 +64,27 @@ public abstract class Entity {
         this.persisted = persisted;
     }
 
+    long[] getSnapshot() {
+        return snapshot;
+    }
+
+    void setSnapshot(long[] snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    BitSet getUnloaded() {
+        return unloaded;
+    }
+
+    void setUnloaded(BitSet unloaded) {
+        this.unloaded = unloaded;
+    }
+
+    /**
+     * @return true if the entity was read without some of its columns
+     */
+    public boolean isPartial() {
+        return unloaded != null && !unloaded.isEmpty();
+    }
+
 }
@@ -0,0 +1,65 @@
+package com.dakuupa.pulsar;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Field accessors of an Entity class by field name, built once per class and
+ * shared by metadata and type converters.
+ *
+ * @author etwilliams
+ */
+public final class EntityAccessors {
+
+    private static final ConcurrentMap<Class<?>, EntityAccessors> CACHE = new ConcurrentHashMap<>();
+
+    private final Map<String, FieldAccessor> accessors;
+
+    private EntityAccessors(Class<?> clazz) {
+        Map<String, FieldAccessor> map = new HashMap<>();
+
+        // sub class fields come first, so they win over shadowed super class fields
+        for (Field field : ReflectUtil.getAllFields(clazz)) {
+            if (!map.containsKey(field.getName())) {
+                try {
+                    map.put(field.getName(), new FieldAccessor(field));
+                } catch (IllegalAccessException | SecurityException ex) {
+                    Logger.getLogger(EntityAccessors.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+        }
+
+        this.accessors = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * @param clazz entity class
+     * @return cached accessors for the class
+     */
+    public static EntityAccessors forClass(Class<?> clazz) {
+        EntityAccessors entityAccessors = CACHE.get(clazz);
+        if (entityAccessors == null) {
+            entityAccessors = new EntityAccessors(clazz);
+            EntityAccessors existing = CACHE.putIfAbsent(clazz, entityAccessors);
+            if (existing != null) {
+                entityAccessors = existing;
+            }
+        }
+        return entityAccessors;
+    }
+
+    /**
+     * @param fieldName field name
+     * @return accessor for the field or null if the class has no such field
+     */
+    public FieldAccessor get(String fieldName) {
+        return accessors.get(fieldName);
+    }
+
+}
@@ -0,0 +1,315 @@
+package com.dakuupa.pulsar;
+
+import com.dakuupa.pulsar.annotations.DbCached;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Second level cache of rows by id, shared by every manager of an entity class
+ * annotated with {@link DbCached}. Rows are held as copies of their field
+ * values and every hit builds a new instance, so no entity is shared between
+ * callers. The cache is split into segments, each a least recently used map
+ * behind its own lock, so readers of different ids rarely wait on each other.
+ * Writes through a manager refresh or evict rows; writes made any other way
+ * are only seen once a row expires or is evicted.
+ *
+ * @author etwilliams
+ * @param <T> entity type
+ */
+public final class EntityCache<T extends Entity> {
+
+    private static final int MAX_SEGMENTS = 16;
+    // shared caches by entity class and table name
+    private static final ConcurrentMap<List<Object>, EntityCache<?>> CACHES = new ConcurrentHashMap<>();
+
+    private final String tableName;
+    private final EntityValues<T> values;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Segment[] segments;
+    // bumped by every write, loads that raced with one are not cached
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    private EntityCache(Class<T> entityClass, String tableName, EntityMetadata metadata, int maxEntries, long ttlSeconds) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("DbCached maxEntries must be positive for " + entityClass.getName());
+        }
+        this.tableName = tableName;
+        this.values = new EntityValues<>(entityClass, metadata);
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(ttlSeconds, 0));
+
+        int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(maxEntries));
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maxEntries / count + (i < maxEntries % count ? 1 : 0), evictions);
+        }
+    }
+
+    /**
+     * @param <T> entity type
+     * @param entityClass entity class
+     * @param tableName table the manager reads
+     * @param metadata column model of the class
+     * @return shared cache, or null when the class is not annotated with
+     * DbCached or has no id
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Entity> EntityCache<T> forEntity(Class<T> entityClass, String tableName, EntityMetadata metadata) {
+        DbCached cached = entityClass.getAnnotation(DbCached.class);
+        if (cached == null || metadata.isNoID()) {
+            return null;
+        }
+
+        List<Object> key = Arrays.<Object>asList(entityClass, tableName);
+        EntityCache<?> cache = CACHES.get(key);
+        if (cache == null) {
+            EntityCache<?> created = new EntityCache<>(entityClass, tableName, metadata, cached.maxEntries(), cached.ttl());
+            cache = CACHES.putIfAbsent(key, created);
+            if (cache == null) {
+                cache = created;
+            }
+        }
+        return (EntityCache<T>) cache;
+    }
+
+    /**
+     * @param id entity id
+     * @return new instance built from the cached row, or null on a miss
+     */
+    T get(long id) {
+        Segment segment = segmentFor(id);
+        CachedRow row;
+        synchronized (segment) {
+            row = segment.get(id);
+            if (row != null && row.expiresAt != 0 && System.nanoTime() - row.expiresAt > 0) {
+                segment.remove(id);
+                expirations.incrementAndGet();
+                row = null;
+            }
+        }
+
+        if (row == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return values.restore(row.values);
+    }
+
+    /**
+     * @return stamp to pass to {@link #loaded(Collection, long, long)}, taken
+     * before reading the rows
+     */
+    long stamp() {
+        return writes.get();
+    }
+
+    /**
+     * Cache rows read from the database, unless a write happened since the
+     * stamp was taken
+     *
+     * @param entities complete entities read
+     * @param stamp stamp taken before the read
+     * @param nanos time the read took
+     */
+    void loaded(Collection<? extends T> entities, long stamp, long nanos) {
+        loads.addAndGet(entities.size());
+        loadNanos.addAndGet(nanos);
+        for (T entity : entities) {
+            if (entity.getId() == null || entity.isPartial()) {
+                continue;
+            }
+            Segment segment = segmentFor(entity.getId());
+            synchronized (segment) {
+                if (writes.get() != stamp) {
+                    return;
+                }
+                segment.put(entity.getId(), newRow(entity));
+            }
+        }
+    }
+
+    /**
+     * Replace the cached row with the values just written
+     */
+    void put(T entity) {
+        if (entity.getId() == null) {
+            return;
+        }
+        if (entity.isPartial()) {
+            invalidate(entity.getId());
+            return;
+        }
+        Segment segment = segmentFor(entity.getId());
+        synchronized (segment) {
+            writes.incrementAndGet();
+            segment.put(entity.getId(), newRow(entity));
+        }
+    }
+
+    void invalidate(long id) {
+        Segment segment = segmentFor(id);
+        synchronized (segment) {
+            writes.incrementAndGet();
+            segment.remove(id);
+        }
+    }
+
+    /**
+     * Drop every cached row, the counters are kept
+     */
+    public void clear() {
+        writes.incrementAndGet();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    private Segment segmentFor(long id) {
+        int hash = (int) (id ^ (id >>> 32));
+        hash ^= (hash >>> 16);
+        return segments[hash & (segments.length - 1)];
+    }
+
+    private CachedRow newRow(T entity) {
+        return new CachedRow(values.capture(entity), ttlNanos == 0 ? 0 : System.nanoTime() + ttlNanos);
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return number of cached rows, expired rows included until they are
+     * looked up or evicted
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return hits over lookups, 0 before the first lookup
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long lookups = h + misses.get();
+        return lookups == 0 ? 0 : (double) h / lookups;
+    }
+
+    /**
+     * @return rows dropped to stay within maxEntries
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return rows dropped because their ttl had passed
+     */
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    /**
+     * @return rows read from the database after a miss
+     */
+    public long getLoads() {
+        return loads.get();
+    }
+
+    /**
+     * @return total time spent reading rows after a miss, in nanoseconds
+     */
+    public long getTotalLoadTime() {
+        return loadNanos.get();
+    }
+
+    /**
+     * @return average time to read one row after a miss, in milliseconds
+     */
+    public double getAverageLoadMillis() {
+        long count = loads.get();
+        return count == 0 ? 0 : loadNanos.get() / 1e6 / count;
+    }
+
+    @Override
+    public String toString() {
+        return "EntityCache{" + "table=" + tableName + ", size=" + size() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + ", expirations=" + expirations + ", loads=" + loads + '}';
+    }
+
+    private static final class CachedRow {
+
+        private final Object[] values;
+        // System.nanoTime() deadline, 0 for none
+        private final long expiresAt;
+
+        CachedRow(Object[] values, long expiresAt) {
+            this.values = values;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+    /**
+     * Least recently used map of one range of ids, guarded by its own monitor
+     */
+    private static final class Segment extends LinkedHashMap<Long, CachedRow> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private final AtomicLong evictions;
+
+        Segment(int capacity, AtomicLong evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CachedRow> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+    }
+
+}
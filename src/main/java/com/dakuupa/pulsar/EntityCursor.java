@@ -0,0 +1,136 @@
+package com.dakuupa.pulsar;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Forward only cursor over query results, each row is mapped to an entity as
+ * it is consumed so memory stays flat however many rows there are. Iterate it
+ * once and close it, it closes itself after the last row. While a MySQL
+ * streaming cursor is open no other statement can run on its connection.
+ *
+ * @author etwilliams
+ * @param <T> entity type
+ */
+public final class EntityCursor<T extends Entity> implements Iterator<T>, Iterable<T>, AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(EntityCursor.class.getName());
+
+    private final AbstractDatabaseManager<T> manager;
+    private final Statement statement;
+    private final ResultSet resultSet;
+    private final RowPlan plan;
+    private T next;
+    private boolean fetched;
+    private boolean closed;
+    private long rows;
+
+    EntityCursor(AbstractDatabaseManager<T> manager, Statement statement, ResultSet resultSet) throws SQLException {
+        this.manager = manager;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.plan = resultSet != null ? RowPlan.forResultSet(resultSet, manager.getMetadata()) : null;
+        this.closed = resultSet == null;
+    }
+
+    /**
+     * @param <T> entity type
+     * @param manager manager of the entity
+     * @return cursor without rows
+     */
+    static <T extends Entity> EntityCursor<T> empty(AbstractDatabaseManager<T> manager) {
+        try {
+            return new EntityCursor<>(manager, null, null);
+        } catch (SQLException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if reading the next row fails, the cursor
+     * is closed then
+     */
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!fetched) {
+            try {
+                if (resultSet.next()) {
+                    next = manager.mapRow(resultSet, plan);
+                    rows++;
+                } else {
+                    next = null;
+                    close();
+                }
+            } catch (SQLException ex) {
+                close();
+                throw new IllegalStateException("Failed to read row " + (rows + 1), ex);
+            }
+            fetched = true;
+        }
+        return next != null;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T entity = next;
+        next = null;
+        fetched = false;
+        return entity;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Cursor is read only");
+    }
+
+    /**
+     * @return this cursor, which can only be iterated once
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return this;
+    }
+
+    /**
+     * @return rows read so far
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        next = null;
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+        } catch (SQLException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
+        }
+        try {
+            if (statement != null && !statement.isClosed()) {
+                statement.close();
+            }
+        } catch (SQLException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.dakuupa.pulsar;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Plain Java row mapper for one Entity class. Implementations are generated at
+ * compile time by {@link com.dakuupa.pulsar.processor.EntityMapperProcessor}
+ * and named after the entity with the {@link #CLASS_SUFFIX} suffix.
+ *
+ * @author etwilliams
+ * @param <T> entity type
+ */
+public interface EntityMapper<T extends Entity> {
+
+    String CLASS_SUFFIX = "_PulsarMapper";
+
+    /**
+     * @return data columns in read and bind order
+     */
+    String[] getColumnNames();
+
+    /**
+     * @return converter class used for each data column, in the same order as
+     * {@link #getColumnNames()}
+     */
+    Class<?>[] getConverterClasses();
+
+    /**
+     * Populate the entity from the current row
+     *
+     * @param rs result set positioned on a row
+     * @param columnIndexes result set ordinal of each column in
+     * {@link #getColumnNames()}, 0 for columns that were not selected
+     * @param entity entity to populate
+     * @throws SQLException
+     */
+    void read(ResultSet rs, int[] columnIndexes, T entity) throws SQLException;
+
+    /**
+     * Bind every data column of the entity
+     *
+     * @param statement statement to bind to
+     * @param entity entity to read values from
+     * @param index first parameter index
+     * @return next free parameter index
+     * @throws SQLException
+     */
+    int bind(PreparedStatement statement, T entity, int index) throws SQLException;
+
+    /**
+     * @param tableName table name
+     * @return create table query
+     */
+    String getCreateQuery(String tableName);
+
+}
@@ -0,0 +1,196 @@
+package com.dakuupa.pulsar;
+
+import com.dakuupa.pulsar.typeconverter.TypeConverter;
+import com.dakuupa.pulsar.typeconverter.TypeConverterRegistry;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable column model of an Entity class. Reflection and annotation
+ * scanning happen once per class and converter registry, the result is cached
+ * by {@link TypeConverterRegistry#getMetadata(Class)} and shared by every
+ * manager using that registry.
+ *
+ * @author etwilliams
+ */
+public final class EntityMetadata {
+
+    private final Class<?> entityClass;
+    private final String tableName;
+    private final boolean noID;
+    private final boolean immutable;
+    private final List<ColumnMapping> columns;
+    private final List<ColumnMapping> dataColumns;
+    private final List<ColumnMapping> createColumns;
+    private final Map<String, ColumnMapping> byFieldName;
+    private final Map<String, ColumnMapping> byColumnName;
+    private final EntityMapper<?> mapper;
+
+    /**
+     * Build the model of an entity class, use
+     * {@link TypeConverterRegistry#getMetadata(Class)} to get the cached one
+     *
+     * @param entityClass entity class
+     * @param typeConverters converters to bind to the fields
+     */
+    public EntityMetadata(Class<?> entityClass, TypeConverterRegistry typeConverters) {
+        this.entityClass = entityClass;
+
+        String annoTableName = ReflectUtil.tableName(entityClass);
+        this.tableName = annoTableName != null ? annoTableName : entityClass.getSimpleName().toLowerCase();
+        this.noID = ReflectUtil.noID(entityClass);
+        this.immutable = ReflectUtil.isImmutable(entityClass);
+
+        List<ColumnMapping> all = new ArrayList<>();
+        List<ColumnMapping> data = new ArrayList<>();
+        Map<String, ColumnMapping> fieldIndex = new HashMap<>();
+        Map<String, ColumnMapping> columnIndex = new HashMap<>();
+
+        EntityAccessors accessors = EntityAccessors.forClass(entityClass);
+
+        for (Field field : ReflectUtil.getAllFields(entityClass)) {
+            if (!ReflectUtil.fieldIsOkForDatabase(field)) {
+                continue;
+            }
+
+            FieldAccessor accessor = accessors.get(field.getName());
+            if (accessor == null || !accessor.getField().equals(field)) {
+                // shadowed super class field
+                try {
+                    accessor = new FieldAccessor(field);
+                } catch (IllegalAccessException ex) {
+                    Logger.getLogger(EntityMetadata.class.getName()).log(Level.SEVERE, null, ex);
+                    continue;
+                }
+            }
+
+            TypeConverter<?> converter = typeConverters.getConverter(field.getType());
+            String databaseType = converter != null ? converter.getDatabaseType(field) : null;
+
+            ColumnMapping column = new ColumnMapping(field, accessor, converter, databaseType);
+            all.add(column);
+            fieldIndex.put(column.getFieldName(), column);
+            columnIndex.put(column.getColumnName(), column);
+
+            if (!(column.isPrimaryKey() && noID)) {
+                data.add(column);
+            }
+        }
+
+        // attribute order matters in create query, so keep it stable by field name
+        List<ColumnMapping> sorted = new ArrayList<>(all);
+        Collections.sort(sorted, new Comparator<ColumnMapping>() {
+            @Override
+            public int compare(ColumnMapping c1, ColumnMapping c2) {
+                return c1.getFieldName().compareTo(c2.getFieldName());
+            }
+        });
+
+        this.columns = Collections.unmodifiableList(all);
+        this.dataColumns = Collections.unmodifiableList(data);
+        this.createColumns = Collections.unmodifiableList(sorted);
+        this.byFieldName = Collections.unmodifiableMap(fieldIndex);
+        this.byColumnName = Collections.unmodifiableMap(columnIndex);
+        this.mapper = loadMapper();
+    }
+
+    /**
+     * Load the generated mapper of the entity class, if there is one and it
+     * agrees with the reflected columns and converter bindings
+     */
+    private EntityMapper<?> loadMapper() {
+        String mapperName = entityClass.getName().replace('$', '_') + EntityMapper.CLASS_SUFFIX;
+        try {
+            Class<?> mapperClass = Class.forName(mapperName, true, entityClass.getClassLoader());
+            if (!EntityMapper.class.isAssignableFrom(mapperClass)) {
+                return null;
+            }
+
+            EntityMapper<?> generated = (EntityMapper<?>) mapperClass.getDeclaredConstructor().newInstance();
+            String[] columnNames = generated.getColumnNames();
+            Class<?>[] converterClasses = generated.getConverterClasses();
+            if (columnNames.length != dataColumns.size()) {
+                return null;
+            }
+            for (int i = 0; i < columnNames.length; i++) {
+                ColumnMapping column = byColumnName.get(columnNames[i]);
+                if (column == null || !dataColumns.contains(column) || column.getConverterClass() != converterClasses[i]) {
+                    Logger.getLogger(EntityMetadata.class.getName()).log(Level.FINE, "Generated mapper {0} does not match column {1}, using reflection", new Object[]{mapperName, columnNames[i]});
+                    return null;
+                }
+            }
+            return generated;
+        } catch (ClassNotFoundException ex) {
+            return null;
+        } catch (ReflectiveOperationException ex) {
+            Logger.getLogger(EntityMetadata.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * @return table name from DbTable annotation or the lower case class name
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    public boolean isNoID() {
+        return noID;
+    }
+
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    /**
+     * @return every column of the table, in field declaration order
+     */
+    public List<ColumnMapping> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return columns read and written by CRUD operations, which excludes the
+     * primary key of DbNoID entities
+     */
+    public List<ColumnMapping> getDataColumns() {
+        return dataColumns;
+    }
+
+    /**
+     * @return every column of the table, ordered by field name for the create
+     * query
+     */
+    public List<ColumnMapping> getCreateColumns() {
+        return createColumns;
+    }
+
+    /**
+     * @return compile time generated mapper, or null when rows are mapped by
+     * reflection
+     */
+    public EntityMapper<?> getMapper() {
+        return mapper;
+    }
+
+    public ColumnMapping getColumnByFieldName(String fieldName) {
+        return byFieldName.get(fieldName);
+    }
+
+    public ColumnMapping getColumnByColumnName(String columnName) {
+        return byColumnName.get(columnName);
+    }
+
+}
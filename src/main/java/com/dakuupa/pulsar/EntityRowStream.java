@@ -0,0 +1,154 @@
+package com.dakuupa.pulsar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tab separated rows of entities, encoded one row at a time as the stream is
+ * read, in the default format of LOAD DATA: tab between fields, newline after
+ * each row, backslash escapes and \N for NULL. Values are the ones the column
+ * converters write, so dates are epoch milliseconds and booleans 1 or 0.
+ * Partial entities, read without some of their columns, are skipped.
+ *
+ * @author etwilliams
+ */
+final class EntityRowStream extends InputStream {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final List<ColumnMapping> columns;
+    private final Iterator<? extends Entity> entities;
+    private final int maxRows;
+    private final StringBuilder line = new StringBuilder();
+    private byte[] buffer = new byte[0];
+    private int position;
+    private int rows;
+    private int skipped;
+
+    /**
+     * @param columns columns to write, in the order named by the load query
+     * @param entities entities to take rows from
+     * @param maxRows rows to take before the stream ends
+     */
+    EntityRowStream(List<ColumnMapping> columns, Iterator<? extends Entity> entities, int maxRows) {
+        this.columns = columns;
+        this.entities = entities;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * @return rows encoded so far
+     */
+    int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return partial entities skipped so far
+     */
+    int getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= buffer.length && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int read = 0;
+        while (read < len) {
+            if (position >= buffer.length && !fill()) {
+                break;
+            }
+            int count = Math.min(len - read, buffer.length - position);
+            System.arraycopy(buffer, position, b, off + read, count);
+            position += count;
+            read += count;
+        }
+        return read > 0 ? read : -1;
+    }
+
+    /**
+     * Encode the next entity into the buffer
+     *
+     * @return false when there are no more rows for this stream
+     */
+    private boolean fill() throws IOException {
+        while (rows < maxRows && entities.hasNext()) {
+            Entity entity = entities.next();
+            if (entity == null) {
+                continue;
+            }
+            if (entity.isPartial()) {
+                skipped++;
+                continue;
+            }
+
+            line.setLength(0);
+            try {
+                for (int i = 0; i < columns.size(); i++) {
+                    if (i > 0) {
+                        line.append('\t');
+                    }
+                    append(columns.get(i).getDatabaseValue(entity));
+                }
+            } catch (RuntimeException ex) {
+                throw new IOException("Failed to encode row " + rows, ex);
+            }
+            line.append('\n');
+
+            buffer = line.toString().getBytes(UTF8);
+            position = 0;
+            rows++;
+            return true;
+        }
+        return false;
+    }
+
+    private void append(Object value) {
+        if (value == null) {
+            line.append("\\N");
+        } else if (value instanceof Boolean) {
+            line.append((Boolean) value ? '1' : '0');
+        } else if (value instanceof Number) {
+            line.append(value);
+        } else {
+            String text = value.toString();
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '\\':
+                        line.append("\\\\");
+                        break;
+                    case '\t':
+                        line.append("\\t");
+                        break;
+                    case '\n':
+                        line.append("\\n");
+                        break;
+                    case '\r':
+                        line.append("\\r");
+                        break;
+                    case '\0':
+                        line.append("\\0");
+                        break;
+                    default:
+                        line.append(c);
+                        break;
+                }
+            }
+        }
+    }
+
+}
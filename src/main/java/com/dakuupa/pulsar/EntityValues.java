@@ -0,0 +1,77 @@
+package com.dakuupa.pulsar;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Detached copy of the mapped field values of an entity, used by caches so
+ * that no entity instance is shared between callers. Date values are cloned,
+ * every other supported type is immutable.
+ *
+ * @author etwilliams
+ * @param <T> entity type
+ */
+final class EntityValues<T extends Entity> {
+
+    private final Class<T> entityClass;
+    private final List<ColumnMapping> columns = new ArrayList<>();
+
+    EntityValues(Class<T> entityClass, EntityMetadata metadata) {
+        this.entityClass = entityClass;
+        for (ColumnMapping column : metadata.getDataColumns()) {
+            if (column.getConverter() != null) {
+                columns.add(column);
+            }
+        }
+    }
+
+    /**
+     * @param entity entity to copy
+     * @return field values, followed by the unloaded columns of a partial
+     * entity
+     */
+    Object[] capture(T entity) {
+        Object[] values = new Object[columns.size() + 1];
+        for (int i = 0; i < columns.size(); i++) {
+            values[i] = copy(columns.get(i).getAccessor().get(entity));
+        }
+        if (entity.isPartial()) {
+            values[columns.size()] = entity.getUnloaded().clone();
+        }
+        return values;
+    }
+
+    /**
+     * @param values values from {@link #capture(Entity)}
+     * @return new persisted instance holding a copy of the values, without a
+     * change snapshot
+     */
+    T restore(Object[] values) {
+        T entity;
+        try {
+            entity = entityClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Failed to create " + entityClass.getName(), ex);
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            columns.get(i).getAccessor().set(entity, copy(values[i]));
+        }
+        // shared like the unloaded columns of rows read with one plan
+        BitSet unloaded = (BitSet) values[columns.size()];
+        if (unloaded != null) {
+            entity.setUnloaded(unloaded);
+        }
+        entity.setPersisted(true);
+        return entity;
+    }
+
+    private static Object copy(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).clone();
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,222 @@
+package com.dakuupa.pulsar;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Direct getter and setter for one entity field, backed by method handles
+ * created once per field instead of Field.get/Field.set on every call.
+ * Fields of a primitive or wrapper type also get exact primitive handles, so
+ * values can be moved without boxing.
+ *
+ * @author etwilliams
+ */
+public final class FieldAccessor {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Field field;
+    private final Class<?> primitiveType;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+    private final MethodHandle primitiveGetter;
+    private final MethodHandle primitiveSetter;
+
+    FieldAccessor(Field field) throws IllegalAccessException {
+        this.field = field;
+        field.setAccessible(true);
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        boolean isStatic = Modifier.isStatic(field.getModifiers());
+        Class<?> type = field.getType();
+        this.primitiveType = primitiveTypeOf(type);
+
+        MethodHandle get = lookup.unreflectGetter(field);
+        if (isStatic) {
+            get = MethodHandles.dropArguments(get, 0, Object.class);
+        }
+        this.getter = get.asType(GETTER_TYPE);
+
+        // wrapper fields are read through the generic getter so null stays null
+        if (type.isPrimitive()) {
+            this.primitiveGetter = get.asType(MethodType.methodType(type, Object.class));
+        } else {
+            this.primitiveGetter = null;
+        }
+
+        if (isStatic && Modifier.isFinal(field.getModifiers())) {
+            this.setter = null;
+            this.primitiveSetter = null;
+        } else {
+            MethodHandle set = lookup.unreflectSetter(field);
+            if (isStatic) {
+                set = MethodHandles.dropArguments(set, 0, Object.class);
+            }
+            this.setter = set.asType(SETTER_TYPE);
+            if (primitiveType != null) {
+                this.primitiveSetter = set.asType(MethodType.methodType(void.class, Object.class, primitiveType));
+            } else {
+                this.primitiveSetter = null;
+            }
+        }
+    }
+
+    private static Class<?> primitiveTypeOf(Class<?> type) {
+        if (type.isPrimitive()) {
+            return type;
+        } else if (type == Integer.class) {
+            return int.class;
+        } else if (type == Long.class) {
+            return long.class;
+        } else if (type == Double.class) {
+            return double.class;
+        } else if (type == Float.class) {
+            return float.class;
+        } else if (type == Boolean.class) {
+            return boolean.class;
+        }
+        return null;
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * @return primitive type of the field, unwrapped for wrapper fields, or
+     * null for any other type
+     */
+    public Class<?> getPrimitiveType() {
+        return primitiveType;
+    }
+
+    /**
+     * @param entity object to read from
+     * @return field value, boxed for primitive fields
+     */
+    public Object get(Object entity) {
+        try {
+            return (Object) getter.invokeExact(entity);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * @param entity object to write to
+     * @param value new value, unboxed for primitive fields
+     */
+    public void set(Object entity, Object value) {
+        checkWritable();
+        try {
+            setter.invokeExact(entity, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public int getInt(Object entity) {
+        try {
+            return (int) primitiveGetter.invokeExact(entity);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public void setInt(Object entity, int value) {
+        checkWritable();
+        try {
+            primitiveSetter.invokeExact(entity, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public long getLong(Object entity) {
+        try {
+            return (long) primitiveGetter.invokeExact(entity);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public void setLong(Object entity, long value) {
+        checkWritable();
+        try {
+            primitiveSetter.invokeExact(entity, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public double getDouble(Object entity) {
+        try {
+            return (double) primitiveGetter.invokeExact(entity);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public void setDouble(Object entity, double value) {
+        checkWritable();
+        try {
+            primitiveSetter.invokeExact(entity, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public float getFloat(Object entity) {
+        try {
+            return (float) primitiveGetter.invokeExact(entity);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public void setFloat(Object entity, float value) {
+        checkWritable();
+        try {
+            primitiveSetter.invokeExact(entity, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public boolean getBoolean(Object entity) {
+        try {
+            return (boolean) primitiveGetter.invokeExact(entity);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    public void setBoolean(Object entity, boolean value) {
+        checkWritable();
+        try {
+            primitiveSetter.invokeExact(entity, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private void checkWritable() {
+        if (setter == null) {
+            throw new IllegalStateException("Field " + field.getName() + " is read only");
+        }
+    }
+
+    private RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IllegalStateException("Failed to access field " + field.getName(), t);
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.dakuupa.pulsar;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * First level cache of one manager: at most one entity instance per id, so
+ * repeated reads of a row return the same object without a round trip. It is
+ * unbounded and meant to be cleared at the end of a request or session.
+ *
+ * @author etwilliams
+ * @param <T> entity type
+ */
+public final class IdentityMap<T extends Entity> {
+
+    private final Map<Long, T> entities = new HashMap<>();
+    private long hits;
+    private long misses;
+
+    /**
+     * @param id entity id
+     * @return cached instance or null, counted as a hit or a miss
+     */
+    synchronized T get(Long id) {
+        T entity = entities.get(id);
+        if (entity != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return entity;
+    }
+
+    /**
+     * @param id entity id
+     * @return cached instance or null, counted only as a hit
+     */
+    synchronized T find(Long id) {
+        T entity = entities.get(id);
+        if (entity != null) {
+            hits++;
+        }
+        return entity;
+    }
+
+    synchronized void put(T entity) {
+        if (entity.getId() != null) {
+            entities.put(entity.getId(), entity);
+        }
+    }
+
+    synchronized void remove(Long id) {
+        entities.remove(id);
+    }
+
+    public synchronized boolean contains(long id) {
+        return entities.containsKey(id);
+    }
+
+    /**
+     * Drop every cached instance, the counters are kept
+     */
+    public synchronized void clear() {
+        entities.clear();
+    }
+
+    public synchronized int size() {
+        return entities.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return hits over lookups, 0 before the first lookup
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "IdentityMap{" + "size=" + entities.size() + ", hits=" + hits + ", misses=" + misses + '}';
+    }
+
+}
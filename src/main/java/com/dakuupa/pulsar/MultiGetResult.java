@@ -0,0 +1,50 @@
+package com.dakuupa.pulsar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records found by a multi-get, keyed and ordered by the requested keys
+ *
+ * @author etwilliams
+ * @param <K> key type
+ * @param <T> entity type
+ */
+public final class MultiGetResult<K, T extends Entity> {
+
+    private final Map<K, T> found;
+    private final List<K> missing;
+
+    public MultiGetResult(Map<K, T> found, List<K> missing) {
+        this.found = Collections.unmodifiableMap(found);
+        this.missing = Collections.unmodifiableList(missing);
+    }
+
+    /**
+     * @return records by key, in the order the keys were requested
+     */
+    public Map<K, T> getMap() {
+        return found;
+    }
+
+    /**
+     * @return records in the order their keys were requested
+     */
+    public List<T> getEntities() {
+        return new ArrayList<>(found.values());
+    }
+
+    /**
+     * @return requested keys without a record
+     */
+    public List<K> getMissing() {
+        return missing;
+    }
+
+    public boolean hasMissing() {
+        return !missing.isEmpty();
+    }
+
+}
@@ -0,0 +1,751 @@
+package com.dakuupa.pulsar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of rows by id held outside the Java heap, for lookup tables too large
+ * to keep as objects. Rows are encoded from the column metadata into direct or
+ * memory mapped buffer segments and decoded into a new instance on every hit.
+ * The id index is an open addressing hash over two primitive arrays, so the
+ * heap holds no object per row. Rows are appended; replaced and removed rows
+ * leave garbage that is compacted in place once the segments are full.
+ *
+ * @author etwilliams
+ * @param <T> entity type
+ */
+public final class OffHeapEntityCache<T extends Entity> implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(OffHeapEntityCache.class.getName());
+
+    public static final int DEFAULT_SEGMENT_SIZE = 32 << 20;
+    // payload length and id
+    private static final int HEADER = 12;
+
+    private static final byte INT = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte FLOAT = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte STRING = 5;
+    private static final byte DATE = 6;
+
+    private final Class<T> entityClass;
+    private final ColumnMapping[] columns;
+    private final byte[] kinds;
+    private final int nullBytes;
+
+    private final ByteBuffer[] segments;
+    private final int[] capacities;
+    // end of the written records of each segment
+    private final int[] ends;
+    private final long maxBytes;
+    private int current;
+    private final FileChannel channel;
+    private final LongIndex index = new LongIndex();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private ByteBuffer out = ByteBuffer.allocate(256);
+    private boolean closed;
+
+    // bumped by every write, loads that raced with one are not cached
+    private volatile long writes;
+    private long liveBytes;
+    private long garbageBytes;
+    private long compactions;
+    private long rejected;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param entityClass entity class
+     * @param metadata column model of the class
+     * @param maxBytes maximum size of the segments
+     * @param mapFile file to map the segments to, or null for direct buffers
+     * @throws IOException if the file cannot be opened
+     */
+    OffHeapEntityCache(Class<T> entityClass, EntityMetadata metadata, long maxBytes, File mapFile) throws IOException {
+        if (maxBytes < HEADER) {
+            throw new IllegalArgumentException("maxBytes is too small");
+        }
+        if (metadata.isNoID()) {
+            throw new IllegalArgumentException("Off-heap cache needs an id for " + entityClass.getName());
+        }
+        this.entityClass = entityClass;
+
+        List<ColumnMapping> mapped = new ArrayList<>();
+        for (ColumnMapping column : metadata.getDataColumns()) {
+            if (column.getConverter() != null) {
+                mapped.add(column);
+            }
+        }
+        this.columns = mapped.toArray(new ColumnMapping[mapped.size()]);
+        this.kinds = new byte[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            kinds[i] = kindOf(columns[i]);
+        }
+        this.nullBytes = (columns.length + 7) / 8;
+        this.maxBytes = maxBytes;
+
+        int count = (int) ((maxBytes + DEFAULT_SEGMENT_SIZE - 1) / DEFAULT_SEGMENT_SIZE);
+        this.segments = new ByteBuffer[count];
+        this.capacities = new int[count];
+        this.ends = new int[count];
+        for (int i = 0; i < count; i++) {
+            capacities[i] = (int) Math.min(DEFAULT_SEGMENT_SIZE, maxBytes - (long) i * DEFAULT_SEGMENT_SIZE);
+        }
+        this.channel = mapFile != null ? new RandomAccessFile(mapFile, "rw").getChannel() : null;
+    }
+
+    private static byte kindOf(ColumnMapping column) {
+        Class<?> primitive = column.getAccessor().getPrimitiveType();
+        if (primitive == int.class) {
+            return INT;
+        } else if (primitive == long.class) {
+            return LONG;
+        } else if (primitive == double.class) {
+            return DOUBLE;
+        } else if (primitive == float.class) {
+            return FLOAT;
+        } else if (primitive == boolean.class) {
+            return BOOLEAN;
+        } else if (column.getType() == String.class) {
+            return STRING;
+        } else if (column.getType() == Date.class) {
+            return DATE;
+        }
+        throw new IllegalArgumentException("Off-heap cache cannot encode " + column.getType().getName() + " column " + column.getColumnName());
+    }
+
+    /**
+     * @param id entity id
+     * @return new instance decoded from the cached row, or null on a miss
+     */
+    T get(long id) {
+        lock.readLock().lock();
+        try {
+            long address = closed ? -1 : index.get(id);
+            if (address < 0) {
+                misses.incrementAndGet();
+                return null;
+            }
+            ByteBuffer in = segments[(int) (address >>> 32)].duplicate();
+            in.position((int) address + HEADER);
+            T entity = decode(in);
+            hits.incrementAndGet();
+            return entity;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return stamp to pass to {@link #load(Entity, long)}, taken before
+     * reading the rows
+     */
+    long stamp() {
+        return writes;
+    }
+
+    /**
+     * Cache a row read from the database, unless a write happened since the
+     * stamp was taken
+     *
+     * @param entity complete entity read
+     * @param stamp stamp taken before the read
+     * @return true if the row was cached
+     */
+    boolean load(T entity, long stamp) {
+        if (entity.getId() == null || entity.isPartial()) {
+            return false;
+        }
+        lock.writeLock().lock();
+        try {
+            return writes == stamp && store(entity);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void loaded(Collection<? extends T> entities, long stamp) {
+        for (T entity : entities) {
+            load(entity, stamp);
+        }
+    }
+
+    /**
+     * Replace the cached row with the values just written
+     */
+    void put(T entity) {
+        if (entity.getId() == null) {
+            return;
+        }
+        if (entity.isPartial()) {
+            invalidate(entity.getId());
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            writes++;
+            store(entity);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void invalidate(long id) {
+        lock.writeLock().lock();
+        try {
+            writes++;
+            discard(index.remove(id));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop every cached row, the counters are kept
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            writes++;
+            index.clear();
+            Arrays.fill(ends, 0);
+            current = 0;
+            liveBytes = 0;
+            garbageBytes = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop every row and release the segments
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            clear();
+            closed = true;
+            Arrays.fill(segments, null);
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean store(T entity) {
+        if (closed) {
+            return false;
+        }
+        long id = entity.getId();
+        ByteBuffer payload = encode(entity);
+        int size = HEADER + payload.remaining();
+
+        long address = allocate(size);
+        if (address < 0) {
+            // the cached row would be stale
+            discard(index.remove(id));
+            rejected++;
+            return false;
+        }
+
+        ByteBuffer segment = segments[(int) (address >>> 32)];
+        int offset = (int) address;
+        segment.putInt(offset, payload.remaining());
+        segment.putLong(offset + 4, id);
+        ByteBuffer target = segment.duplicate();
+        target.position(offset + HEADER);
+        target.put(payload);
+
+        discard(index.put(id, address));
+        liveBytes += size;
+        return true;
+    }
+
+    private void discard(long address) {
+        if (address >= 0) {
+            int size = recordSize(address);
+            liveBytes -= size;
+            garbageBytes += size;
+        }
+    }
+
+    private int recordSize(long address) {
+        return HEADER + segments[(int) (address >>> 32)].getInt((int) address);
+    }
+
+    /**
+     * @return address of size free bytes, or -1 if they do not fit. The
+     * segments are compacted once a quarter of them is garbage, so a full
+     * cache does not copy every row on each write.
+     */
+    private long allocate(int size) {
+        if (size > capacities[0]) {
+            return -1;
+        }
+        long address = tryAllocate(size);
+        if (address < 0 && garbageBytes >= size && garbageBytes * 4 >= maxBytes) {
+            compact();
+            address = tryAllocate(size);
+        }
+        return address;
+    }
+
+    private long tryAllocate(int size) {
+        while (true) {
+            if (ends[current] + size <= capacities[current] && segment(current) != null) {
+                long address = ((long) current << 32) | ends[current];
+                ends[current] += size;
+                return address;
+            }
+            if (current + 1 >= segments.length) {
+                return -1;
+            }
+            current++;
+        }
+    }
+
+    private ByteBuffer segment(int i) {
+        if (segments[i] == null) {
+            try {
+                if (channel != null) {
+                    segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * DEFAULT_SEGMENT_SIZE, capacities[i]);
+                } else {
+                    segments[i] = ByteBuffer.allocateDirect(capacities[i]);
+                }
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, null, ex);
+            }
+        }
+        return segments[i];
+    }
+
+    /**
+     * Slide every live row down over the garbage, in address order so a row
+     * is only ever copied to a lower address
+     */
+    private void compact() {
+        byte[] record = new byte[0];
+        int target = 0;
+        int targetEnd = 0;
+        for (int s = 0; s <= current; s++) {
+            ByteBuffer segment = segments[s];
+            int offset = 0;
+            while (offset < ends[s]) {
+                long address = ((long) s << 32) | offset;
+                int size = HEADER + segment.getInt(offset);
+                long id = segment.getLong(offset + 4);
+                if (index.get(id) == address) {
+                    if (targetEnd + size > capacities[target]) {
+                        ends[target] = targetEnd;
+                        target++;
+                        targetEnd = 0;
+                    }
+                    if (target != s || targetEnd != offset) {
+                        if (record.length < size) {
+                            record = new byte[size];
+                        }
+                        ByteBuffer source = segment.duplicate();
+                        source.position(offset);
+                        source.get(record, 0, size);
+                        ByteBuffer destination = segments[target].duplicate();
+                        destination.position(targetEnd);
+                        destination.put(record, 0, size);
+                        index.put(id, ((long) target << 32) | targetEnd);
+                    }
+                    targetEnd += size;
+                }
+                offset += size;
+            }
+        }
+        ends[target] = targetEnd;
+        for (int s = target + 1; s <= current; s++) {
+            ends[s] = 0;
+        }
+        current = target;
+        garbageBytes = 0;
+        compactions++;
+    }
+
+    private ByteBuffer encode(T entity) {
+        out.clear();
+        ensure(nullBytes);
+        int nulls = out.position();
+        for (int i = 0; i < nullBytes; i++) {
+            out.put((byte) 0);
+        }
+
+        for (int i = 0; i < columns.length; i++) {
+            FieldAccessor accessor = columns[i].getAccessor();
+            if (columns[i].getType().isPrimitive()) {
+                ensure(8);
+                switch (kinds[i]) {
+                    case INT:
+                        out.putInt(accessor.getInt(entity));
+                        break;
+                    case LONG:
+                        out.putLong(accessor.getLong(entity));
+                        break;
+                    case DOUBLE:
+                        out.putDouble(accessor.getDouble(entity));
+                        break;
+                    case FLOAT:
+                        out.putFloat(accessor.getFloat(entity));
+                        break;
+                    default:
+                        out.put(accessor.getBoolean(entity) ? (byte) 1 : (byte) 0);
+                        break;
+                }
+                continue;
+            }
+
+            Object value = accessor.get(entity);
+            if (value == null) {
+                out.put(nulls + i / 8, (byte) (out.get(nulls + i / 8) | (1 << (i % 8))));
+                continue;
+            }
+            switch (kinds[i]) {
+                case INT:
+                    ensure(4).putInt((Integer) value);
+                    break;
+                case LONG:
+                    ensure(8).putLong((Long) value);
+                    break;
+                case DOUBLE:
+                    ensure(8).putDouble((Double) value);
+                    break;
+                case FLOAT:
+                    ensure(4).putFloat((Float) value);
+                    break;
+                case BOOLEAN:
+                    ensure(1).put((Boolean) value ? (byte) 1 : (byte) 0);
+                    break;
+                case DATE:
+                    ensure(8).putLong(((Date) value).getTime());
+                    break;
+                default:
+                    byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                    putVarInt(bytes.length);
+                    ensure(bytes.length).put(bytes);
+                    break;
+            }
+        }
+        out.flip();
+        return out;
+    }
+
+    private T decode(ByteBuffer in) {
+        T entity;
+        try {
+            entity = entityClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Failed to create " + entityClass.getName(), ex);
+        }
+
+        int nulls = in.position();
+        in.position(nulls + nullBytes);
+        for (int i = 0; i < columns.length; i++) {
+            FieldAccessor accessor = columns[i].getAccessor();
+            if ((in.get(nulls + i / 8) & (1 << (i % 8))) != 0) {
+                accessor.set(entity, null);
+                continue;
+            }
+            switch (kinds[i]) {
+                case INT:
+                    accessor.setInt(entity, in.getInt());
+                    break;
+                case LONG:
+                    accessor.setLong(entity, in.getLong());
+                    break;
+                case DOUBLE:
+                    accessor.setDouble(entity, in.getDouble());
+                    break;
+                case FLOAT:
+                    accessor.setFloat(entity, in.getFloat());
+                    break;
+                case BOOLEAN:
+                    accessor.setBoolean(entity, in.get() != 0);
+                    break;
+                case DATE:
+                    accessor.set(entity, new Date(in.getLong()));
+                    break;
+                default:
+                    byte[] bytes = new byte[getVarInt(in)];
+                    in.get(bytes);
+                    accessor.set(entity, new String(bytes, StandardCharsets.UTF_8));
+                    break;
+            }
+        }
+        entity.setPersisted(true);
+        return entity;
+    }
+
+    /**
+     * @return the encode buffer, grown to hold more bytes
+     */
+    private ByteBuffer ensure(int more) {
+        if (out.remaining() < more) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + more));
+            out.flip();
+            grown.put(out);
+            out = grown;
+        }
+        return out;
+    }
+
+    private void putVarInt(int value) {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static int getVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @return number of cached rows
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return bytes held by cached rows
+     */
+    public long getLiveBytes() {
+        lock.readLock().lock();
+        try {
+            return liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return bytes of replaced and removed rows not yet compacted
+     */
+    public long getGarbageBytes() {
+        lock.readLock().lock();
+        try {
+            return garbageBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return bytes of the segments allocated so far
+     */
+    public long getAllocatedBytes() {
+        lock.readLock().lock();
+        try {
+            long allocated = 0;
+            for (int i = 0; i < segments.length; i++) {
+                if (segments[i] != null) {
+                    allocated += capacities[i];
+                }
+            }
+            return allocated;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return hits over lookups, 0 before the first lookup
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long lookups = h + misses.get();
+        return lookups == 0 ? 0 : (double) h / lookups;
+    }
+
+    public long getCompactions() {
+        lock.readLock().lock();
+        try {
+            return compactions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return rows not cached because the segments were full
+     */
+    public long getRejected() {
+        lock.readLock().lock();
+        try {
+            return rejected;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapEntityCache{" + "size=" + size() + ", liveBytes=" + getLiveBytes() + ", garbageBytes=" + getGarbageBytes()
+                + ", hits=" + hits + ", misses=" + misses + ", compactions=" + getCompactions() + ", rejected=" + getRejected() + '}';
+    }
+
+    /**
+     * Open addressing hash from id to row address with linear probing, held
+     * in two primitive arrays
+     */
+    private static final class LongIndex {
+
+        private static final long FREE = Long.MIN_VALUE;
+
+        private long[] keys;
+        private long[] values;
+        private int size;
+
+        LongIndex() {
+            allocate(16);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity];
+            Arrays.fill(keys, FREE);
+        }
+
+        private int slot(long key) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            return (int) key & (keys.length - 1);
+        }
+
+        /**
+         * @return address of the key, or -1
+         */
+        long get(long key) {
+            for (int i = slot(key);; i = (i + 1) & (keys.length - 1)) {
+                if (keys[i] == key) {
+                    return values[i];
+                } else if (keys[i] == FREE) {
+                    return -1;
+                }
+            }
+        }
+
+        /**
+         * @return previous address of the key, or -1
+         */
+        long put(long key, long value) {
+            if (key == FREE) {
+                throw new IllegalArgumentException("Id " + key + " cannot be cached off-heap");
+            }
+            int i = slot(key);
+            while (keys[i] != FREE) {
+                if (keys[i] == key) {
+                    long previous = values[i];
+                    values[i] = value;
+                    return previous;
+                }
+                i = (i + 1) & (keys.length - 1);
+            }
+            keys[i] = key;
+            values[i] = value;
+            // keep the table at most 60% full
+            if (++size * 5 > keys.length * 3) {
+                rehash();
+            }
+            return -1;
+        }
+
+        /**
+         * @return removed address of the key, or -1
+         */
+        long remove(long key) {
+            int mask = keys.length - 1;
+            int hole = slot(key);
+            while (keys[hole] != key) {
+                if (keys[hole] == FREE) {
+                    return -1;
+                }
+                hole = (hole + 1) & mask;
+            }
+            long removed = values[hole];
+
+            // shift back later entries of the probe run that would no longer be found
+            for (int i = (hole + 1) & mask; keys[i] != FREE; i = (i + 1) & mask) {
+                int home = slot(keys[i]);
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    values[hole] = values[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = FREE;
+            size--;
+            return removed;
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            allocate(oldKeys.length * 2);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        void clear() {
+            Arrays.fill(keys, FREE);
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+    }
+
+}
@@ -0,0 +1,36 @@
+package com.dakuupa.pulsar;
+
+import java.util.List;
+
+/**
+ * One page of a keyset paged query
+ *
+ * @author etwilliams
+ * @param <T> entity type
+ */
+public final class Page<T extends Entity> {
+
+    private final List<T> items;
+    private final PageToken nextToken;
+
+    public Page(List<T> items, PageToken nextToken) {
+        this.items = items;
+        this.nextToken = nextToken;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return token for the following page, or null when this is the last
+     */
+    public PageToken getNextToken() {
+        return nextToken;
+    }
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.dakuupa.pulsar;
+
+/**
+ * Position in a keyset paged query: the ordering column, its direction and
+ * the value of the last row read. The column must be unique so every page
+ * starts with an index seek past that value, however deep it is. Tokens can
+ * be passed between requests as strings with {@link #encode()}.
+ *
+ * @author etwilliams
+ */
+public final class PageToken {
+
+    private final String column;
+    private final boolean descending;
+    private final Object lastValue;
+
+    private PageToken(String column, boolean descending, Object lastValue) {
+        if (column == null || column.isEmpty()) {
+            throw new IllegalArgumentException("Page column is required");
+        }
+        this.column = column;
+        this.descending = descending;
+        this.lastValue = lastValue;
+    }
+
+    /**
+     * @param column unique column to order by
+     * @return token for the first page in ascending order
+     */
+    public static PageToken first(String column) {
+        return new PageToken(column, false, null);
+    }
+
+    /**
+     * @param column unique column to order by
+     * @param descending true to page from the highest value down
+     * @return token for the first page
+     */
+    public static PageToken first(String column, boolean descending) {
+        return new PageToken(column, descending, null);
+    }
+
+    /**
+     * @param lastValue database value of the ordering column in the last row
+     * read
+     * @return token for the page after that row
+     */
+    public PageToken after(Object lastValue) {
+        return new PageToken(column, descending, lastValue);
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * @return value the next page starts after, null for the first page
+     */
+    public Object getLastValue() {
+        return lastValue;
+    }
+
+    public boolean isFirst() {
+        return lastValue == null;
+    }
+
+    /**
+     * @return token as column,direction,type,value
+     */
+    public String encode() {
+        StringBuilder builder = new StringBuilder(column).append(',').append(descending ? 'd' : 'a').append(',');
+        if (lastValue == null) {
+            builder.append('N').append(',');
+        } else if (lastValue instanceof Boolean) {
+            builder.append('L').append(',').append((Boolean) lastValue ? 1 : 0);
+        } else if (lastValue instanceof Integer || lastValue instanceof Long) {
+            builder.append('L').append(',').append(lastValue);
+        } else if (lastValue instanceof Number) {
+            builder.append('D').append(',').append(((Number) lastValue).doubleValue());
+        } else {
+            builder.append('S').append(',').append(lastValue);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param token string from {@link #encode()}
+     * @return decoded token
+     */
+    public static PageToken decode(String token) {
+        String[] parts = token != null ? token.split(",", 4) : new String[0];
+        if (parts.length != 4 || parts[1].length() != 1 || parts[2].length() != 1) {
+            throw new IllegalArgumentException("Malformed page token " + token);
+        }
+
+        boolean descending = parts[1].charAt(0) == 'd';
+        try {
+            switch (parts[2].charAt(0)) {
+                case 'N':
+                    return new PageToken(parts[0], descending, null);
+                case 'L':
+                    return new PageToken(parts[0], descending, Long.parseLong(parts[3]));
+                case 'D':
+                    return new PageToken(parts[0], descending, Double.parseDouble(parts[3]));
+                case 'S':
+                    return new PageToken(parts[0], descending, parts[3]);
+                default:
+                    throw new IllegalArgumentException("Malformed page token " + token);
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Malformed page token " + token, ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.dakuupa.pulsar;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Full table scan split into id ranges, each read on its own connection and
+ * thread. Ranges are cut evenly between MIN(id) and MAX(id), so tables with
+ * large gaps in their ids get uneven partitions.
+ *
+ * @author etwilliams
+ * @param <T> entity type
+ */
+final class ParallelScanner<T extends Entity> {
+
+    private static final Logger LOGGER = Logger.getLogger(ParallelScanner.class.getName());
+
+    private final AbstractDatabaseManager<T> manager;
+    private final ConnectionSource source;
+    private final int partitions;
+
+    ParallelScanner(AbstractDatabaseManager<T> manager, ConnectionSource source, int partitions) {
+        if (manager.getMetadata().isNoID()) {
+            throw new IllegalStateException("Parallel scan needs an id column on " + manager.getTableName());
+        }
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Partitions must be at least 1");
+        }
+        this.manager = manager;
+        this.source = source;
+        this.partitions = partitions;
+    }
+
+    /**
+     * @return rows scanned
+     */
+    long scan(ExecutorService executor, final PartitionCallback<T> callback) throws SQLException {
+
+        long[] bounds = getBounds();
+        if (bounds == null) {
+            return 0;
+        }
+
+        List<Future<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < bounds.length - 1; i++) {
+            final int partition = i;
+            final long from = bounds[i];
+            // ranges are inclusive, so each one ends just before the next starts
+            final long to = i == bounds.length - 2 ? bounds[i + 1] : bounds[i + 1] - 1;
+            futures.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return scanPartition(partition, from, to, callback);
+                }
+            }));
+        }
+
+        long rows = 0;
+        try {
+            for (Future<Long> future : futures) {
+                rows += future.get();
+            }
+        } catch (InterruptedException ex) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted during parallel scan of " + manager.getTableName(), ex);
+        } catch (ExecutionException ex) {
+            cancel(futures);
+            Throwable cause = ex.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SQLException("Parallel scan of " + manager.getTableName() + " failed", cause);
+        }
+        return rows;
+    }
+
+    /**
+     * @return partition start ids followed by MAX(id), or null for an empty
+     * table
+     */
+    private long[] getBounds() throws SQLException {
+        long min;
+        long max;
+        try (Connection connection = source.getConnection();
+                Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT MIN(id), MAX(id) FROM " + manager.getTableName())) {
+            if (!rs.next()) {
+                return null;
+            }
+            min = rs.getLong(1);
+            if (rs.wasNull()) {
+                return null;
+            }
+            max = rs.getLong(2);
+        }
+
+        int count = (int) Math.max(1, Math.min(partitions, max - min + 1));
+        long[] bounds = new long[count + 1];
+        long span = max - min + 1;
+        for (int i = 0; i < count; i++) {
+            bounds[i] = min + span / count * i + Math.min(i, span % count);
+        }
+        bounds[count] = max;
+        return bounds;
+    }
+
+    private long scanPartition(int partition, long from, long to, PartitionCallback<T> callback) throws SQLException {
+        String query = "SELECT * FROM " + manager.getTableName() + " WHERE id BETWEEN ? AND ? ORDER BY id";
+        LOGGER.log(Level.FINE, "Scanning partition {0} of {1}, ids {2} to {3}", new Object[]{partition, manager.getTableName(), from, to});
+
+        long rows = 0;
+        try (Connection connection = source.getConnection();
+                PreparedStatement statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(manager.getFetchSize());
+            statement.setLong(1, from);
+            statement.setLong(2, to);
+            try (ResultSet rs = statement.executeQuery()) {
+                RowPlan plan = RowPlan.forResultSet(rs, manager.getMetadata());
+                while (rs.next()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new SQLException("Partition " + partition + " of " + manager.getTableName() + " cancelled");
+                    }
+                    callback.onRow(partition, manager.mapRow(rs, plan));
+                    rows++;
+                }
+            }
+        } finally {
+            // pooled workers outlive the scan, drop what callbacks prepared
+            manager.releaseStatements();
+        }
+        return rows;
+    }
+
+    private void cancel(List<Future<Long>> futures) {
+        for (Future<Long> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.dakuupa.pulsar;
+
+/**
+ * Receives the rows of a parallel scan. Partitions run on separate threads,
+ * so the callback is called concurrently and must be thread safe, while rows
+ * of one partition arrive in id order on one thread.
+ *
+ * @author etwilliams
+ * @param <T> entity type
+ */
+public interface PartitionCallback<T extends Entity> {
+
+    /**
+     * @param partition index of the partition, from 0
+     * @param entity row of the partition
+     */
+    void onRow(int partition, T entity);
+
+}
@@ -0,0 +1,44 @@
+package com.dakuupa.pulsar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Subset of an entity's columns to select instead of SELECT *. Entities read
+ * through a projection are partial: the columns left out keep their default
+ * values, are reported by {@link AbstractDatabaseManager#isLoaded} and are
+ * not written by update unless they are set.
+ *
+ * @author etwilliams
+ */
+public final class Projection {
+
+    private final List<String> columns;
+
+    private Projection(List<String> columns) {
+        this.columns = Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * @param columns column names to select, the id is always selected
+     * @return projection of the columns
+     */
+    public static Projection of(String... columns) {
+        if (columns == null || columns.length == 0) {
+            throw new IllegalArgumentException("Projection needs at least one column");
+        }
+        return new Projection(new ArrayList<>(Arrays.asList(columns)));
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    @Override
+    public String toString() {
+        return "Projection" + columns;
+    }
+
+}
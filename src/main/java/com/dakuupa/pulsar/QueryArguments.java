@@ -12,6 +12,7 @@ import java.util.Map;
 public class QueryArguments {
 
     private final HashMap<String, Object> args = new HashMap<>();
+    private long cacheTtl = QueryCache.DEFAULT_TTL;
 
     public void add(String key, Object value) {
 
@@ -31,4 +32,17 @@ public class QueryArguments {
         return args;
     }
 
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    /**
+     * Override the query cache ttl for this query
+     *
+     * @param cacheTtl milliseconds to keep the result, 0 to bypass the cache
+     */
+    public void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
 }
@@ -0,0 +1,253 @@
+package com.dakuupa.pulsar;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of query results keyed by the normalized SQL and its parameters, for
+ * repeated lists and counts over tables that rarely change. Every table has a
+ * version that each write through a manager of the table bumps; a result read
+ * at an older version is stale and read again. Memory is bounded by the total
+ * number of cached rows, least recently used results are evicted first. One
+ * cache can be set on the managers of several tables.
+ *
+ * @author etwilliams
+ */
+public final class QueryCache {
+
+    public static final int DEFAULT_MAX_ROWS = 10000;
+    public static final long DEFAULT_TTL_MILLIS = 60000;
+    // ttl passed by queries without an override
+    static final long DEFAULT_TTL = -1;
+
+    private static final ConcurrentMap<String, AtomicLong> TABLE_VERSIONS = new ConcurrentHashMap<>();
+
+    private final int maxRows;
+    private final long defaultTtlMillis;
+    private final Map<List<Object>, Result> results = new LinkedHashMap<>(16, 0.75f, true);
+    private int rows;
+    private long hits;
+    private long misses;
+    private long stale;
+    private long expirations;
+    private long evictions;
+
+    public QueryCache() {
+        this(DEFAULT_MAX_ROWS, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param maxRows maximum number of cached rows over all results, a count
+     * is one row
+     * @param defaultTtlMillis time a result stays cached when the query has no
+     * override
+     */
+    public QueryCache(int maxRows, long defaultTtlMillis) {
+        if (maxRows <= 0) {
+            throw new IllegalArgumentException("maxRows must be positive");
+        }
+        if (defaultTtlMillis <= 0) {
+            throw new IllegalArgumentException("defaultTtlMillis must be positive");
+        }
+        this.maxRows = maxRows;
+        this.defaultTtlMillis = defaultTtlMillis;
+    }
+
+    /**
+     * @param tableName table name
+     * @return version counter of the table, shared by all its managers
+     */
+    static AtomicLong tableVersion(String tableName) {
+        AtomicLong version = TABLE_VERSIONS.get(tableName);
+        if (version == null) {
+            AtomicLong created = new AtomicLong();
+            version = TABLE_VERSIONS.putIfAbsent(tableName, created);
+            if (version == null) {
+                version = created;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * @param tableName table name
+     * @return number of writes to the table through managers so far
+     */
+    public static long getTableVersion(String tableName) {
+        return tableVersion(tableName).get();
+    }
+
+    /**
+     * @param owner entity class the result is mapped to
+     * @param sql query text
+     * @param params statement parameters
+     * @return cache key with the whitespace of the query collapsed
+     */
+    static List<Object> key(Class<?> owner, String sql, List<Object> params) {
+        List<Object> key = new ArrayList<>(params.size() + 2);
+        key.add(owner);
+        key.add(sql.trim().replaceAll("\\s+", " "));
+        key.addAll(params);
+        return key;
+    }
+
+    /**
+     * @param key key from {@link #key(Class, String, List)}
+     * @param version current version of the table queried
+     * @return cached result, or null when there is none or it is stale or
+     * expired
+     */
+    synchronized Object get(List<Object> key, long version) {
+        Result result = results.get(key);
+        if (result != null && result.version != version) {
+            remove(key, result);
+            stale++;
+            result = null;
+        } else if (result != null && System.nanoTime() - result.expiresAt > 0) {
+            remove(key, result);
+            expirations++;
+            result = null;
+        }
+
+        if (result == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return result.value;
+    }
+
+    /**
+     * @param key key from {@link #key(Class, String, List)}
+     * @param value result to cache
+     * @param weight rows held by the result
+     * @param version table version read before the query ran
+     * @param ttlMillis time to keep the result, {@link #DEFAULT_TTL} for the
+     * cache default
+     */
+    synchronized void put(List<Object> key, Object value, int weight, long version, long ttlMillis) {
+        if (weight > maxRows) {
+            return;
+        }
+        long ttl = ttlMillis == DEFAULT_TTL ? defaultTtlMillis : ttlMillis;
+        Result previous = results.put(key, new Result(value, weight, version, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl)));
+        if (previous != null) {
+            rows -= previous.weight;
+        }
+        rows += weight;
+
+        Iterator<Result> it = results.values().iterator();
+        while (rows > maxRows && it.hasNext()) {
+            rows -= it.next().weight;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(List<Object> key, Result result) {
+        results.remove(key);
+        rows -= result.weight;
+    }
+
+    /**
+     * Drop every cached result, the counters are kept
+     */
+    public synchronized void clear() {
+        results.clear();
+        rows = 0;
+    }
+
+    /**
+     * @return number of cached results
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * @return number of rows held by the cached results
+     */
+    public synchronized int getRows() {
+        return rows;
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public long getDefaultTtlMillis() {
+        return defaultTtlMillis;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return lookups without a usable result, stale and expired ones
+     * included
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return hits over lookups, 0 before the first lookup
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return results dropped because their table was written
+     */
+    public synchronized long getStale() {
+        return stale;
+    }
+
+    /**
+     * @return results dropped because their ttl had passed
+     */
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    /**
+     * @return results dropped to stay within maxRows
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache{" + "size=" + results.size() + ", rows=" + rows + ", hits=" + hits + ", misses=" + misses
+                + ", stale=" + stale + ", expirations=" + expirations + ", evictions=" + evictions + '}';
+    }
+
+    private static final class Result {
+
+        private final Object value;
+        private final int weight;
+        private final long version;
+        // System.nanoTime() deadline
+        private final long expiresAt;
+
+        Result(Object value, int weight, long version, long expiresAt) {
+            this.value = value;
+            this.weight = weight;
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.dakuupa.pulsar;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Column ordinals of an entity in one result set, resolved once from the
+ * result set metadata so rows are read by index instead of by label. An
+ * ordinal of 0 means the column is not in the result set and is skipped.
+ *
+ * @author etwilliams
+ */
+public final class RowPlan {
+
+    private final int[] ordinals;
+    private final int[] mapperOrdinals;
+    private final BitSet missing;
+
+    private RowPlan(int[] ordinals, int[] mapperOrdinals, BitSet missing) {
+        this.ordinals = ordinals;
+        this.mapperOrdinals = mapperOrdinals;
+        this.missing = missing;
+    }
+
+    /**
+     * @param rs result set to plan for
+     * @param metadata entity metadata
+     * @return ordinals of the entity's data columns in the result set
+     * @throws SQLException
+     */
+    public static RowPlan forResultSet(ResultSet rs, EntityMetadata metadata) throws SQLException {
+        ResultSetMetaData rsMetaData = rs.getMetaData();
+        int count = rsMetaData.getColumnCount();
+
+        // labels are case insensitive and the first match wins, like ResultSet.findColumn
+        Map<String, Integer> labels = new HashMap<>();
+        for (int i = count; i >= 1; i--) {
+            labels.put(rsMetaData.getColumnLabel(i).toLowerCase(Locale.ENGLISH), i);
+        }
+
+        List<ColumnMapping> columns = metadata.getDataColumns();
+        int[] ordinals = new int[columns.size()];
+        BitSet missing = null;
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = ordinalOf(labels, columns.get(i).getColumnName());
+            if (ordinals[i] == 0) {
+                if (missing == null) {
+                    missing = new BitSet(ordinals.length);
+                }
+                missing.set(i);
+            }
+        }
+
+        int[] mapperOrdinals = null;
+        EntityMapper<?> mapper = metadata.getMapper();
+        if (mapper != null) {
+            String[] names = mapper.getColumnNames();
+            mapperOrdinals = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                mapperOrdinals[i] = ordinalOf(labels, names[i]);
+            }
+        }
+
+        return new RowPlan(ordinals, mapperOrdinals, missing);
+    }
+
+    private static int ordinalOf(Map<String, Integer> labels, String columnName) {
+        Integer ordinal = labels.get(columnName.toLowerCase(Locale.ENGLISH));
+        return ordinal != null ? ordinal : 0;
+    }
+
+    /**
+     * @param dataColumn index into {@link EntityMetadata#getDataColumns()}
+     * @return result set ordinal, or 0 if the column was not selected
+     */
+    public int getOrdinal(int dataColumn) {
+        return ordinals[dataColumn];
+    }
+
+    /**
+     * @return data columns not in the result set, shared by every entity read
+     * with this plan and never modified, or null when all are present
+     */
+    BitSet getMissing() {
+        return missing;
+    }
+
+    /**
+     * @return ordinals aligned with the generated mapper's column names, or
+     * null when the entity has no mapper
+     */
+    int[] getMapperOrdinals() {
+        return mapperOrdinals;
+    }
+
+}
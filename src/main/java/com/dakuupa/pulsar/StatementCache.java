@@ -0,0 +1,309 @@
+package com.dakuupa.pulsar;
+
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded, least recently used cache of prepared statements for one
+ * connection. Each thread gets its own statements, because a caller binds,
+ * executes and reads a statement after {@link #prepare(String)} returns and
+ * two threads must never share those steps. Callers must not close the
+ * statements, only their result sets. Statements whose text depends on the
+ * values written, such as updates of the changed columns, go through
+ * {@link #prepareVariant(String)} and are kept apart so they never push the
+ * fixed statements out.
+ * <p>
+ * The cache holds at most maxTotal statements over all threads: each thread
+ * keeps an equal share, and trims its statements to the share the next time
+ * it prepares one that is not cached. Threads that stop using the cache, such
+ * as background flushers and scan workers, should {@link #release()} their
+ * statements; those of finished threads are closed whenever any thread
+ * prepares a statement that is not cached. With useServerPrepStmts=true on
+ * the connection URL MySQL also keeps each statement parsed server side, up to
+ * max_prepared_stmt_count over all connections.
+ *
+ * @author etwilliams
+ */
+public class StatementCache implements AutoCloseable {
+
+    public static final int DEFAULT_SIZE = 64;
+    public static final int DEFAULT_VARIANT_SIZE = 16;
+    public static final int DEFAULT_MAX_TOTAL = 256;
+    // share of a thread however many threads use the cache
+    private static final int MIN_PER_THREAD = 4;
+
+    private final Connection connection;
+    private final int maxSize;
+    private final int variantSize;
+    private final int maxTotal;
+    private final ThreadLocal<ThreadStatements> local = new ThreadLocal<>();
+    // statements of every thread, so close() reaches them all and those of
+    // finished threads are found
+    private final List<ThreadStatements> threads = new ArrayList<>();
+
+    public StatementCache(Connection connection) {
+        this(connection, DEFAULT_SIZE);
+    }
+
+    public StatementCache(Connection connection, int maxSize) {
+        this(connection, maxSize, DEFAULT_VARIANT_SIZE, DEFAULT_MAX_TOTAL);
+    }
+
+    /**
+     * @param connection connection to prepare statements on
+     * @param maxSize fixed statements kept per thread
+     * @param variantSize variant statements kept per thread
+     * @param maxTotal statements kept over all threads
+     */
+    public StatementCache(Connection connection, int maxSize, int variantSize, int maxTotal) {
+        if (maxSize < 1 || variantSize < 1 || maxTotal < 1) {
+            throw new IllegalArgumentException("Statement cache sizes must be at least 1");
+        }
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.variantSize = variantSize;
+        this.maxTotal = maxTotal;
+    }
+
+    /**
+     * @param sql statement text
+     * @return the calling thread's cached statement for the text
+     * @throws SQLException
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return prepare(sql, null, false);
+    }
+
+    /**
+     * @param sql statement text
+     * @param generatedColumns columns to return as generated keys, or null
+     * @return the calling thread's cached statement for the text
+     * @throws SQLException
+     */
+    public PreparedStatement prepare(String sql, String[] generatedColumns) throws SQLException {
+        return prepare(sql, generatedColumns, false);
+    }
+
+    /**
+     * @param sql statement text that is one of many shapes of a statement
+     * @return the calling thread's cached statement for the text, kept apart
+     * from the fixed statements
+     * @throws SQLException
+     */
+    public PreparedStatement prepareVariant(String sql) throws SQLException {
+        return prepare(sql, null, true);
+    }
+
+    /**
+     * @param sql statement text that is one of many shapes of a statement
+     * @param generatedColumns columns to return as generated keys, or null
+     * @return the calling thread's cached statement for the text, kept apart
+     * from the fixed statements
+     * @throws SQLException
+     */
+    public PreparedStatement prepareVariant(String sql, String[] generatedColumns) throws SQLException {
+        return prepare(sql, generatedColumns, true);
+    }
+
+    private PreparedStatement prepare(String sql, String[] generatedColumns, boolean variant) throws SQLException {
+        String key = generatedColumns != null ? "K:" + sql : sql;
+
+        ThreadStatements statements = statements();
+        PreparedStatement statement = statements.get(key, variant);
+        if (statement != null) {
+            return statement;
+        }
+
+        closeFinished();
+        if (generatedColumns != null) {
+            statement = connection.prepareStatement(sql, generatedColumns);
+        } else {
+            statement = connection.prepareStatement(sql);
+        }
+        statements.put(key, statement, variant, share());
+        return statement;
+    }
+
+    private ThreadStatements statements() {
+        ThreadStatements statements = local.get();
+        if (statements == null) {
+            statements = new ThreadStatements(Thread.currentThread());
+            local.set(statements);
+            synchronized (threads) {
+                threads.add(statements);
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * @return statements each thread may keep
+     */
+    private int share() {
+        int count;
+        synchronized (threads) {
+            count = threads.size();
+        }
+        return Math.max(MIN_PER_THREAD, maxTotal / Math.max(count, 1));
+    }
+
+    /**
+     * Close the statements of threads that have finished
+     */
+    private void closeFinished() {
+        List<ThreadStatements> finished = new ArrayList<>();
+        synchronized (threads) {
+            Iterator<ThreadStatements> it = threads.iterator();
+            while (it.hasNext()) {
+                ThreadStatements statements = it.next();
+                if (!statements.isAlive()) {
+                    finished.add(statements);
+                    it.remove();
+                }
+            }
+        }
+        for (ThreadStatements statements : finished) {
+            statements.close();
+        }
+    }
+
+    /**
+     * Close the calling thread's statements
+     */
+    public void release() {
+        ThreadStatements statements = local.get();
+        if (statements == null) {
+            return;
+        }
+        local.remove();
+        synchronized (threads) {
+            threads.remove(statements);
+        }
+        statements.close();
+    }
+
+    /**
+     * @return number of cached statements over all threads
+     */
+    public int size() {
+        List<ThreadStatements> all;
+        synchronized (threads) {
+            all = new ArrayList<>(threads);
+        }
+        int size = 0;
+        for (ThreadStatements statements : all) {
+            size += statements.size();
+        }
+        return size;
+    }
+
+    /**
+     * Close and drop the cached statements of every thread
+     */
+    @Override
+    public void close() {
+        List<ThreadStatements> all;
+        synchronized (threads) {
+            all = new ArrayList<>(threads);
+            threads.clear();
+        }
+        local.remove();
+        for (ThreadStatements statements : all) {
+            statements.close();
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ex) {
+            Logger.getLogger(StatementCache.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Fixed and variant statements of one thread, least recently used first.
+     * Only close() and the closing of finished threads reach them from
+     * another thread.
+     */
+    private final class ThreadStatements {
+
+        // weak so a finished thread is not kept alive by the cache
+        private final WeakReference<Thread> thread;
+        private final Map<String, PreparedStatement> fixed = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<String, PreparedStatement> variants = new LinkedHashMap<>(16, 0.75f, true);
+
+        ThreadStatements(Thread thread) {
+            this.thread = new WeakReference<>(thread);
+        }
+
+        boolean isAlive() {
+            Thread owner = thread.get();
+            return owner != null && owner.isAlive();
+        }
+
+        synchronized PreparedStatement get(String key, boolean variant) throws SQLException {
+            PreparedStatement statement = (variant ? variants : fixed).get(key);
+            return statement != null && !statement.isClosed() ? statement : null;
+        }
+
+        /**
+         * Cache a new statement and evict the least recently used ones over
+         * the limits, variants first
+         */
+        synchronized void put(String key, PreparedStatement statement, boolean variant, int share) {
+            Map<String, PreparedStatement> added = variant ? variants : fixed;
+            PreparedStatement previous = added.put(key, statement);
+            if (previous != null) {
+                closeQuietly(previous);
+            }
+
+            int limit = variant ? variantSize : maxSize;
+            while (added.size() > limit) {
+                evictEldest(added);
+            }
+            // the statement just added is the only one that must stay
+            while (fixed.size() + variants.size() > share) {
+                if (variants.size() > (variant ? 1 : 0)) {
+                    evictEldest(variants);
+                } else if (fixed.size() > (variant ? 0 : 1)) {
+                    evictEldest(fixed);
+                } else {
+                    break;
+                }
+            }
+        }
+
+        private void evictEldest(Map<String, PreparedStatement> statements) {
+            Iterator<PreparedStatement> it = statements.values().iterator();
+            closeQuietly(it.next());
+            it.remove();
+        }
+
+        synchronized int size() {
+            return fixed.size() + variants.size();
+        }
+
+        synchronized void close() {
+            for (PreparedStatement statement : fixed.values()) {
+                closeQuietly(statement);
+            }
+            for (PreparedStatement statement : variants.values()) {
+                closeQuietly(statement);
+            }
+            fixed.clear();
+            variants.clear();
+        }
+
+    }
+
+}
@@ -0,0 +1,373 @@
+package com.dakuupa.pulsar;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Groups inserts, updates and deletes across managers into one transaction.
+ * Writes are queued and sent on flush or commit, grouped by table and
+ * operation so each group goes out as JDBC batches: inserts and updates in the
+ * order tables were first used, then deletes in reverse order so child rows go
+ * before their parents. An update whose row is not found fails the flush.
+ * Every manager must use the unit's connection.
+ * Rolling back restores the persisted flag and id of the entities written.
+ * Shared and off-heap cache updates of the managers are held back until
+ * commit, identity maps are updated as the writes go out.
+ *
+ * @author etwilliams
+ */
+public class UnitOfWork implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(UnitOfWork.class.getName());
+
+    private final Connection connection;
+    private final boolean autoCommit;
+    private final Map<AbstractDatabaseManager<?>, TableOps<?>> tables = new LinkedHashMap<>();
+    private final List<EntityState> journal = new ArrayList<>();
+    private final List<Savepoint> savepoints = new ArrayList<>();
+    private final List<Integer> savepointMarks = new ArrayList<>();
+    private boolean finished;
+
+    /**
+     * Start a unit of work, auto commit is off until it commits or rolls back
+     *
+     * @param connection connection shared by the managers
+     * @throws SQLException
+     */
+    public UnitOfWork(Connection connection) throws SQLException {
+        this.connection = connection;
+        this.autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+    }
+
+    public <T extends Entity> void insert(AbstractDatabaseManager<T> manager, T entity) {
+        tableOps(manager).inserts.add(entity);
+    }
+
+    public <T extends Entity> void update(AbstractDatabaseManager<T> manager, T entity) {
+        tableOps(manager).updates.add(entity);
+    }
+
+    public <T extends Entity> void delete(AbstractDatabaseManager<T> manager, T entity) {
+        tableOps(manager).deletes.add(entity);
+    }
+
+    /**
+     * Queue an insert or update based on the persisted flag
+     */
+    public <T extends Entity> void save(AbstractDatabaseManager<T> manager, T entity) {
+        if (entity.isPersisted()) {
+            update(manager, entity);
+        } else {
+            insert(manager, entity);
+        }
+    }
+
+    /**
+     * Send every queued write without committing
+     *
+     * @throws SQLException if a batch did not write all of its rows
+     */
+    public void flush() throws SQLException {
+        checkOpen();
+
+        List<TableOps<?>> ordered = new ArrayList<>(tables.values());
+        for (TableOps<?> ops : ordered) {
+            ops.flushInserts();
+        }
+        for (TableOps<?> ops : ordered) {
+            ops.flushUpdates();
+        }
+        for (int i = ordered.size() - 1; i >= 0; i--) {
+            ordered.get(i).flushDeletes();
+        }
+    }
+
+    /**
+     * Flush and mark a point to roll back to
+     *
+     * @return savepoint for {@link #rollback(Savepoint)}
+     * @throws SQLException
+     */
+    public Savepoint setSavepoint() throws SQLException {
+        flush();
+        Savepoint savepoint = connection.setSavepoint();
+        savepoints.add(savepoint);
+        savepointMarks.add(journal.size());
+        return savepoint;
+    }
+
+    /**
+     * Undo the writes made after the savepoint, including queued ones, and
+     * restore the entities they touched
+     *
+     * @param savepoint savepoint from {@link #setSavepoint()}
+     * @throws SQLException
+     */
+    public void rollback(Savepoint savepoint) throws SQLException {
+        checkOpen();
+
+        int index = savepoints.indexOf(savepoint);
+        if (index < 0) {
+            throw new IllegalArgumentException("Savepoint does not belong to this unit of work");
+        }
+
+        connection.rollback(savepoint);
+        discardQueued();
+        restore(savepointMarks.get(index));
+
+        // savepoints set after this one no longer exist
+        while (savepoints.size() > index + 1) {
+            savepoints.remove(savepoints.size() - 1);
+            savepointMarks.remove(savepointMarks.size() - 1);
+        }
+    }
+
+    /**
+     * Flush and commit, rolling back if either fails
+     *
+     * @throws SQLException
+     */
+    public void commit() throws SQLException {
+        checkOpen();
+        try {
+            flush();
+            connection.commit();
+        } catch (SQLException | RuntimeException ex) {
+            rollback();
+            throw ex;
+        }
+        // results cached by other connections before the commit are stale
+        for (AbstractDatabaseManager<?> manager : tables.keySet()) {
+            manager.publishCacheWrites();
+            manager.tableChanged();
+        }
+        finish();
+    }
+
+    /**
+     * Undo every write of the unit and restore the entities it touched
+     *
+     * @throws SQLException
+     */
+    public void rollback() throws SQLException {
+        checkOpen();
+        try {
+            connection.rollback();
+        } finally {
+            discardQueued();
+            restore(0);
+            for (AbstractDatabaseManager<?> manager : tables.keySet()) {
+                manager.discardCacheWrites();
+            }
+            finish();
+        }
+    }
+
+    /**
+     * Roll back unless the unit was committed
+     */
+    @Override
+    public void close() throws SQLException {
+        if (!finished) {
+            rollback();
+        }
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Entity> TableOps<T> tableOps(AbstractDatabaseManager<T> manager) {
+        checkOpen();
+        if (manager.getConnection() != connection) {
+            throw new IllegalArgumentException("Manager for " + manager.getTableName() + " does not use the unit of work connection");
+        }
+
+        TableOps<T> ops = (TableOps<T>) tables.get(manager);
+        if (ops == null) {
+            ops = new TableOps<>(manager);
+            tables.put(manager, ops);
+            manager.deferCacheWrites();
+        }
+        return ops;
+    }
+
+    private void checkOpen() {
+        if (finished) {
+            throw new IllegalStateException("Unit of work already committed or rolled back");
+        }
+    }
+
+    private void discardQueued() {
+        for (TableOps<?> ops : tables.values()) {
+            ops.inserts.clear();
+            ops.updates.clear();
+            ops.deletes.clear();
+        }
+    }
+
+    private void restore(int mark) {
+        for (int i = journal.size() - 1; i >= mark; i--) {
+            journal.remove(i).restore();
+        }
+        // instances cached by the rolled back writes no longer match their rows
+        for (AbstractDatabaseManager<?> manager : tables.keySet()) {
+            manager.clearIdentityMap();
+            manager.clearEntityCache();
+            manager.clearOffHeapCache();
+            manager.tableChanged();
+        }
+    }
+
+    private void finish() throws SQLException {
+        finished = true;
+        journal.clear();
+        savepoints.clear();
+        savepointMarks.clear();
+        connection.setAutoCommit(autoCommit);
+    }
+
+    private void record(List<? extends Entity> entities) {
+        for (Entity entity : entities) {
+            journal.add(new EntityState(entity));
+        }
+    }
+
+    /**
+     * Queued writes of one table, each entity once per operation
+     */
+    private final class TableOps<T extends Entity> {
+
+        private final AbstractDatabaseManager<T> manager;
+        private final EntityList<T> inserts = new EntityList<>();
+        private final EntityList<T> updates = new EntityList<>();
+        private final EntityList<T> deletes = new EntityList<>();
+
+        TableOps(AbstractDatabaseManager<T> manager) {
+            this.manager = manager;
+        }
+
+        void flushInserts() throws SQLException {
+            if (inserts.isEmpty()) {
+                return;
+            }
+            List<T> entities = inserts.drain();
+            record(entities);
+            int inserted = manager.insertAll(entities);
+            if (inserted < entities.size()) {
+                throw new SQLException("Inserted " + inserted + " of " + entities.size() + " rows into " + manager.getTableName());
+            }
+        }
+
+        void flushUpdates() throws SQLException {
+            if (updates.isEmpty()) {
+                return;
+            }
+            List<T> entities = updates.drain();
+            record(entities);
+            // a row deleted or never inserted must fail the unit, not pass
+            // as a 0 row update
+            List<T> missing = new ArrayList<>();
+            int updated = manager.updateAll(entities, missing);
+            if (!missing.isEmpty()) {
+                throw new SQLException("No row in " + manager.getTableName() + " for " + missing.size() + " updates, first id " + missing.get(0).getId());
+            }
+            if (updated < entities.size()) {
+                throw new SQLException("Updated " + updated + " of " + entities.size() + " rows in " + manager.getTableName());
+            }
+        }
+
+        void flushDeletes() throws SQLException {
+            if (deletes.isEmpty()) {
+                return;
+            }
+            // two instances of one row count as one delete
+            Set<Long> ids = new LinkedHashSet<>();
+            for (T entity : deletes.drain()) {
+                if (entity.getId() != null) {
+                    ids.add(entity.getId());
+                } else {
+                    LOGGER.log(Level.WARNING, "Skipping delete of {0} entity without id", manager.getTableName());
+                }
+            }
+            int deleted = manager.executeDeleteByIds(ids);
+            if (deleted < ids.size()) {
+                throw new SQLException("Deleted " + deleted + " of " + ids.size() + " rows from " + manager.getTableName());
+            }
+        }
+
+    }
+
+    /**
+     * Insertion ordered list that holds each entity once, by identity
+     */
+    private static final class EntityList<T extends Entity> {
+
+        private List<T> entities = new ArrayList<>();
+        private final Map<T, Boolean> present = new IdentityHashMap<>();
+
+        void add(T entity) {
+            if (entity == null) {
+                throw new IllegalArgumentException("Entity must not be null");
+            }
+            if (present.put(entity, Boolean.TRUE) == null) {
+                entities.add(entity);
+            }
+        }
+
+        boolean isEmpty() {
+            return entities.isEmpty();
+        }
+
+        List<T> drain() {
+            List<T> drained = entities;
+            entities = new ArrayList<>();
+            present.clear();
+            return drained;
+        }
+
+        void clear() {
+            entities.clear();
+            present.clear();
+        }
+
+    }
+
+    /**
+     * Persisted flag, id and change snapshot of an entity before a write
+     */
+    private static final class EntityState {
+
+        private final Entity entity;
+        private final boolean persisted;
+        private final Long id;
+        private final long[] snapshot;
+
+        EntityState(Entity entity) {
+            this.entity = entity;
+            this.persisted = entity.isPersisted();
+            this.id = entity.getId();
+            this.snapshot = entity.getSnapshot();
+        }
+
+        void restore() {
+            entity.setPersisted(persisted);
+            entity.setId(id);
+            entity.setSnapshot(snapshot);
+        }
+
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.dakuupa.pulsar;
+
+/**
+ * Row counts of an upsert, taken from the affected rows MySQL reports per
+ * row: 1 for an insert, 2 for an update and 0 for an existing row left
+ * unchanged. Connector/J reports found rather than affected rows unless
+ * useAffectedRows=true, and then an unchanged row also reports 1, so inserts
+ * and unchanged rows both count as unreported and only changed rows as
+ * updated.
+ *
+ * @author etwilliams
+ */
+public final class UpsertResult {
+
+    private final int inserted;
+    private final int updated;
+    private final int unreported;
+
+    public UpsertResult(int inserted, int updated, int unreported) {
+        this.inserted = inserted;
+        this.updated = updated;
+        this.unreported = unreported;
+    }
+
+    public int getInserted() {
+        return inserted;
+    }
+
+    /**
+     * @return rows that already existed, changed or not
+     */
+    public int getUpdated() {
+        return updated;
+    }
+
+    /**
+     * @return rows the driver gave no count for, as with
+     * rewriteBatchedStatements=true
+     */
+    public int getUnreported() {
+        return unreported;
+    }
+
+    /**
+     * @return number of rows written either way
+     */
+    public int getTotal() {
+        return inserted + updated + unreported;
+    }
+
+    @Override
+    public String toString() {
+        return "UpsertResult{" + "inserted=" + inserted + ", updated=" + updated + ", unreported=" + unreported + '}';
+    }
+
+}
@@ -0,0 +1,368 @@
+package com.dakuupa.pulsar;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded queue of pending saves for one manager, written by a background
+ * thread in batches on a connection of its own. Saves of the same row are
+ * coalesced so only the last one is written, and callers block while the
+ * queue is full. Entities a write failed to save are queued again, behind
+ * newer saves of the same row, and the flusher waits one interval before
+ * retrying them one at a time. An entity that fails maxAttempts writes is
+ * handed to the failure callback instead.
+ *
+ * @author etwilliams
+ * @param <T> entity type
+ */
+final class WriteBehindBuffer<T extends Entity> {
+
+    private static final Logger LOGGER = Logger.getLogger(WriteBehindBuffer.class.getName());
+
+    private final AbstractDatabaseManager<T> manager;
+    private final Connection connection;
+    private final StatementCache statements;
+    private final int capacity;
+    private final int flushSize;
+    private final long flushIntervalMillis;
+    private final int maxAttempts;
+    private final WriteFailureCallback<T> failures;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushNeeded = lock.newCondition();
+    private final Condition stopped = lock.newCondition();
+    // held while a batch is drained and written, so batches are written in
+    // order and flush() waits for the flusher
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // keyed by id, or by the entity itself while it has none
+    private Map<Object, T> pending = new LinkedHashMap<>();
+    // failed writes of the queued entities that failed before
+    private final Map<T, Integer> attempts = new IdentityHashMap<>();
+    private volatile boolean running = true;
+    private final Thread flusher;
+
+    WriteBehindBuffer(AbstractDatabaseManager<T> manager, Connection connection, int capacity, int flushSize, long flushIntervalMillis,
+            int maxAttempts, WriteFailureCallback<T> failures) {
+        this.manager = manager;
+        this.connection = connection;
+        this.statements = new StatementCache(connection);
+        this.capacity = capacity;
+        this.flushSize = Math.min(flushSize, capacity);
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxAttempts = maxAttempts;
+        this.failures = failures;
+
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runFlusher();
+            }
+        }, "pulsar-write-behind-" + manager.getTableName());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queue an entity, blocking while the queue is full
+     *
+     * @param entity entity to save
+     * @throws InterruptedException if interrupted while waiting for space
+     */
+    void add(T entity) throws InterruptedException {
+        Object key = keyOf(entity);
+
+        lock.lockInterruptibly();
+        try {
+            if (!running) {
+                throw new IllegalStateException("Write behind buffer is closed");
+            }
+            while (pending.size() >= capacity && !pending.containsKey(key)) {
+                flushNeeded.signal();
+                notFull.await();
+            }
+            // a new save starts its attempts over
+            T previous = pending.put(key, entity);
+            if (previous != null) {
+                attempts.remove(previous);
+            }
+            attempts.remove(entity);
+            if (pending.size() >= flushSize) {
+                flushNeeded.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of queued entities
+     */
+    int size() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write everything queued so far on the calling thread
+     *
+     * @throws IllegalStateException if some entities could not be saved, they
+     * stay queued unless they were given up on
+     */
+    void flush() {
+        int unsaved;
+        writeLock.lock();
+        try {
+            unsaved = write(drain(), false);
+        } finally {
+            writeLock.unlock();
+        }
+        if (unsaved > 0) {
+            throw new IllegalStateException("Write behind failed to save " + unsaved + " entities of " + manager.getTableName());
+        }
+    }
+
+    /**
+     * Stop the flusher, write what is left and close the connection. Entities
+     * this last write fails are handed to the failure callback.
+     */
+    void close() {
+        lock.lock();
+        try {
+            running = false;
+            flushNeeded.signal();
+            stopped.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            flusher.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        writeLock.lock();
+        try {
+            write(drain(), true);
+        } finally {
+            writeLock.unlock();
+            statements.close();
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                LOGGER.log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    private void runFlusher() {
+        try {
+            while (running) {
+                awaitBatch();
+
+                int unsaved;
+                writeLock.lock();
+                try {
+                    unsaved = write(drain(), false);
+                } finally {
+                    writeLock.unlock();
+                }
+                if (unsaved > 0) {
+                    awaitRetry();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait until the queue reaches the flush size, or the interval passes with
+     * something queued
+     */
+    private void awaitBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+            while (running && pending.size() < flushSize && (remaining > 0 || pending.isEmpty())) {
+                if (remaining <= 0) {
+                    remaining = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                }
+                remaining = flushNeeded.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait one interval after a failed write, or until the buffer is closed
+     */
+    private void awaitRetry() throws InterruptedException {
+        lock.lock();
+        try {
+            if (running) {
+                stopped.await(flushIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Collection<T> drain() {
+        lock.lock();
+        try {
+            if (pending.isEmpty()) {
+                return new ArrayList<>();
+            }
+            Collection<T> batch = pending.values();
+            pending = new LinkedHashMap<>();
+            notFull.signalAll();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Save a batch on the buffer's connection. Entities that failed before
+     * are saved one at a time, so a row that keeps failing does not fail the
+     * rows batched with it.
+     *
+     * @param last whether no write follows, so nothing is queued again
+     * @return number of entities that were not saved
+     */
+    private int write(Collection<T> batch, boolean last) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        List<T> fresh = new ArrayList<>();
+        List<T> retried = new ArrayList<>();
+        Map<T, Integer> failed = new IdentityHashMap<>();
+        lock.lock();
+        try {
+            for (T entity : batch) {
+                Integer count = attempts.remove(entity);
+                if (count == null) {
+                    fresh.add(entity);
+                } else {
+                    retried.add(entity);
+                    failed.put(entity, count);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        List<T> unsaved = new ArrayList<>();
+        manager.bindStatements(statements);
+        try {
+            save(fresh, unsaved);
+            for (T entity : retried) {
+                save(Collections.singletonList(entity), unsaved);
+            }
+        } finally {
+            manager.bindStatements(null);
+        }
+
+        if (!unsaved.isEmpty()) {
+            retryOrGiveUp(unsaved, failed, last);
+        }
+        return unsaved.size();
+    }
+
+    private void save(List<T> entities, List<T> unsaved) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        try {
+            int saved = manager.saveNow(entities);
+            LOGGER.log(Level.FINE, "Write behind saved {0} of {1}", new Object[]{saved, entities.size()});
+            // failed inserts stay unpersisted and failed updates stay dirty
+            for (T entity : entities) {
+                if (!entity.isPersisted() || manager.isDirty(entity)) {
+                    unsaved.add(entity);
+                }
+            }
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+            unsaved.addAll(entities);
+        }
+    }
+
+    /**
+     * Queue unsaved entities again, or hand those out of attempts to the
+     * failure callback
+     *
+     * @param failed earlier failed writes of the retried entities
+     */
+    private void retryOrGiveUp(List<T> unsaved, Map<T, Integer> failed, boolean last) {
+        List<T> retry = new ArrayList<>();
+        List<T> givenUp = new ArrayList<>();
+        lock.lock();
+        try {
+            Map<Object, T> merged = new LinkedHashMap<>();
+            for (T entity : unsaved) {
+                Integer count = failed.get(entity);
+                int tries = count == null ? 1 : count + 1;
+                if (last || tries >= maxAttempts) {
+                    givenUp.add(entity);
+                } else {
+                    // put back ahead of the queue, unless a newer save of the
+                    // same row is already queued
+                    Object key = keyOf(entity);
+                    if (!pending.containsKey(key)) {
+                        merged.put(key, entity);
+                        attempts.put(entity, tries);
+                        retry.add(entity);
+                    }
+                }
+            }
+            merged.putAll(pending);
+            pending = merged;
+        } finally {
+            lock.unlock();
+        }
+
+        if (!retry.isEmpty()) {
+            LOGGER.log(Level.SEVERE, "Write behind failed to save {0} entities of {1}, queued again", new Object[]{retry.size(), manager.getTableName()});
+        }
+        if (!givenUp.isEmpty()) {
+            LOGGER.log(Level.SEVERE, "Write behind gave up on {0} entities of {1}", new Object[]{givenUp.size(), manager.getTableName()});
+            if (failures != null) {
+                for (T entity : givenUp) {
+                    try {
+                        failures.onFailure(entity);
+                    } catch (RuntimeException ex) {
+                        LOGGER.log(Level.SEVERE, null, ex);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Object keyOf(Entity entity) {
+        return entity.getId() != null && entity.getId() > 0 ? entity.getId() : entity;
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.dakuupa.pulsar;
+
+/**
+ * Receives the entities write behind gave up on after they failed to save as
+ * many times as allowed, or failed the last write when it was disabled. Called
+ * on the flusher thread or on the thread that flushed or disabled write
+ * behind, so it must be thread safe.
+ *
+ * @author etwilliams
+ * @param <T> entity type
+ */
+public interface WriteFailureCallback<T extends Entity> {
+
+    /**
+     * @param entity entity that was not saved
+     */
+    void onFailure(T entity);
+
+}
@@ -0,0 +1,28 @@
+package com.dakuupa.pulsar.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation to keep rows read by id in a cache shared by every manager of the
+ * entity class
+ * @author EWilliams
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface DbCached {
+
+    /**
+     * Maximum number of cached rows, least recently used rows are evicted
+     */
+    int maxEntries() default 1000;
+
+    /**
+     * Seconds a row stays cached after it is loaded, 0 to keep it until
+     * evicted
+     */
+    long ttl() default 0;
+}
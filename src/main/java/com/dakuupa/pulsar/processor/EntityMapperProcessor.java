@@ -0,0 +1,475 @@
+package com.dakuupa.pulsar.processor;
+
+import com.dakuupa.pulsar.EntityMapper;
+import com.dakuupa.pulsar.annotations.DbAutoIncrement;
+import com.dakuupa.pulsar.annotations.DbColumn;
+import com.dakuupa.pulsar.annotations.DbIgnore;
+import com.dakuupa.pulsar.annotations.DbMysqlLongText;
+import com.dakuupa.pulsar.annotations.DbMysqlMediumText;
+import com.dakuupa.pulsar.annotations.DbMysqlText;
+import com.dakuupa.pulsar.annotations.DbNoID;
+import com.dakuupa.pulsar.annotations.DbNotNull;
+import com.dakuupa.pulsar.annotations.DbPrimaryKey;
+import com.dakuupa.pulsar.annotations.DbSize;
+import com.dakuupa.pulsar.annotations.DbUnique;
+import com.dakuupa.pulsar.typeconverter.mysql.MySQLTypeConverter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates an {@link EntityMapper} for every concrete Entity subclass in the
+ * compilation, so managers can map rows without reflection. Entities with a
+ * field the generated code can't reach or a type without a built in converter
+ * are skipped and keep using the reflective path.
+ *
+ * @author etwilliams
+ */
+@SupportedAnnotationTypes("*")
+public class EntityMapperProcessor extends AbstractProcessor {
+
+    private static final String ENTITY_CLASS = "com.dakuupa.pulsar.Entity";
+    private static final String CONVERTER_PACKAGE = MySQLTypeConverter.class.getPackage().getName();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement entityElement = processingEnv.getElementUtils().getTypeElement(ENTITY_CLASS);
+        if (entityElement == null) {
+            return false;
+        }
+        TypeMirror entityType = processingEnv.getTypeUtils().erasure(entityElement.asType());
+
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            processType(type, entityElement, entityType);
+        }
+
+        // never claim annotations, other processors may want them
+        return false;
+    }
+
+    private void processType(TypeElement type, TypeElement entityElement, TypeMirror entityType) {
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            processType(nested, entityElement, entityType);
+        }
+
+        if (type.getKind() != ElementKind.CLASS
+                || type.equals(entityElement)
+                || type.getModifiers().contains(Modifier.ABSTRACT)
+                || !processingEnv.getTypeUtils().isSubtype(processingEnv.getTypeUtils().erasure(type.asType()), entityType)) {
+            return;
+        }
+
+        if (!isReachable(type)) {
+            note(type, "no mapper generated, class is not accessible from its package");
+            return;
+        }
+
+        List<MappedField> fields = new ArrayList<>();
+        TypeElement current = type;
+        while (current != null && !current.getQualifiedName().contentEquals(Object.class.getName())) {
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                if (!isOkForDatabase(field)) {
+                    continue;
+                }
+                MappedField mapped = mapField(type, current, field);
+                if (mapped == null) {
+                    return;
+                }
+                fields.add(mapped);
+            }
+            TypeMirror superType = current.getSuperclass();
+            current = superType.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superType).asElement() : null;
+        }
+
+        try {
+            write(type, fields);
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Failed to write entity mapper: " + ex.getMessage(), type);
+        }
+    }
+
+    private boolean isReachable(TypeElement type) {
+        Element element = type;
+        while (element instanceof TypeElement) {
+            TypeElement typeElement = (TypeElement) element;
+            if (typeElement.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            if (typeElement.getNestingKind() == NestingKind.MEMBER && !typeElement.getModifiers().contains(Modifier.STATIC)) {
+                return false;
+            }
+            if (typeElement.getNestingKind() == NestingKind.LOCAL || typeElement.getNestingKind() == NestingKind.ANONYMOUS) {
+                return false;
+            }
+            element = typeElement.getEnclosingElement();
+        }
+        return true;
+    }
+
+    /**
+     * Mirror of ReflectUtil.fieldIsOkForDatabase
+     */
+    private boolean isOkForDatabase(VariableElement field) {
+        String name = field.getSimpleName().toString();
+        return !(field.getAnnotation(DbIgnore.class) != null
+                || name.equals("serialVersionUID")
+                || name.equals("INVALID_ID")
+                || name.equals("persisted")
+                || name.contains("$"));
+    }
+
+    private MappedField mapField(TypeElement entity, TypeElement owner, VariableElement field) {
+        String name = field.getSimpleName().toString();
+
+        if (field.getModifiers().contains(Modifier.STATIC)) {
+            note(entity, "no mapper generated, static field " + name + " is mapped as a column");
+            return null;
+        }
+
+        JavaType javaType = JavaType.of(field.asType());
+        if (javaType == null) {
+            note(entity, "no mapper generated, field " + name + " has no built in type converter");
+            return null;
+        }
+
+        MappedField mapped = new MappedField();
+        mapped.name = name;
+        mapped.javaType = javaType;
+
+        DbColumn column = field.getAnnotation(DbColumn.class);
+        mapped.columnName = column != null ? column.name() : name;
+
+        DbSize size = field.getAnnotation(DbSize.class);
+        mapped.size = size != null ? size.size() : -1;
+
+        mapped.primaryKey = field.getAnnotation(DbPrimaryKey.class) != null;
+        mapped.autoIncrement = field.getAnnotation(DbAutoIncrement.class) != null;
+        mapped.notNull = field.getAnnotation(DbNotNull.class) != null;
+        mapped.unique = field.getAnnotation(DbUnique.class) != null;
+
+        if (javaType == JavaType.STRING) {
+            if (field.getAnnotation(DbMysqlText.class) != null) {
+                mapped.databaseType = MySQLTypeConverter.DB_TYPE_TEXT;
+            } else if (field.getAnnotation(DbMysqlMediumText.class) != null) {
+                mapped.databaseType = MySQLTypeConverter.DB_TYPE_MEDIUM_TEXT;
+            } else if (field.getAnnotation(DbMysqlLongText.class) != null) {
+                mapped.databaseType = MySQLTypeConverter.DB_TYPE_LONG_TEXT;
+            } else {
+                mapped.databaseType = MySQLTypeConverter.DB_TYPE_VARCHAR;
+            }
+        } else {
+            mapped.databaseType = javaType.databaseType;
+        }
+
+        if (isDirectlyAccessible(entity, owner, field)) {
+            mapped.getter = "e." + name;
+            mapped.setter = "e." + name + " = %s;";
+            return mapped;
+        }
+
+        String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        ExecutableElement getter = null;
+        ExecutableElement setter = null;
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(entity))) {
+            if (!method.getModifiers().contains(Modifier.PUBLIC) || method.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            String methodName = method.getSimpleName().toString();
+            boolean getterName = methodName.equals("get" + capitalized)
+                    || (javaType.isBoolean() && methodName.equals("is" + capitalized));
+            if (getterName && method.getParameters().isEmpty()
+                    && processingEnv.getTypeUtils().isSameType(method.getReturnType(), field.asType())) {
+                getter = method;
+            } else if (methodName.equals("set" + capitalized) && method.getParameters().size() == 1
+                    && processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), field.asType())) {
+                setter = method;
+            }
+        }
+
+        if (getter == null || setter == null) {
+            note(entity, "no mapper generated, field " + name + " is not accessible and has no public getter and setter");
+            return null;
+        }
+
+        mapped.getter = "e." + getter.getSimpleName() + "()";
+        mapped.setter = "e." + setter.getSimpleName() + "(%s);";
+        return mapped;
+    }
+
+    private boolean isDirectlyAccessible(TypeElement entity, TypeElement owner, VariableElement field) {
+        Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)) {
+            return false;
+        }
+        if (modifiers.contains(Modifier.PUBLIC)) {
+            return true;
+        }
+        return packageOf(entity).equals(packageOf(owner));
+    }
+
+    private String packageOf(Element element) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(element);
+        return pkg.getQualifiedName().toString();
+    }
+
+    private void note(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, message, element);
+    }
+
+    private void write(TypeElement type, List<MappedField> fields) throws IOException {
+        String pkg = packageOf(type);
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simpleBinaryName = pkg.isEmpty() ? binaryName : binaryName.substring(pkg.length() + 1);
+        String mapperName = simpleBinaryName.replace('$', '_') + EntityMapper.CLASS_SUFFIX;
+        String entityName = type.getQualifiedName().toString();
+
+        boolean noID = type.getAnnotation(DbNoID.class) != null;
+        List<MappedField> dataFields = new ArrayList<>();
+        for (MappedField field : fields) {
+            if (!(field.primaryKey && noID)) {
+                dataFields.add(field);
+            }
+        }
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(pkg.isEmpty() ? mapperName : pkg + "." + mapperName, type);
+        try (PrintWriter out = new PrintWriter(file.openWriter())) {
+            if (!pkg.isEmpty()) {
+                out.println("package " + pkg + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * Generated by " + EntityMapperProcessor.class.getName() + ", do not edit.");
+            out.println(" */");
+            out.println("public final class " + mapperName + " implements " + EntityMapper.class.getName() + "<" + entityName + "> {");
+            out.println();
+
+            out.print("    private static final String[] COLUMN_NAMES = {");
+            for (int i = 0; i < dataFields.size(); i++) {
+                out.print((i > 0 ? ", " : "") + literal(dataFields.get(i).columnName));
+            }
+            out.println("};");
+
+            out.print("    private static final Class<?>[] CONVERTER_CLASSES = {");
+            for (int i = 0; i < dataFields.size(); i++) {
+                out.print((i > 0 ? ", " : "") + CONVERTER_PACKAGE + "." + dataFields.get(i).javaType.converter + ".class");
+            }
+            out.println("};");
+
+            out.println("    private static final String CREATE_COLUMNS = " + literal(createColumns(fields)) + ";");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public String[] getColumnNames() {");
+            out.println("        return COLUMN_NAMES.clone();");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public Class<?>[] getConverterClasses() {");
+            out.println("        return CONVERTER_CLASSES.clone();");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public void read(java.sql.ResultSet rs, int[] columnIndexes, " + entityName + " e) throws java.sql.SQLException {");
+            for (int i = 0; i < dataFields.size(); i++) {
+                MappedField field = dataFields.get(i);
+                out.println("        if (columnIndexes[" + i + "] > 0) {");
+                out.println("            " + String.format(field.setter, field.javaType.read("columnIndexes[" + i + "]")));
+                out.println("        }");
+            }
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public int bind(java.sql.PreparedStatement statement, " + entityName + " e, int index) throws java.sql.SQLException {");
+            int var = 0;
+            for (MappedField field : dataFields) {
+                for (String line : field.javaType.bind(field.getter, "v" + var++)) {
+                    out.println("        " + line);
+                }
+            }
+            out.println("        return index;");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public String getCreateQuery(String tableName) {");
+            out.println("        return \"CREATE TABLE \" + tableName + \"(\" + CREATE_COLUMNS + \");\";");
+            out.println("    }");
+            out.println();
+            out.println("}");
+        }
+    }
+
+    /**
+     * Mirror of the column list built by AbstractDatabaseManager.getCreateQuery
+     */
+    private String createColumns(List<MappedField> fields) {
+        List<MappedField> sorted = new ArrayList<>(fields);
+        Collections.sort(sorted, new Comparator<MappedField>() {
+            @Override
+            public int compare(MappedField f1, MappedField f2) {
+                return f1.name.compareTo(f2.name);
+            }
+        });
+
+        StringBuilder builder = new StringBuilder();
+        List<String> pks = new ArrayList<>();
+        for (MappedField field : sorted) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(field.columnName).append(" ").append(field.databaseType);
+            if (field.size != -1) {
+                builder.append("(").append(field.size).append(")");
+            } else if (field.databaseType.equals(MySQLTypeConverter.DB_TYPE_INTEGER)) {
+                builder.append("(").append(MySQLTypeConverter.DB_DEFAULT_INT_SIZE).append(")");
+            }
+            if (field.notNull) {
+                builder.append(" NOT NULL ");
+            }
+            if (field.primaryKey) {
+                pks.add(field.columnName);
+            }
+            if (field.autoIncrement) {
+                builder.append(" AUTO_INCREMENT ");
+            }
+            if (field.unique) {
+                builder.append(" UNIQUE ");
+            }
+        }
+
+        if (!pks.isEmpty()) {
+            builder.append(", PRIMARY KEY (");
+            for (int i = 0; i < pks.size(); i++) {
+                builder.append(i > 0 ? ", " : "").append(pks.get(i));
+            }
+            builder.append(")");
+        }
+        return builder.toString();
+    }
+
+    private static String literal(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static class MappedField {
+
+        private String name;
+        private String columnName;
+        private JavaType javaType;
+        private String databaseType;
+        private int size;
+        private boolean primaryKey;
+        private boolean autoIncrement;
+        private boolean notNull;
+        private boolean unique;
+        private String getter;
+        private String setter;
+    }
+
+    /**
+     * Field types with a built in converter, and the JDBC calls that converter
+     * makes
+     */
+    private enum JavaType {
+
+        STRING("java.lang.String", "StringTypeConverter", MySQLTypeConverter.DB_TYPE_VARCHAR, "String", "VARCHAR", false),
+        INTEGER("java.lang.Integer", "IntegerTypeConverter", MySQLTypeConverter.DB_TYPE_INTEGER, "Int", "INTEGER", false),
+        INT("int", "IntegerTypeConverter", MySQLTypeConverter.DB_TYPE_INTEGER, "Int", "INTEGER", true),
+        LONG("java.lang.Long", "LongTypeConverter", MySQLTypeConverter.DB_TYPE_LONG, "Long", "BIGINT", false),
+        LONG_PRIMITIVE("long", "LongTypeConverter", MySQLTypeConverter.DB_TYPE_LONG, "Long", "BIGINT", true),
+        DOUBLE("java.lang.Double", "DoubleTypeConverter", MySQLTypeConverter.DB_TYPE_DOUBLE, "Double", "DOUBLE", false),
+        DOUBLE_PRIMITIVE("double", "DoubleTypeConverter", MySQLTypeConverter.DB_TYPE_DOUBLE, "Double", "DOUBLE", true),
+        FLOAT("java.lang.Float", "FloatTypeConverter", MySQLTypeConverter.DB_TYPE_FLOAT, "Float", "FLOAT", false),
+        FLOAT_PRIMITIVE("float", "FloatTypeConverter", MySQLTypeConverter.DB_TYPE_FLOAT, "Float", "FLOAT", true),
+        BOOLEAN("java.lang.Boolean", "BooleanTypeConverter", MySQLTypeConverter.DB_TYPE_BOOLEAN, "Boolean", "BOOLEAN", false),
+        BOOLEAN_PRIMITIVE("boolean", "BooleanTypeConverter", MySQLTypeConverter.DB_TYPE_BOOLEAN, "Boolean", "BOOLEAN", true),
+        DATE("java.util.Date", "DateTypeConverter", MySQLTypeConverter.DB_TYPE_LONG, "Long", "BIGINT", false);
+
+        private final String typeName;
+        private final String converter;
+        private final String databaseType;
+        private final String jdbcSuffix;
+        private final String sqlType;
+        private final boolean primitive;
+
+        JavaType(String typeName, String converter, String databaseType, String jdbcSuffix, String sqlType, boolean primitive) {
+            this.typeName = typeName;
+            this.converter = converter;
+            this.databaseType = databaseType;
+            this.jdbcSuffix = jdbcSuffix;
+            this.sqlType = sqlType;
+            this.primitive = primitive;
+        }
+
+        static JavaType of(TypeMirror type) {
+            String name = type.toString();
+            for (JavaType javaType : values()) {
+                if (javaType.typeName.equals(name)) {
+                    return javaType;
+                }
+            }
+            return null;
+        }
+
+        boolean isBoolean() {
+            return this == BOOLEAN || this == BOOLEAN_PRIMITIVE;
+        }
+
+        String read(String columnIndex) {
+            String read = "rs.get" + jdbcSuffix + "(" + columnIndex + ")";
+            if (this == DATE) {
+                return "new java.util.Date(" + read + ")";
+            }
+            return read;
+        }
+
+        List<String> bind(String getter, String var) {
+            List<String> lines = new ArrayList<>();
+            if (primitive) {
+                lines.add("statement.set" + jdbcSuffix + "(index++, " + getter + ");");
+            } else if (this == DATE) {
+                lines.add("java.util.Date " + var + " = " + getter + ";");
+                lines.add("statement.setLong(index++, " + var + " != null ? " + var + ".getTime() : 0L);");
+            } else {
+                lines.add(typeName + " " + var + " = " + getter + ";");
+                lines.add("if (" + var + " != null) {");
+                lines.add("    statement.set" + jdbcSuffix + "(index++, " + var + ");");
+                lines.add("} else {");
+                lines.add("    statement.setNull(index++, java.sql.Types." + sqlType + ");");
+                lines.add("}");
+            }
+            return lines;
+        }
+    }
+
+}
@@ -1,8 +1,8 @@
 package com.dakuupa.pulsar.typeconverter;
 
 import com.dakuupa.pulsar.Entity;
-import com.dakuupa.pulsar.ReflectUtil;
-import java.lang.reflect.Field;
+import com.dakuupa.pulsar.EntityAccessors;
+import com.dakuupa.pulsar.FieldAccessor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,16 +16,12 @@ public abstract class AbstractTypeConverter<T> implements TypeConverter<T> {
     @Override
     public Object getFieldValue(Entity entity, String fieldName) {
         try {
-            Class<?> clazz = entity.getClass();
-
-            for (Field cField : ReflectUtil.getAllFields(clazz)) {
-                cField.setAccessible(true);
-                if (cField.getName().equals(fieldName)) {
-                    return cField.get(entity);
-                }
+            FieldAccessor accessor = EntityAccessors.forClass(entity.getClass()).get(fieldName);
+            if (accessor != null) {
+                return accessor.get(entity);
             }
 
-        } catch (SecurityException | IllegalArgumentException | IllegalAccessException ex) {
+        } catch (IllegalStateException | ClassCastException ex) {
             Logger.getLogger(AbstractTypeConverter.class.getName()).log(Level.SEVERE, null, ex);
         }
 
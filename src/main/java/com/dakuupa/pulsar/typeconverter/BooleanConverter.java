@@ -0,0 +1,19 @@
+package com.dakuupa.pulsar.typeconverter;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Converter that reads and binds columns as a primitive boolean, so boolean and
+ * Boolean fields go between JDBC and the field without an intermediate box
+ *
+ * @author etwilliams
+ */
+public interface BooleanConverter {
+
+    boolean readBoolean(ResultSet rs, int columnIndex) throws SQLException;
+
+    void bindBoolean(PreparedStatement statement, int index, boolean value) throws SQLException;
+
+}
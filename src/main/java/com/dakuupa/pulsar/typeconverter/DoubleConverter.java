@@ -0,0 +1,19 @@
+package com.dakuupa.pulsar.typeconverter;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Converter that reads and binds columns as a primitive double, so double and
+ * Double fields go between JDBC and the field without an intermediate box
+ *
+ * @author etwilliams
+ */
+public interface DoubleConverter {
+
+    double readDouble(ResultSet rs, int columnIndex) throws SQLException;
+
+    void bindDouble(PreparedStatement statement, int index, double value) throws SQLException;
+
+}
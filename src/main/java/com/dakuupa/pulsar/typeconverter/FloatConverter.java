@@ -0,0 +1,19 @@
+package com.dakuupa.pulsar.typeconverter;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Converter that reads and binds columns as a primitive float, so float and
+ * Float fields go between JDBC and the field without an intermediate box
+ *
+ * @author etwilliams
+ */
+public interface FloatConverter {
+
+    float readFloat(ResultSet rs, int columnIndex) throws SQLException;
+
+    void bindFloat(PreparedStatement statement, int index, float value) throws SQLException;
+
+}
@@ -0,0 +1,18 @@
+package com.dakuupa.pulsar.typeconverter;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Converter that reads a column by its ordinal, which skips the label lookup
+ * done by {@link TypeConverter#getValue(ResultSet, String)}. Converters
+ * without it are read by the column label.
+ *
+ * @author etwilliams
+ * @param <T> object type
+ */
+public interface IndexedConverter<T> {
+
+    T getValue(ResultSet rs, int columnIndex) throws SQLException;
+
+}
@@ -0,0 +1,19 @@
+package com.dakuupa.pulsar.typeconverter;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Converter that reads and binds columns as a primitive int, so int and
+ * Integer fields go between JDBC and the field without an intermediate box
+ *
+ * @author etwilliams
+ */
+public interface IntConverter {
+
+    int readInt(ResultSet rs, int columnIndex) throws SQLException;
+
+    void bindInt(PreparedStatement statement, int index, int value) throws SQLException;
+
+}
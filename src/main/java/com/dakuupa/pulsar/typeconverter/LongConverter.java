@@ -0,0 +1,19 @@
+package com.dakuupa.pulsar.typeconverter;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Converter that reads and binds columns as a primitive long, so long and
+ * Long fields go between JDBC and the field without an intermediate box
+ *
+ * @author etwilliams
+ */
+public interface LongConverter {
+
+    long readLong(ResultSet rs, int columnIndex) throws SQLException;
+
+    void bindLong(PreparedStatement statement, int index, long value) throws SQLException;
+
+}
@@ -0,0 +1,154 @@
+package com.dakuupa.pulsar.typeconverter;
+
+import com.dakuupa.pulsar.EntityMetadata;
+import com.dakuupa.pulsar.typeconverter.mysql.BooleanTypeConverter;
+import com.dakuupa.pulsar.typeconverter.mysql.DateTypeConverter;
+import com.dakuupa.pulsar.typeconverter.mysql.DoubleTypeConverter;
+import com.dakuupa.pulsar.typeconverter.mysql.FloatTypeConverter;
+import com.dakuupa.pulsar.typeconverter.mysql.IntegerTypeConverter;
+import com.dakuupa.pulsar.typeconverter.mysql.LongTypeConverter;
+import com.dakuupa.pulsar.typeconverter.mysql.StringTypeConverter;
+import java.lang.reflect.ParameterizedType;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable set of shared type converter instances. Converters are stateless,
+ * so one instance serves every field of every row. Managers with custom
+ * converters get a registry from {@link #withOverrides}, shared by every
+ * manager that overrides the same types with the same converter classes so
+ * entity metadata is still built once. The default registry is never
+ * modified.
+ *
+ * @author etwilliams
+ */
+public final class TypeConverterRegistry {
+
+    private static final TypeConverterRegistry DEFAULT;
+
+    static {
+        //initialize default type converters
+        Map<Class<?>, TypeConverter<?>> converters = new HashMap<>();
+        converters.put(String.class, new StringTypeConverter());
+        converters.put(Integer.class, new IntegerTypeConverter());
+        converters.put(Double.class, new DoubleTypeConverter());
+        converters.put(Long.class, new LongTypeConverter());
+        converters.put(Float.class, new FloatTypeConverter());
+        converters.put(Boolean.class, new BooleanTypeConverter());
+        converters.put(Date.class, new DateTypeConverter());
+
+        //init primitive types also
+        Map<String, TypeConverter<?>> primitiveConverters = new HashMap<>();
+        primitiveConverters.put("int", converters.get(Integer.class));
+        primitiveConverters.put("double", converters.get(Double.class));
+        primitiveConverters.put("long", converters.get(Long.class));
+        primitiveConverters.put("float", converters.get(Float.class));
+        primitiveConverters.put("boolean", converters.get(Boolean.class));
+
+        DEFAULT = new TypeConverterRegistry(converters, primitiveConverters);
+    }
+
+    private final Map<Class<?>, TypeConverter<?>> converters;
+    private final Map<String, TypeConverter<?>> primitiveConverters;
+    private final ConcurrentMap<Class<?>, EntityMetadata> metadata = new ConcurrentHashMap<>();
+    // registries built by withOverrides, by overridden type and converter class
+    private final ConcurrentMap<Map<Class<?>, Class<?>>, TypeConverterRegistry> derived = new ConcurrentHashMap<>();
+
+    private TypeConverterRegistry(Map<Class<?>, TypeConverter<?>> converters, Map<String, TypeConverter<?>> primitiveConverters) {
+        this.converters = Collections.unmodifiableMap(new HashMap<>(converters));
+        this.primitiveConverters = Collections.unmodifiableMap(new HashMap<>(primitiveConverters));
+    }
+
+    /**
+     * @return registry with the built in MySQL converters
+     */
+    public static TypeConverterRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Create a registry that uses the given converters for their types and
+     * this registry for everything else. Converters are stateless, so the
+     * registry created for the first instances of a set of converter classes
+     * is returned for every later call with the same classes.
+     *
+     * @param overrides converters keyed by their generic type argument
+     * @return shared registry for the overrides, or this registry when there
+     * are none
+     */
+    public TypeConverterRegistry withOverrides(TypeConverter<?>... overrides) {
+        if (overrides == null || overrides.length == 0) {
+            return this;
+        }
+
+        Map<Class<?>, TypeConverter<?>> byType = new HashMap<>();
+        Map<Class<?>, Class<?>> key = new HashMap<>();
+        for (TypeConverter<?> converter : overrides) {
+            Class<?> clazz = (Class<?>) ((ParameterizedType) converter.getClass().getGenericSuperclass()).getActualTypeArguments()[0];
+            byType.put(clazz, converter);
+            key.put(clazz, converter.getClass());
+        }
+
+        TypeConverterRegistry registry = derived.get(key);
+        if (registry == null) {
+            Map<Class<?>, TypeConverter<?>> merged = new HashMap<>(converters);
+            merged.putAll(byType);
+            TypeConverterRegistry created = new TypeConverterRegistry(merged, primitiveConverters);
+            registry = derived.putIfAbsent(key, created);
+            if (registry == null) {
+                registry = created;
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * @param type field type
+     * @return converter for the type, or null if there is none
+     */
+    public TypeConverter<?> getConverter(Class<?> type) {
+        TypeConverter<?> converter = converters.get(type);
+        if (converter == null && type.isPrimitive()) {
+            converter = primitiveConverters.get(type.getName());
+        }
+        return converter;
+    }
+
+    /**
+     * @return converters keyed by object type
+     */
+    public Map<Class<?>, TypeConverter<?>> getConverters() {
+        return converters;
+    }
+
+    /**
+     * @return converters keyed by primitive type name
+     */
+    public Map<String, TypeConverter<?>> getPrimitiveConverters() {
+        return primitiveConverters;
+    }
+
+    /**
+     * Get the metadata of an entity class bound to this registry's
+     * converters, building it on first use
+     *
+     * @param entityClass entity class
+     * @return cached metadata
+     */
+    public EntityMetadata getMetadata(Class<?> entityClass) {
+        EntityMetadata entityMetadata = metadata.get(entityClass);
+        if (entityMetadata == null) {
+            entityMetadata = new EntityMetadata(entityClass, this);
+            EntityMetadata existing = metadata.putIfAbsent(entityClass, entityMetadata);
+            if (existing != null) {
+                entityMetadata = existing;
+            }
+        }
+        return entityMetadata;
+    }
+
+}
@@ -1,7 +1,10 @@
 package com.dakuupa.pulsar.typeconverter.mysql;
 
 import com.dakuupa.pulsar.Entity;
+import com.dakuupa.pulsar.typeconverter.BooleanConverter;
+import com.dakuupa.pulsar.typeconverter.IndexedConverter;
 import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 
 import java.sql.SQLException;
@@ -10,7 +13,7 @@ import java.sql.SQLException;
  *
  * @author etwilliams
  */
-public class BooleanTypeConverter extends MySQLTypeConverter<Boolean> {
+public class BooleanTypeConverter extends MySQLTypeConverter<Boolean> implements BooleanConverter, IndexedConverter<Boolean> {
 
     @Override
     public String getDatabaseType(Field field) {
@@ -27,4 +30,19 @@ public class BooleanTypeConverter extends MySQLTypeConverter<Boolean> {
         return rs.getBoolean(columnName);
     }
 
+    @Override
+    public Boolean getValue(ResultSet rs, int columnIndex) throws SQLException {
+        return rs.getBoolean(columnIndex);
+    }
+
+    @Override
+    public boolean readBoolean(ResultSet rs, int columnIndex) throws SQLException {
+        return rs.getBoolean(columnIndex);
+    }
+
+    @Override
+    public void bindBoolean(PreparedStatement statement, int index, boolean value) throws SQLException {
+        statement.setBoolean(index, value);
+    }
+
 }
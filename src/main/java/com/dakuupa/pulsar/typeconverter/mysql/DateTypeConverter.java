@@ -1,6 +1,7 @@
 package com.dakuupa.pulsar.typeconverter.mysql;
 
 import com.dakuupa.pulsar.Entity;
+import com.dakuupa.pulsar.typeconverter.IndexedConverter;
 import java.lang.reflect.Field;
 import java.sql.ResultSet;
 
@@ -11,7 +12,7 @@ import java.util.Date;
  *
  * @author etwilliams
  */
-public class DateTypeConverter extends MySQLTypeConverter<Date> {
+public class DateTypeConverter extends MySQLTypeConverter<Date> implements IndexedConverter<Date> {
 
     @Override
     public String getDatabaseType(Field field) {
@@ -33,4 +34,10 @@ public class DateTypeConverter extends MySQLTypeConverter<Date> {
         return new Date(val);
     }
 
+    @Override
+    public Date getValue(ResultSet rs, int columnIndex) throws SQLException {
+        long val = rs.getLong(columnIndex);
+        return new Date(val);
+    }
+
 }
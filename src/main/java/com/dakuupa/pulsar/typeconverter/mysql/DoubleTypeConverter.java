@@ -1,7 +1,10 @@
 package com.dakuupa.pulsar.typeconverter.mysql;
 
 import com.dakuupa.pulsar.Entity;
+import com.dakuupa.pulsar.typeconverter.DoubleConverter;
+import com.dakuupa.pulsar.typeconverter.IndexedConverter;
 import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 
 import java.sql.SQLException;
@@ -10,7 +13,7 @@ import java.sql.SQLException;
  *
  * @author etwilliams
  */
-public class DoubleTypeConverter extends MySQLTypeConverter<Double> {
+public class DoubleTypeConverter extends MySQLTypeConverter<Double> implements DoubleConverter, IndexedConverter<Double> {
 
     @Override
     public String getDatabaseType(Field field) {
@@ -27,4 +30,19 @@ public class DoubleTypeConverter extends MySQLTypeConverter<Double> {
         return rs.getDouble(columnName);
     }
 
+    @Override
+    public Double getValue(ResultSet rs, int columnIndex) throws SQLException {
+        return rs.getDouble(columnIndex);
+    }
+
+    @Override
+    public double readDouble(ResultSet rs, int columnIndex) throws SQLException {
+        return rs.getDouble(columnIndex);
+    }
+
+    @Override
+    public void bindDouble(PreparedStatement statement, int index, double value) throws SQLException {
+        statement.setDouble(index, value);
+    }
+
 }
@@ -1,7 +1,10 @@
 package com.dakuupa.pulsar.typeconverter.mysql;
 
 import com.dakuupa.pulsar.Entity;
+import com.dakuupa.pulsar.typeconverter.FloatConverter;
+import com.dakuupa.pulsar.typeconverter.IndexedConverter;
 import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 
 import java.sql.SQLException;
@@ -10,7 +13,7 @@ import java.sql.SQLException;
  *
  * @author etwilliams
  */
-public class FloatTypeConverter extends MySQLTypeConverter<Float> {
+public class FloatTypeConverter extends MySQLTypeConverter<Float> implements FloatConverter, IndexedConverter<Float> {
 
     @Override
     public String getDatabaseType(Field field) {
@@ -27,4 +30,19 @@ public class FloatTypeConverter extends MySQLTypeConverter<Float> {
         return rs.getFloat(columnName);
     }
 
+    @Override
+    public Float getValue(ResultSet rs, int columnIndex) throws SQLException {
+        return rs.getFloat(columnIndex);
+    }
+
+    @Override
+    public float readFloat(ResultSet rs, int columnIndex) throws SQLException {
+        return rs.getFloat(columnIndex);
+    }
+
+    @Override
+    public void bindFloat(PreparedStatement statement, int index, float value) throws SQLException {
+        statement.setFloat(index, value);
+    }
+
 }
@@ -1,8 +1,11 @@
 package com.dakuupa.pulsar.typeconverter.mysql;
 
 import com.dakuupa.pulsar.Entity;
+import com.dakuupa.pulsar.typeconverter.IndexedConverter;
+import com.dakuupa.pulsar.typeconverter.IntConverter;
 import static com.dakuupa.pulsar.typeconverter.mysql.MySQLTypeConverter.DB_TYPE_INTEGER;
 import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 
 import java.sql.SQLException;
@@ -11,7 +14,7 @@ import java.sql.SQLException;
  *
  * @author etwilliams
  */
-public class IntegerTypeConverter extends MySQLTypeConverter<Integer> {
+public class IntegerTypeConverter extends MySQLTypeConverter<Integer> implements IntConverter, IndexedConverter<Integer> {
 
     @Override
     public String getDatabaseType(Field field) {
@@ -28,4 +31,19 @@ public class IntegerTypeConverter extends MySQLTypeConverter<Integer> {
         return rs.getInt(columnName);
     }
 
+    @Override
+    public Integer getValue(ResultSet rs, int columnIndex) throws SQLException {
+        return rs.getInt(columnIndex);
+    }
+
+    @Override
+    public int readInt(ResultSet rs, int columnIndex) throws SQLException {
+        return rs.getInt(columnIndex);
+    }
+
+    @Override
+    public void bindInt(PreparedStatement statement, int index, int value) throws SQLException {
+        statement.setInt(index, value);
+    }
+
 }
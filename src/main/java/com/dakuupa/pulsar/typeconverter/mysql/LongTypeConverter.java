@@ -1,7 +1,10 @@
 package com.dakuupa.pulsar.typeconverter.mysql;
 
 import com.dakuupa.pulsar.Entity;
+import com.dakuupa.pulsar.typeconverter.IndexedConverter;
+import com.dakuupa.pulsar.typeconverter.LongConverter;
 import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 
 import java.sql.SQLException;
@@ -10,7 +13,7 @@ import java.sql.SQLException;
  *
  * @author etwilliams
  */
-public class LongTypeConverter extends MySQLTypeConverter<Long> {
+public class LongTypeConverter extends MySQLTypeConverter<Long> implements LongConverter, IndexedConverter<Long> {
 
     @Override
     public String getDatabaseType(Field field) {
@@ -27,4 +30,19 @@ public class LongTypeConverter extends MySQLTypeConverter<Long> {
         return rs.getLong(columnName);
     }
 
+    @Override
+    public Long getValue(ResultSet rs, int columnIndex) throws SQLException {
+        return rs.getLong(columnIndex);
+    }
+
+    @Override
+    public long readLong(ResultSet rs, int columnIndex) throws SQLException {
+        return rs.getLong(columnIndex);
+    }
+
+    @Override
+    public void bindLong(PreparedStatement statement, int index, long value) throws SQLException {
+        statement.setLong(index, value);
+    }
+
 }
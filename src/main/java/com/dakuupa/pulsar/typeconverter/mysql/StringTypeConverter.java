@@ -4,6 +4,7 @@ import com.dakuupa.pulsar.Entity;
 import com.dakuupa.pulsar.annotations.DbMysqlLongText;
 import com.dakuupa.pulsar.annotations.DbMysqlMediumText;
 import com.dakuupa.pulsar.annotations.DbMysqlText;
+import com.dakuupa.pulsar.typeconverter.IndexedConverter;
 import java.lang.reflect.Field;
 import java.sql.ResultSet;
 
@@ -13,7 +14,7 @@ import java.sql.SQLException;
  *
  * @author etwilliams
  */
-public class StringTypeConverter extends MySQLTypeConverter<String> {
+public class StringTypeConverter extends MySQLTypeConverter<String> implements IndexedConverter<String> {
 
     @Override
     public String getDatabaseType(Field field) {
@@ -39,4 +40,9 @@ public class StringTypeConverter extends MySQLTypeConverter<String> {
         return rs.getString(columnName);
     }
 
+    @Override
+    public String getValue(ResultSet rs, int columnIndex) throws SQLException {
+        return rs.getString(columnIndex);
+    }
+
 }
@@ -0,0 +1,132 @@
+package com.dakuupa.pulsar;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Date;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Updates only send the columns changed since the entity was read or written
+ *
+ * @author etwilliams
+ */
+public class ChangeTrackingTest {
+
+    public static class Purchase extends Entity {
+
+        public String name;
+        public int qty;
+        public Double price;
+        public Boolean paid;
+        public Date at;
+
+    }
+
+    public static class PurchaseManager extends AbstractDatabaseManager<Purchase> {
+
+        public PurchaseManager(Connection con) {
+            super(con, Purchase.class);
+        }
+
+    }
+
+    private Connection connection;
+    private PurchaseManager manager;
+    private long id;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = TestDatabase.open();
+        manager = new PurchaseManager(connection);
+        Purchase purchase = new Purchase();
+        purchase.name = "first";
+        purchase.qty = 2;
+        purchase.price = 9.5;
+        purchase.paid = false;
+        purchase.at = new Date(1000000L);
+        manager.insert(purchase);
+        id = purchase.getId();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        manager.close();
+        connection.close();
+    }
+
+    @Test
+    public void readAndWrittenEntitiesAreClean() {
+        Purchase purchase = manager.read(id);
+        assertFalse(manager.isDirty(purchase));
+
+        purchase.qty = 3;
+        assertTrue(manager.isDirty(purchase));
+        assertTrue(manager.update(purchase));
+        assertFalse(manager.isDirty(purchase));
+    }
+
+    @Test
+    public void detectsChangesOfEveryKind() {
+        Purchase purchase = manager.read(id);
+
+        purchase.name = "second";
+        assertTrue(manager.isDirty(purchase));
+        purchase.name = "first";
+        assertFalse(manager.isDirty(purchase));
+
+        purchase.price = 10.0;
+        assertTrue(manager.isDirty(purchase));
+        purchase.price = 9.5;
+
+        purchase.paid = null;
+        assertTrue(manager.isDirty(purchase));
+        purchase.paid = false;
+        assertFalse(manager.isDirty(purchase));
+
+        // dates are compared by value, so changes in place are seen
+        purchase.at.setTime(2000000L);
+        assertTrue(manager.isDirty(purchase));
+    }
+
+    @Test
+    public void updateSendsOnlyChangedColumns() throws SQLException {
+        Purchase purchase = manager.read(id);
+        TestDatabase.execute(connection, "UPDATE purchase SET qty = 42 WHERE id = " + id);
+
+        purchase.name = null;
+        purchase.paid = true;
+        assertTrue(manager.update(purchase));
+
+        Purchase read = manager.read(id);
+        assertEquals(42, read.qty);
+        assertNull(read.name);
+        assertEquals(Boolean.TRUE, read.paid);
+    }
+
+    @Test
+    public void unchangedUpdateIsSkipped() {
+        Purchase purchase = manager.read(id);
+        long version = QueryCache.getTableVersion(manager.getTableName());
+
+        assertTrue(manager.update(purchase));
+        assertEquals(version, QueryCache.getTableVersion(manager.getTableName()));
+    }
+
+    @Test
+    public void entityWithoutSnapshotWritesEveryColumn() throws SQLException {
+        Purchase purchase = manager.read(id);
+        purchase.setSnapshot(null);
+        assertTrue(manager.isDirty(purchase));
+
+        TestDatabase.execute(connection, "UPDATE purchase SET name = 'concurrent' WHERE id = " + id);
+        assertTrue(manager.update(purchase));
+        assertEquals("first", manager.read(id).name);
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.dakuupa.pulsar;
+
+import com.dakuupa.pulsar.typeconverter.TypeConverterRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author etwilliams
+ */
+public class CriteriaTest {
+
+    public static class Item extends Entity {
+
+        public String name;
+        public int qty;
+
+    }
+
+    private static final EntityMetadata METADATA = new EntityMetadata(Item.class, TypeConverterRegistry.getDefault());
+    private static final String SELECT = "SELECT * FROM item";
+
+    private final List<Object> params = new ArrayList<>();
+
+    private String sql(Criteria criteria) {
+        return criteria.toSql(SELECT, METADATA, params, true);
+    }
+
+    @Test
+    public void emptyCriteriaHasNoWhere() {
+        assertEquals(SELECT, sql(Criteria.create()));
+        assertEquals(Collections.emptyList(), params);
+    }
+
+    @Test
+    public void comparisonsAreAndedParameters() {
+        String sql = sql(Criteria.create().gt("qty", 5).le("qty", 9).ne("name", "x"));
+
+        assertEquals(SELECT + " WHERE qty > ? AND qty <= ? AND name <> ?", sql);
+        assertEquals(Arrays.<Object>asList(5, 9, "x"), params);
+    }
+
+    @Test
+    public void nullValuesBecomeNullChecks() {
+        String sql = sql(Criteria.create().eq("name", null).ne("qty", null));
+
+        assertEquals(SELECT + " WHERE name IS NULL AND qty IS NOT NULL", sql);
+        assertEquals(Collections.emptyList(), params);
+    }
+
+    @Test
+    public void between() {
+        assertEquals(SELECT + " WHERE qty BETWEEN ? AND ?", sql(Criteria.create().between("qty", 1, 3)));
+        assertEquals(Arrays.<Object>asList(1, 3), params);
+    }
+
+    @Test
+    public void inIsPaddedToPowerOfTwo() {
+        String sql = sql(Criteria.create().in("qty", Arrays.asList(1, 2, 3)));
+
+        assertEquals(SELECT + " WHERE qty IN (?, ?, ?, ?)", sql);
+        assertEquals(Arrays.<Object>asList(1, 2, 3, 3), params);
+    }
+
+    @Test
+    public void emptyInMatchesNothing() {
+        assertEquals(SELECT + " WHERE 1 = 0", sql(Criteria.create().in("qty", Collections.emptyList())));
+    }
+
+    @Test
+    public void startsWithEscapesWildcards() {
+        String sql = sql(Criteria.create().startsWith("name", "a%b_c\\"));
+
+        assertEquals(SELECT + " WHERE name LIKE ?", sql);
+        assertEquals(Collections.<Object>singletonList("a\\%b\\_c\\\\%"), params);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void startsWithRejectsNonStringColumn() {
+        sql(Criteria.create().startsWith("qty", "1"));
+    }
+
+    @Test
+    public void orGroupsAlternatives() {
+        String sql = sql(Criteria.create().gt("qty", 0)
+                .or(Criteria.create().eq("name", "a"), Criteria.create().eq("name", "b").lt("qty", 9)));
+
+        assertEquals(SELECT + " WHERE qty > ? AND ((name = ?) OR (name = ? AND qty < ?))", sql);
+        assertEquals(Arrays.<Object>asList(0, "a", "b", 9), params);
+    }
+
+    @Test
+    public void orderAndLimit() {
+        Criteria criteria = Criteria.create().eq("qty", 1).orderBy("name").orderByDesc("qty").limit(10);
+
+        assertEquals(SELECT + " WHERE qty = ? ORDER BY name ASC, qty DESC LIMIT ?", sql(criteria));
+        assertEquals(Arrays.<Object>asList(1, 10), params);
+    }
+
+    @Test
+    public void countLeavesOutOrderAndLimit() {
+        Criteria criteria = Criteria.create().eq("qty", 1).orderBy("name").limit(10);
+
+        assertEquals("SELECT COUNT(*) FROM item WHERE qty = ?", criteria.toSql("SELECT COUNT(*) FROM item", METADATA, params, false));
+        assertEquals(Collections.<Object>singletonList(1), params);
+    }
+
+    @Test
+    public void sameShapeSameSql() {
+        List<Object> other = new ArrayList<>();
+        String first = sql(Criteria.create().gt("qty", 1).in("name", Arrays.asList("a", "b", "c")));
+        String second = Criteria.create().gt("qty", 7).in("name", Arrays.asList("x", "y", "z", "w"))
+                .toSql(SELECT, METADATA, other, true);
+
+        assertEquals(first, second);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownColumn() {
+        sql(Criteria.create().eq("qty; DROP TABLE item", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownOrderColumn() {
+        sql(Criteria.create().orderBy("missing"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNullComparisonValue() {
+        Criteria.create().gt("qty", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOrderedAlternative() {
+        Criteria.create().or(Criteria.create().limit(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeLimit() {
+        Criteria.create().limit(-1);
+    }
+
+}
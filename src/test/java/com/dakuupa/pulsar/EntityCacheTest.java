@@ -0,0 +1,176 @@
+package com.dakuupa.pulsar;
+
+import com.dakuupa.pulsar.annotations.DbCached;
+import com.dakuupa.pulsar.typeconverter.TypeConverterRegistry;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author etwilliams
+ */
+public class EntityCacheTest {
+
+    // 16 segments of 2 rows, ids 16 apart share a segment
+    @DbCached(maxEntries = 32)
+    public static class LruRow extends Entity {
+
+        public String name;
+        public Date at;
+
+    }
+
+    @DbCached(maxEntries = 8, ttl = 1)
+    public static class TtlRow extends Entity {
+
+        public String name;
+
+    }
+
+    public static class PlainRow extends Entity {
+
+        public String name;
+
+    }
+
+    private static <T extends Entity> EntityCache<T> cache(Class<T> entityClass, String tableName) {
+        return EntityCache.forEntity(entityClass, tableName, TypeConverterRegistry.getDefault().getMetadata(entityClass));
+    }
+
+    private static LruRow lru(long id, String name) {
+        LruRow row = new LruRow();
+        row.setId(id);
+        row.name = name;
+        row.at = new Date(id);
+        return row;
+    }
+
+    @Test
+    public void sharedPerClassAndTable() {
+        assertSame(cache(LruRow.class, "shared"), cache(LruRow.class, "shared"));
+        assertNotSame(cache(LruRow.class, "shared"), cache(LruRow.class, "other"));
+        assertNull(cache(PlainRow.class, "plain"));
+    }
+
+    @Test
+    public void hitsReturnCopies() {
+        EntityCache<LruRow> cache = cache(LruRow.class, "copies");
+        LruRow row = lru(1, "a");
+        cache.put(row);
+
+        LruRow first = cache.get(1);
+        LruRow second = cache.get(1);
+        assertNotSame(row, first);
+        assertNotSame(first, second);
+        assertNotSame(first.at, second.at);
+        assertEquals("a", first.name);
+        assertEquals(new Date(1), first.at);
+        assertTrue(first.isPersisted());
+
+        // changing a copy or the original does not change the cached row
+        first.at.setTime(99);
+        row.name = "changed";
+        assertEquals(new Date(1), cache.get(1).at);
+        assertEquals("a", cache.get(1).name);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        EntityCache<LruRow> cache = cache(LruRow.class, "lru");
+        cache.put(lru(0, "a"));
+        cache.put(lru(16, "b"));
+        assertNotNull(cache.get(0));
+
+        cache.put(lru(32, "c"));
+
+        assertNotNull(cache.get(0));
+        assertNull(cache.get(16));
+        assertNotNull(cache.get(32));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void staysWithinMaxEntries() {
+        EntityCache<LruRow> cache = cache(LruRow.class, "bounded");
+        for (long id = 0; id < 100; id++) {
+            cache.put(lru(id, "row " + id));
+        }
+
+        assertEquals(32, cache.size());
+        assertEquals(68, cache.getEvictions());
+        for (long id = 68; id < 100; id++) {
+            assertNotNull(cache.get(id));
+        }
+    }
+
+    @Test
+    public void expiresAfterTtl() throws InterruptedException {
+        EntityCache<TtlRow> cache = cache(TtlRow.class, "ttl");
+        TtlRow row = new TtlRow();
+        row.setId(1L);
+        row.name = "a";
+        cache.put(row);
+        assertNotNull(cache.get(1));
+
+        Thread.sleep(1100);
+
+        assertNull(cache.get(1));
+        assertEquals(1, cache.getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void staleLoadIsNotCached() {
+        EntityCache<LruRow> cache = cache(LruRow.class, "stale");
+        long stamp = cache.stamp();
+        cache.put(lru(2, "written"));
+
+        cache.loaded(Collections.singletonList(lru(1, "read before the write")), stamp, 1000);
+        assertNull(cache.get(1));
+
+        cache.loaded(Arrays.asList(lru(1, "a"), lru(3, "b")), cache.stamp(), 2000);
+        assertNotNull(cache.get(1));
+        assertNotNull(cache.get(3));
+        assertEquals(3, cache.getLoads());
+        assertEquals(3000, cache.getTotalLoadTime());
+    }
+
+    @Test
+    public void partialWriteInvalidates() {
+        EntityCache<LruRow> cache = cache(LruRow.class, "partial");
+        cache.put(lru(1, "full"));
+        LruRow partial = lru(1, "partial");
+        BitSet unloaded = new BitSet();
+        unloaded.set(0);
+        partial.setUnloaded(unloaded);
+
+        cache.put(partial);
+
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        EntityCache<LruRow> cache = cache(LruRow.class, "counters");
+        cache.put(lru(1, "a"));
+        cache.get(1);
+        cache.get(1);
+        cache.get(2);
+        cache.invalidate(1);
+        cache.get(1);
+
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0.5, cache.getHitRatio(), 0);
+    }
+
+}
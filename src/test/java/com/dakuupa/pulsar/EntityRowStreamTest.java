@@ -0,0 +1,141 @@
+package com.dakuupa.pulsar;
+
+import com.dakuupa.pulsar.typeconverter.TypeConverterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author etwilliams
+ */
+public class EntityRowStreamTest {
+
+    public static class Row extends Entity {
+
+        public String name;
+        public int qty;
+        public boolean active;
+        public Date at;
+
+    }
+
+    private static final EntityMetadata METADATA = new EntityMetadata(Row.class, TypeConverterRegistry.getDefault());
+
+    private static List<ColumnMapping> columns(String... names) {
+        List<ColumnMapping> columns = new ArrayList<>();
+        for (String name : names) {
+            columns.add(METADATA.getColumnByColumnName(name));
+        }
+        return columns;
+    }
+
+    private static Row row(String name, int qty, boolean active, Date at) {
+        Row row = new Row();
+        row.name = name;
+        row.qty = qty;
+        row.active = active;
+        row.at = at;
+        return row;
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[3];
+        int read;
+        while ((read = in.read(chunk, 0, chunk.length)) != -1) {
+            out.write(chunk, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void writesTabSeparatedRows() throws IOException {
+        List<Row> rows = Arrays.asList(row("a", 3, true, new Date(1000)), row("b", -1, false, new Date(0)));
+        EntityRowStream stream = new EntityRowStream(columns("name", "qty", "active", "at"), rows.iterator(), Integer.MAX_VALUE);
+
+        assertEquals("a\t3\t1\t1000\nb\t-1\t0\t0\n", readAll(stream));
+        assertEquals(2, stream.getRows());
+    }
+
+    @Test
+    public void writesNullAsBackslashN() throws IOException {
+        // the date converter writes a null date as 0, like insert does
+        List<Row> rows = Arrays.asList(row(null, 0, false, null));
+        EntityRowStream stream = new EntityRowStream(columns("name", "at"), rows.iterator(), Integer.MAX_VALUE);
+
+        assertEquals("\\N\t0\n", readAll(stream));
+    }
+
+    @Test
+    public void escapesSpecialCharacters() throws IOException {
+        List<Row> rows = Arrays.asList(row("tab\there\nnew\rline \\ back\0zero", 0, false, null));
+        EntityRowStream stream = new EntityRowStream(columns("name"), rows.iterator(), Integer.MAX_VALUE);
+
+        assertEquals("tab\\there\\nnew\\rline \\\\ back\\0zero\n", readAll(stream));
+    }
+
+    @Test
+    public void literalBackslashNIsNotNull() throws IOException {
+        List<Row> rows = Arrays.asList(row("\\N", 0, false, null));
+        EntityRowStream stream = new EntityRowStream(columns("name"), rows.iterator(), Integer.MAX_VALUE);
+
+        assertEquals("\\\\N\n", readAll(stream));
+    }
+
+    @Test
+    public void encodesUtf8() throws IOException {
+        List<Row> rows = Arrays.asList(row("caf\u00e9 \u20ac", 0, false, null));
+        EntityRowStream stream = new EntityRowStream(columns("name"), rows.iterator(), Integer.MAX_VALUE);
+
+        assertEquals("caf\u00e9 \u20ac\n", readAll(stream));
+    }
+
+    @Test
+    public void stopsAtMaxRowsAndSkipsNulls() throws IOException {
+        List<Row> rows = Arrays.asList(row("a", 0, false, null), null, row("b", 0, false, null), row("c", 0, false, null));
+        Iterator<Row> it = rows.iterator();
+
+        EntityRowStream first = new EntityRowStream(columns("name"), it, 2);
+        assertEquals("a\nb\n", readAll(first));
+        assertEquals(2, first.getRows());
+
+        EntityRowStream rest = new EntityRowStream(columns("name"), it, 2);
+        assertEquals("c\n", readAll(rest));
+        assertEquals(-1, rest.read());
+    }
+
+    @Test
+    public void skipsPartialEntities() throws IOException {
+        Row partial = row("p", 0, false, null);
+        BitSet unloaded = new BitSet();
+        unloaded.set(0);
+        partial.setUnloaded(unloaded);
+        List<Row> rows = Arrays.asList(row("a", 0, false, null), partial, row("b", 0, false, null));
+        EntityRowStream stream = new EntityRowStream(columns("name"), rows.iterator(), Integer.MAX_VALUE);
+
+        assertEquals("a\nb\n", readAll(stream));
+        assertEquals(2, stream.getRows());
+        assertEquals(1, stream.getSkipped());
+    }
+
+    @Test
+    public void singleByteReads() throws IOException {
+        List<Row> rows = Arrays.asList(row("xy", 0, false, null));
+        EntityRowStream stream = new EntityRowStream(columns("name"), rows.iterator(), Integer.MAX_VALUE);
+
+        assertEquals('x', stream.read());
+        assertEquals('y', stream.read());
+        assertEquals('\n', stream.read());
+        assertEquals(-1, stream.read());
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.dakuupa.pulsar;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author etwilliams
+ */
+public class IdentityMapTest {
+
+    public static class Note extends Entity {
+
+        public String text;
+
+    }
+
+    public static class NoteManager extends AbstractDatabaseManager<Note> {
+
+        public NoteManager(Connection con) {
+            super(con, Note.class);
+        }
+
+    }
+
+    private Connection connection;
+    private NoteManager manager;
+    private IdentityMap<Note> identities;
+    private long first;
+    private long second;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = TestDatabase.open();
+        manager = new NoteManager(connection);
+        first = insert("first");
+        second = insert("second");
+        identities = manager.enableIdentityMap();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        manager.close();
+        connection.close();
+    }
+
+    private long insert(String text) {
+        Note note = new Note();
+        note.text = text;
+        manager.insert(note);
+        return note.getId();
+    }
+
+    @Test
+    public void readsReturnOneInstancePerRow() {
+        Note read = manager.read(first);
+        assertSame(read, manager.read(first));
+        assertEquals(1, identities.getHits());
+        assertEquals(1, identities.getMisses());
+    }
+
+    @Test
+    public void listAndReadAllShareInstances() {
+        Note read = manager.read(first);
+
+        List<Note> listed = manager.list();
+        assertEquals(2, listed.size());
+        assertTrue(listed.get(0) == read || listed.get(1) == read);
+
+        Note other = listed.get(0) == read ? listed.get(1) : listed.get(0);
+        assertSame(other, manager.readAll(Arrays.asList(second)).getMap().get(second));
+        assertEquals(2, identities.size());
+    }
+
+    @Test
+    public void writesJoinTheMap() {
+        long id = insert("third");
+        assertTrue(identities.contains(id));
+        assertSame(manager.read(id), manager.read(id));
+    }
+
+    @Test
+    public void deleteDropsTheInstance() {
+        Note read = manager.read(first);
+        assertTrue(manager.delete(read));
+
+        assertFalse(identities.contains(first));
+        assertNull(manager.read(first));
+    }
+
+    @Test
+    public void projectionsStayOut() {
+        Note partial = manager.read(first, Projection.of("id"));
+        assertTrue(partial.isPartial());
+        assertFalse(identities.contains(first));
+        assertNotSame(partial, manager.read(first));
+    }
+
+    @Test
+    public void rollbackClearsTheMap() throws SQLException {
+        Note read = manager.read(first);
+
+        try (UnitOfWork unit = new UnitOfWork(connection)) {
+            read.text = "changed";
+            unit.update(manager, read);
+            unit.flush();
+            unit.rollback();
+        }
+
+        assertEquals(0, identities.size());
+        Note reread = manager.read(first);
+        assertNotSame(read, reread);
+        assertEquals("first", reread.text);
+    }
+
+    @Test
+    public void clearAndDisableDropInstances() {
+        Note read = manager.read(first);
+        manager.clearIdentityMap();
+        assertNotSame(read, manager.read(first));
+
+        manager.disableIdentityMap();
+        assertNotSame(manager.read(first), manager.read(first));
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.dakuupa.pulsar;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author etwilliams
+ */
+public class InsertTest {
+
+    public static class Defaulted extends Entity {
+
+        public String label;
+        public Integer qty;
+        public int amount;
+
+    }
+
+    public static class DefaultedManager extends AbstractDatabaseManager<Defaulted> {
+
+        public DefaultedManager(Connection con) {
+            super(con, Defaulted.class);
+        }
+
+    }
+
+    private Connection connection;
+    private DefaultedManager manager;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = TestDatabase.open();
+        TestDatabase.execute(connection, "CREATE TABLE defaulted (id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,"
+                + " label VARCHAR(20) DEFAULT 'none', qty INT NOT NULL DEFAULT 7, amount INT)");
+        manager = new DefaultedManager(connection);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        manager.close();
+        connection.close();
+    }
+
+    private static Defaulted row(String label, Integer qty, int amount) {
+        Defaulted row = new Defaulted();
+        row.label = label;
+        row.qty = qty;
+        row.amount = amount;
+        return row;
+    }
+
+    @Test
+    public void insertLeavesOutNullColumns() {
+        Defaulted row = row(null, null, 3);
+        assertTrue(manager.insert(row));
+        assertNotNull(row.getId());
+
+        Defaulted read = manager.read(row.getId());
+        assertEquals("none", read.label);
+        assertEquals(Integer.valueOf(7), read.qty);
+        assertEquals(3, read.amount);
+    }
+
+    @Test
+    public void insertWritesValues() {
+        Defaulted row = row("set", 2, 4);
+        assertTrue(manager.insert(row));
+
+        Defaulted read = manager.read(row.getId());
+        assertEquals("set", read.label);
+        assertEquals(Integer.valueOf(2), read.qty);
+        assertEquals(4, read.amount);
+    }
+
+    @Test
+    public void insertAllBatchesEachSetOfNullColumns() {
+        Defaulted full = row("a", 1, 1);
+        Defaulted noLabel = row(null, 2, 2);
+        Defaulted noQty = row("c", null, 3);
+        Defaulted alsoFull = row("d", 4, 4);
+
+        assertEquals(4, manager.insertAll(Arrays.asList(full, noLabel, noQty, alsoFull)));
+
+        assertEquals("a", manager.read(full.getId()).label);
+        assertEquals("none", manager.read(noLabel.getId()).label);
+        assertEquals(Integer.valueOf(2), manager.read(noLabel.getId()).qty);
+        assertEquals(Integer.valueOf(7), manager.read(noQty.getId()).qty);
+        assertEquals(Integer.valueOf(4), manager.read(alsoFull.getId()).qty);
+    }
+
+    @Test
+    public void upsertKeepsColumnsThatAreNull() {
+        Defaulted row = row("kept", 1, 1);
+        manager.insert(row);
+
+        Defaulted change = row(null, 5, 6);
+        change.setId(row.getId());
+        manager.upsert(change);
+
+        Defaulted read = manager.read(row.getId());
+        assertEquals("kept", read.label);
+        assertEquals(Integer.valueOf(5), read.qty);
+        assertEquals(6, read.amount);
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.dakuupa.pulsar;
+
+import com.dakuupa.pulsar.typeconverter.TypeConverterRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author etwilliams
+ */
+public class OffHeapEntityCacheTest {
+
+    public static class Row extends Entity {
+
+        public String name;
+        public int qty;
+        public Integer count;
+        public long total;
+        public double ratio;
+        public Float weight;
+        public boolean active;
+        public Date at;
+
+    }
+
+    private static final EntityMetadata METADATA = TypeConverterRegistry.getDefault().getMetadata(Row.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Row row(long id, String name) {
+        Row row = new Row();
+        row.setId(id);
+        row.setPersisted(true);
+        row.name = name;
+        row.qty = (int) id * 3;
+        row.count = (int) id;
+        row.total = id << 40;
+        row.ratio = id / 4.0;
+        row.weight = 1.5f;
+        row.active = id % 2 == 0;
+        row.at = new Date(id * 1000);
+        return row;
+    }
+
+    private static void assertRow(Row expected, Row actual) {
+        assertNotNull(actual);
+        assertNotSame(expected, actual);
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.qty, actual.qty);
+        assertEquals(expected.count, actual.count);
+        assertEquals(expected.total, actual.total);
+        assertEquals(expected.ratio, actual.ratio, 0);
+        assertEquals(expected.weight, actual.weight);
+        assertEquals(expected.active, actual.active);
+        assertEquals(expected.at, actual.at);
+        assertTrue(actual.isPersisted());
+    }
+
+    @Test
+    public void roundTripsEveryColumnKind() throws IOException {
+        try (OffHeapEntityCache<Row> cache = new OffHeapEntityCache<>(Row.class, METADATA, 1 << 16, null)) {
+            Row row = row(7, "café €");
+            cache.put(row);
+
+            assertRow(row, cache.get(7));
+            assertEquals(1, cache.size());
+            assertEquals(1, cache.getHits());
+        }
+    }
+
+    @Test
+    public void roundTripsNulls() throws IOException {
+        try (OffHeapEntityCache<Row> cache = new OffHeapEntityCache<>(Row.class, METADATA, 1 << 16, null)) {
+            Row row = row(1, null);
+            row.count = null;
+            row.weight = null;
+            row.at = null;
+            cache.put(row);
+
+            Row cached = cache.get(1);
+            assertNull(cached.name);
+            assertNull(cached.count);
+            assertNull(cached.weight);
+            assertNull(cached.at);
+        }
+    }
+
+    @Test
+    public void missesInvalidatesAndClears() throws IOException {
+        try (OffHeapEntityCache<Row> cache = new OffHeapEntityCache<>(Row.class, METADATA, 1 << 16, null)) {
+            assertNull(cache.get(1));
+            assertEquals(1, cache.getMisses());
+
+            cache.put(row(1, "a"));
+            cache.put(row(2, "b"));
+            cache.invalidate(1);
+            assertNull(cache.get(1));
+            assertNotNull(cache.get(2));
+
+            cache.clear();
+            assertEquals(0, cache.size());
+            assertEquals(0, cache.getLiveBytes());
+            assertNull(cache.get(2));
+        }
+    }
+
+    @Test
+    public void replacedRowsBecomeGarbage() throws IOException {
+        try (OffHeapEntityCache<Row> cache = new OffHeapEntityCache<>(Row.class, METADATA, 1 << 16, null)) {
+            cache.put(row(1, "first"));
+            long live = cache.getLiveBytes();
+            cache.put(row(1, "second"));
+
+            assertEquals("second", cache.get(1).name);
+            assertEquals(1, cache.size());
+            assertEquals(live, cache.getGarbageBytes());
+        }
+    }
+
+    @Test
+    public void staleLoadIsNotCached() throws IOException {
+        try (OffHeapEntityCache<Row> cache = new OffHeapEntityCache<>(Row.class, METADATA, 1 << 16, null)) {
+            long stamp = cache.stamp();
+            cache.put(row(2, "written"));
+
+            assertFalse(cache.load(row(1, "read before the write"), stamp));
+            assertNull(cache.get(1));
+            assertTrue(cache.load(row(1, "read after"), cache.stamp()));
+        }
+    }
+
+    @Test
+    public void partialRowsAreNotCached() throws IOException {
+        try (OffHeapEntityCache<Row> cache = new OffHeapEntityCache<>(Row.class, METADATA, 1 << 16, null)) {
+            cache.put(row(1, "full"));
+            Row partial = row(1, "partial");
+            partial.setUnloaded(new BitSet());
+            partial.getUnloaded().set(0);
+            cache.put(partial);
+
+            assertNull(cache.get(1));
+        }
+    }
+
+    @Test
+    public void compactsWhenFull() throws IOException {
+        int maxBytes = 2000;
+        try (OffHeapEntityCache<Row> cache = new OffHeapEntityCache<>(Row.class, METADATA, maxBytes, null)) {
+            Random random = new Random(1);
+            Map<Long, Row> expected = new HashMap<>();
+            for (int i = 0; i < 20000; i++) {
+                long id = random.nextInt(100);
+                if (random.nextInt(3) < 2) {
+                    Row row = row(id, random.nextBoolean() ? null : "name " + random.nextInt(1000));
+                    cache.put(row);
+                    // a row that does not fit is rejected and evicted
+                    if (cache.get(id) != null) {
+                        expected.put(id, row);
+                    } else {
+                        expected.remove(id);
+                    }
+                } else {
+                    cache.invalidate(id);
+                    expected.remove(id);
+                }
+                assertTrue(cache.getLiveBytes() + cache.getGarbageBytes() <= maxBytes);
+            }
+
+            assertTrue(cache.getCompactions() > 0);
+            assertEquals(expected.size(), cache.size());
+            for (long id = 0; id < 100; id++) {
+                Row row = expected.get(id);
+                if (row == null) {
+                    assertNull(cache.get(id));
+                } else {
+                    assertRow(row, cache.get(id));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void roundTripsThroughMappedFile() throws IOException {
+        File file = folder.newFile("rows.bin");
+        try (OffHeapEntityCache<Row> cache = new OffHeapEntityCache<>(Row.class, METADATA, 1 << 20, file)) {
+            Row row = row(3, "mapped");
+            cache.put(row);
+
+            assertRow(row, cache.get(3));
+            assertEquals(1 << 20, file.length());
+        }
+    }
+
+    @Test
+    public void closedCacheMisses() throws IOException {
+        OffHeapEntityCache<Row> cache = new OffHeapEntityCache<>(Row.class, METADATA, 1 << 16, null);
+        cache.put(row(1, "a"));
+        cache.close();
+
+        assertNull(cache.get(1));
+        cache.put(row(1, "a"));
+        assertEquals(0, cache.size());
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.dakuupa.pulsar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author etwilliams
+ */
+public class PageTokenTest {
+
+    @Test
+    public void firstPageRoundTrip() {
+        PageToken token = PageToken.decode(PageToken.first("id").encode());
+
+        assertEquals("id", token.getColumn());
+        assertFalse(token.isDescending());
+        assertTrue(token.isFirst());
+        assertNull(token.getLastValue());
+    }
+
+    @Test
+    public void longValueRoundTrip() {
+        PageToken token = PageToken.first("id", true).after(Long.MAX_VALUE);
+
+        assertEquals("id,d,L," + Long.MAX_VALUE, token.encode());
+        PageToken decoded = PageToken.decode(token.encode());
+        assertTrue(decoded.isDescending());
+        assertEquals(Long.MAX_VALUE, decoded.getLastValue());
+    }
+
+    @Test
+    public void integersAndBooleansDecodeAsLong() {
+        assertEquals(42L, PageToken.decode(PageToken.first("qty").after(42).encode()).getLastValue());
+        assertEquals(1L, PageToken.decode(PageToken.first("active").after(true).encode()).getLastValue());
+        assertEquals(0L, PageToken.decode(PageToken.first("active").after(false).encode()).getLastValue());
+    }
+
+    @Test
+    public void doubleValueRoundTrip() {
+        PageToken token = PageToken.decode(PageToken.first("score").after(2.5f).encode());
+
+        assertEquals(2.5, token.getLastValue());
+    }
+
+    @Test
+    public void stringValueKeepsSeparators() {
+        PageToken token = PageToken.decode(PageToken.first("email").after("a,b,c").encode());
+
+        assertEquals("email", token.getColumn());
+        assertEquals("a,b,c", token.getLastValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingParts() {
+        PageToken.decode("id,a");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownType() {
+        PageToken.decode("id,a,X,1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBadNumber() {
+        PageToken.decode("id,a,L,abc");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNull() {
+        PageToken.decode(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyColumn() {
+        PageToken.first("");
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.dakuupa.pulsar;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Writes of entities read by a projection must not touch the columns they were
+ * read without
+ *
+ * @author etwilliams
+ */
+public class PartialWriteTest {
+
+    public static class Item extends Entity {
+
+        public String name;
+        public int qty;
+        public String note;
+
+    }
+
+    public static class ItemManager extends AbstractDatabaseManager<Item> {
+
+        public ItemManager(Connection con) {
+            super(con, Item.class);
+        }
+
+    }
+
+    private Connection connection;
+    private ItemManager manager;
+    private long id;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = TestDatabase.open();
+        manager = new ItemManager(connection);
+        Item item = new Item();
+        item.name = "full";
+        item.qty = 5;
+        item.note = "kept";
+        manager.insert(item);
+        id = item.getId();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        manager.close();
+        connection.close();
+    }
+
+    private Item readName() {
+        Item item = manager.read(id, Projection.of("id", "name"));
+        assertTrue(item.isPartial());
+        return item;
+    }
+
+    private void assertUntouched(Item read) {
+        assertEquals(5, read.qty);
+        assertEquals("kept", read.note);
+    }
+
+    @Test
+    public void updateWritesOnlyChangedColumns() {
+        Item item = readName();
+        item.name = "renamed";
+        assertTrue(manager.update(item));
+
+        Item read = manager.read(id);
+        assertEquals("renamed", read.name);
+        assertUntouched(read);
+    }
+
+    @Test
+    public void updateWithoutSnapshotWritesLoadedColumns() {
+        Item item = readName();
+        item.setSnapshot(null);
+        item.name = "renamed";
+        assertTrue(manager.isDirty(item));
+        assertTrue(manager.update(item));
+
+        Item read = manager.read(id);
+        assertEquals("renamed", read.name);
+        assertUntouched(read);
+    }
+
+    @Test
+    public void updateAllWithoutSnapshotWritesLoadedColumns() {
+        Item item = readName();
+        item.setSnapshot(null);
+        item.name = "renamed";
+        assertEquals(1, manager.updateAll(Arrays.asList(item)));
+
+        Item read = manager.read(id);
+        assertEquals("renamed", read.name);
+        assertUntouched(read);
+    }
+
+    @Test
+    public void upsertRejectsPartialEntity() {
+        Item item = readName();
+        item.name = "renamed";
+        UpsertResult result = manager.upsertAll(Arrays.asList(item));
+        assertEquals(0, result.getInserted() + result.getUpdated());
+
+        Item read = manager.read(id);
+        assertEquals("full", read.name);
+        assertUntouched(read);
+    }
+
+    @Test
+    public void insertRejectsPartialEntity() {
+        Item item = readName();
+        item.setId(null);
+        item.setPersisted(false);
+        assertFalse(manager.insert(item));
+        assertEquals(0, manager.insertAll(Arrays.asList(item)));
+        assertEquals(1, manager.count());
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.dakuupa.pulsar;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author etwilliams
+ */
+public class QueryCacheTest {
+
+    public static class Stock extends Entity {
+
+        public String name;
+        public int qty;
+
+    }
+
+    public static class StockManager extends AbstractDatabaseManager<Stock> {
+
+        public StockManager(Connection con) {
+            super(con, Stock.class);
+        }
+
+    }
+
+    private Connection connection;
+    private StockManager manager;
+    private QueryCache cache;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = TestDatabase.open();
+        manager = new StockManager(connection);
+        cache = new QueryCache();
+        manager.setQueryCache(cache);
+        manager.insert(stock("a", 1));
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        manager.close();
+        connection.close();
+    }
+
+    private static Stock stock(String name, int qty) {
+        Stock stock = new Stock();
+        stock.name = name;
+        stock.qty = qty;
+        return stock;
+    }
+
+    @Test
+    public void repeatedListIsCached() {
+        assertEquals(1, manager.list(Criteria.create()).size());
+        assertEquals(1, manager.list(Criteria.create()).size());
+
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void hitsReturnNewInstances() {
+        Stock first = manager.list(Criteria.create()).get(0);
+        first.name = "changed";
+
+        Stock second = manager.list(Criteria.create()).get(0);
+        assertNotSame(first, second);
+        assertEquals("a", second.name);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void writeMakesResultsStale() {
+        manager.list(Criteria.create());
+        manager.count("qty > 0");
+
+        manager.insert(stock("b", 2));
+
+        assertEquals(2, manager.list(Criteria.create()).size());
+        assertEquals(2, manager.count("qty > 0"));
+        assertEquals(2, cache.getStale());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void writeThroughAnotherManagerMakesResultsStale() {
+        manager.list(Criteria.create());
+
+        StockManager other = new StockManager(connection);
+        try {
+            other.insert(stock("b", 2));
+        } finally {
+            other.close();
+        }
+
+        assertEquals(2, manager.list(Criteria.create()).size());
+        assertEquals(1, cache.getStale());
+    }
+
+    @Test
+    public void zeroTtlBypassesTheCache() {
+        manager.list(Criteria.create().cacheFor(0));
+        manager.list(Criteria.create().cacheFor(0));
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHits() + cache.getMisses());
+    }
+
+    @Test
+    public void unsavedIdentityMapChangesStayOutOfTheCache() {
+        manager.enableIdentityMap();
+        Stock held = manager.list(Criteria.create().cacheFor(0)).get(0);
+        held.name = "unsaved";
+
+        // the identity map instance is returned, the row as read is cached
+        List<Stock> listed = manager.list(Criteria.create());
+        assertSame(held, listed.get(0));
+
+        manager.clearIdentityMap();
+        Stock restored = manager.list(Criteria.create()).get(0);
+        assertEquals(1, cache.getHits());
+        assertNotSame(held, restored);
+        assertEquals("a", restored.name);
+    }
+
+}
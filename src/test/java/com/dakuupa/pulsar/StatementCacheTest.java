@@ -0,0 +1,169 @@
+package com.dakuupa.pulsar;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author etwilliams
+ */
+public class StatementCacheTest {
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = TestDatabase.open();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    private static String sql(int n) {
+        return "SELECT " + n;
+    }
+
+    private static PreparedStatement prepareOn(ExecutorService thread, final StatementCache cache, final String sql) throws InterruptedException, ExecutionException {
+        return thread.submit(new Callable<PreparedStatement>() {
+            @Override
+            public PreparedStatement call() throws SQLException {
+                return cache.prepare(sql);
+            }
+        }).get();
+    }
+
+    @Test
+    public void cachesPerThread() throws Exception {
+        StatementCache cache = new StatementCache(connection);
+        PreparedStatement statement = cache.prepare(sql(1));
+        assertSame(statement, cache.prepare(sql(1)));
+        assertNotSame(statement, cache.prepare(sql(1), new String[]{"id"}));
+
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            PreparedStatement others = prepareOn(other, cache, sql(1));
+            assertNotSame(statement, others);
+            assertSame(others, prepareOn(other, cache, sql(1)));
+        } finally {
+            other.shutdown();
+        }
+        cache.close();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws SQLException {
+        StatementCache cache = new StatementCache(connection, 2);
+        PreparedStatement first = cache.prepare(sql(1));
+        PreparedStatement second = cache.prepare(sql(2));
+        cache.prepare(sql(1));
+        cache.prepare(sql(3));
+
+        assertFalse(first.isClosed());
+        assertTrue(second.isClosed());
+        assertEquals(2, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void variantsDoNotEvictFixedStatements() throws SQLException {
+        StatementCache cache = new StatementCache(connection, 2, 2, 100);
+        PreparedStatement first = cache.prepare(sql(1));
+        PreparedStatement second = cache.prepare(sql(2));
+        for (int i = 10; i < 20; i++) {
+            cache.prepareVariant(sql(i));
+        }
+
+        assertSame(first, cache.prepare(sql(1)));
+        assertSame(second, cache.prepare(sql(2)));
+        assertFalse(first.isClosed());
+        assertEquals(4, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void closesStatementsOfFinishedThreads() throws Exception {
+        final StatementCache cache = new StatementCache(connection);
+        final PreparedStatement[] prepared = new PreparedStatement[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prepared[0] = cache.prepare(sql(1));
+                } catch (SQLException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        assertFalse(prepared[0].isClosed());
+
+        cache.prepare(sql(2));
+
+        assertTrue(prepared[0].isClosed());
+        assertEquals(1, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void boundsTotalOverThreads() throws Exception {
+        StatementCache cache = new StatementCache(connection, 64, 16, 8);
+        ExecutorService first = Executors.newSingleThreadExecutor();
+        ExecutorService second = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < 6; i++) {
+                prepareOn(first, cache, sql(i));
+            }
+            assertEquals(6, cache.size());
+
+            // two threads share 8 statements, each trims on its next miss
+            for (int i = 0; i < 6; i++) {
+                prepareOn(second, cache, sql(i));
+            }
+            prepareOn(first, cache, sql(6));
+            assertEquals(8, cache.size());
+        } finally {
+            first.shutdown();
+            second.shutdown();
+        }
+        cache.close();
+    }
+
+    @Test
+    public void releaseClosesCallingThreadsStatements() throws Exception {
+        StatementCache cache = new StatementCache(connection);
+        PreparedStatement mine = cache.prepare(sql(1));
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            PreparedStatement others = prepareOn(other, cache, sql(1));
+
+            cache.release();
+
+            assertTrue(mine.isClosed());
+            assertFalse(others.isClosed());
+            assertEquals(1, cache.size());
+
+            cache.close();
+            assertTrue(others.isClosed());
+            assertEquals(0, cache.size());
+        } finally {
+            other.shutdown();
+        }
+    }
+
+}
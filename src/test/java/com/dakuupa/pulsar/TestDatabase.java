@@ -0,0 +1,56 @@
+package com.dakuupa.pulsar;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In memory H2 databases in MySQL mode for manager tests. H2 has no SHOW
+ * TABLES ... LIKE, so managers always try to create their table and tests
+ * that need column defaults create it first.
+ *
+ * @author etwilliams
+ */
+final class TestDatabase {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+    // held so the level is not lost when the logger is collected
+    private static final Logger PULSAR = Logger.getLogger("com.dakuupa.pulsar");
+
+    static {
+        // the failed table checks and creates log SEVERE with stack traces
+        PULSAR.setLevel(Level.OFF);
+    }
+
+    private TestDatabase() {
+    }
+
+    /**
+     * @return connection to a new empty database, which lives until the
+     * connection is closed
+     * @throws SQLException
+     */
+    static Connection open() throws SQLException {
+        return DriverManager.getConnection("jdbc:h2:mem:pulsar" + DATABASES.incrementAndGet() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE");
+    }
+
+    /**
+     * @param connection another connection to the same database
+     * @return new connection to the database of the given one
+     * @throws SQLException
+     */
+    static Connection reopen(Connection connection) throws SQLException {
+        return DriverManager.getConnection(connection.getMetaData().getURL());
+    }
+
+    static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.dakuupa.pulsar;
+
+import com.dakuupa.pulsar.typeconverter.TypeConverterRegistry;
+import com.dakuupa.pulsar.typeconverter.mysql.MySQLTypeConverter;
+import java.lang.reflect.Field;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ *
+ * @author etwilliams
+ */
+public class TypeConverterRegistryTest {
+
+    public static class Row extends Entity {
+
+        public String name;
+        public int qty;
+
+    }
+
+    public static class TextConverter extends MySQLTypeConverter<String> {
+
+        @Override
+        public String getDatabaseType(Field field) {
+            return DB_TYPE_TEXT;
+        }
+
+        @Override
+        public Object getDatabaseValue(Entity entity, String fieldName) {
+            return getFieldValue(entity, fieldName);
+        }
+
+        @Override
+        public String getValue(ResultSet rs, String columnName) throws SQLException {
+            return rs.getString(columnName);
+        }
+
+    }
+
+    public static class WideIntConverter extends MySQLTypeConverter<Integer> {
+
+        @Override
+        public String getDatabaseType(Field field) {
+            return DB_TYPE_LONG;
+        }
+
+        @Override
+        public Object getDatabaseValue(Entity entity, String fieldName) {
+            return getFieldValue(entity, fieldName);
+        }
+
+        @Override
+        public Integer getValue(ResultSet rs, String columnName) throws SQLException {
+            return rs.getInt(columnName);
+        }
+
+    }
+
+    @Test
+    public void noOverridesIsDefault() {
+        TypeConverterRegistry registry = TypeConverterRegistry.getDefault();
+        assertSame(registry, registry.withOverrides());
+    }
+
+    @Test
+    public void overrideReplacesConverter() {
+        TypeConverterRegistry registry = TypeConverterRegistry.getDefault().withOverrides(new TextConverter());
+
+        assertEquals(TextConverter.class, registry.getConverter(String.class).getClass());
+        assertSame(TypeConverterRegistry.getDefault().getConverter(Long.class), registry.getConverter(Long.class));
+        assertEquals("TEXT", registry.getMetadata(Row.class).getColumnByColumnName("name").getDatabaseType());
+    }
+
+    @Test
+    public void sameConverterClassesShareRegistry() {
+        TypeConverterRegistry first = TypeConverterRegistry.getDefault().withOverrides(new TextConverter(), new WideIntConverter());
+        TypeConverterRegistry second = TypeConverterRegistry.getDefault().withOverrides(new WideIntConverter(), new TextConverter());
+
+        assertSame(first, second);
+        assertSame(first.getMetadata(Row.class), second.getMetadata(Row.class));
+    }
+
+    @Test
+    public void differentConverterClassesDoNotShare() {
+        TypeConverterRegistry text = TypeConverterRegistry.getDefault().withOverrides(new TextConverter());
+        TypeConverterRegistry both = TypeConverterRegistry.getDefault().withOverrides(new TextConverter(), new WideIntConverter());
+
+        assertNotSame(text, both);
+        assertNotSame(TypeConverterRegistry.getDefault(), text);
+    }
+
+}
@@ -0,0 +1,207 @@
+package com.dakuupa.pulsar;
+
+import com.dakuupa.pulsar.annotations.DbCached;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author etwilliams
+ */
+public class UnitOfWorkTest {
+
+    @DbCached
+    public static class Author extends Entity {
+
+        public String name;
+
+    }
+
+    public static class Book extends Entity {
+
+        public String title;
+        public Long owner;
+
+    }
+
+    public static class AuthorManager extends AbstractDatabaseManager<Author> {
+
+        public AuthorManager(Connection con) {
+            super(con, Author.class);
+        }
+
+    }
+
+    public static class BookManager extends AbstractDatabaseManager<Book> {
+
+        public BookManager(Connection con) {
+            super(con, Book.class);
+        }
+
+    }
+
+    private Connection connection;
+    private AuthorManager authors;
+    private BookManager books;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = TestDatabase.open();
+        TestDatabase.execute(connection, "CREATE TABLE author (id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, name VARCHAR(255))");
+        TestDatabase.execute(connection, "CREATE TABLE book (id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, title VARCHAR(255),"
+                + " owner BIGINT, FOREIGN KEY (owner) REFERENCES author(id))");
+        authors = new AuthorManager(connection);
+        books = new BookManager(connection);
+        // the shared cache outlives the database of the previous test
+        authors.clearEntityCache();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        authors.close();
+        books.close();
+        connection.close();
+    }
+
+    private Author author(String name) {
+        Author author = new Author();
+        author.name = name;
+        assertTrue(authors.insert(author));
+        return author;
+    }
+
+    private Book book(String title, Author owner) {
+        Book book = new Book();
+        book.title = title;
+        book.owner = owner.getId();
+        assertTrue(books.insert(book));
+        return book;
+    }
+
+    @Test
+    public void deletesChildrenBeforeParents() throws SQLException {
+        Author author = author("a");
+        Book book = book("b", author);
+
+        try (UnitOfWork unit = new UnitOfWork(connection)) {
+            // the author table is used first, so its deletes go last
+            unit.delete(authors, author);
+            unit.delete(books, book);
+            unit.commit();
+        }
+
+        assertEquals(0, authors.count());
+        assertEquals(0, books.count());
+    }
+
+    @Test
+    public void insertsBeforeUpdates() throws SQLException {
+        Author author = author("a");
+        Book book = book("b", author);
+        Author added = new Author();
+        added.setId(author.getId() + 10);
+        added.name = "added";
+
+        try (UnitOfWork unit = new UnitOfWork(connection)) {
+            // the book table is used first, its update still needs the insert
+            book.owner = added.getId();
+            unit.update(books, book);
+            unit.insert(authors, added);
+            unit.commit();
+        }
+
+        assertEquals(added.getId(), books.read(book.getId()).owner);
+    }
+
+    @Test
+    public void updateOfMissingRowFails() throws SQLException {
+        Author author = author("a");
+        TestDatabase.execute(connection, "DELETE FROM author");
+        author.name = "changed";
+
+        UnitOfWork unit = new UnitOfWork(connection);
+        unit.update(authors, author);
+        try {
+            unit.commit();
+            fail("Committed an update of a deleted row");
+        } catch (SQLException expected) {
+        }
+        assertTrue(unit.isFinished());
+        assertTrue(connection.getAutoCommit());
+    }
+
+    @Test
+    public void savepointRollbackRestoresEntities() throws SQLException {
+        Author kept = author("kept");
+        kept.name = "renamed";
+        Author added = new Author();
+        added.name = "added";
+        long[] snapshot = kept.getSnapshot();
+
+        try (UnitOfWork unit = new UnitOfWork(connection)) {
+            Savepoint savepoint = unit.setSavepoint();
+            unit.update(authors, kept);
+            unit.insert(authors, added);
+            unit.flush();
+            assertTrue(added.isPersisted());
+            assertNotNull(added.getId());
+            assertFalse(authors.isDirty(kept));
+
+            unit.rollback(savepoint);
+            assertFalse(added.isPersisted());
+            assertNull(added.getId());
+            assertSame(snapshot, kept.getSnapshot());
+            assertTrue(authors.isDirty(kept));
+            unit.commit();
+        }
+
+        assertEquals(1, authors.count());
+        assertEquals("kept", authors.read(kept.getId()).name);
+    }
+
+    @Test
+    public void publishesCacheWritesOnCommit() throws SQLException {
+        Author author = author("a");
+        EntityCache<Author> cache = authors.getEntityCache();
+        assertNotNull(cache.get(author.getId()));
+
+        try (UnitOfWork unit = new UnitOfWork(connection)) {
+            author.name = "changed";
+            unit.update(authors, author);
+            unit.flush();
+            // other connections must not read the uncommitted row
+            assertNull(cache.get(author.getId()));
+            unit.commit();
+        }
+
+        assertEquals("changed", cache.get(author.getId()).name);
+    }
+
+    @Test
+    public void dropsCacheWritesOnRollback() throws SQLException {
+        Author author = author("a");
+        EntityCache<Author> cache = authors.getEntityCache();
+
+        try (UnitOfWork unit = new UnitOfWork(connection)) {
+            author.name = "changed";
+            unit.update(authors, author);
+            unit.flush();
+            unit.rollback();
+        }
+
+        assertNull(cache.get(author.getId()));
+        assertEquals("a", authors.read(author.getId()).name);
+    }
+
+}
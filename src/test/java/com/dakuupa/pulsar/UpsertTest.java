@@ -0,0 +1,83 @@
+package com.dakuupa.pulsar;
+
+import com.dakuupa.pulsar.annotations.DbUnique;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author etwilliams
+ */
+public class UpsertTest {
+
+    public static class Account extends Entity {
+
+        @DbUnique
+        public String email;
+        public int credits;
+
+    }
+
+    public static class AccountManager extends AbstractDatabaseManager<Account> {
+
+        public AccountManager(Connection con) {
+            super(con, Account.class);
+        }
+
+    }
+
+    private Connection connection;
+    private AccountManager manager;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = TestDatabase.open();
+        manager = new AccountManager(connection);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        manager.close();
+        connection.close();
+    }
+
+    private static Account account(String email, int credits) {
+        Account account = new Account();
+        account.email = email;
+        account.credits = credits;
+        return account;
+    }
+
+    @Test
+    public void countsInsertedAndUpdatedRows() {
+        Account existing = account("a@example.com", 1);
+        assertTrue(manager.insert(existing));
+
+        Account changed = account("a@example.com", 2);
+        Account added = account("b@example.com", 3);
+        UpsertResult result = manager.upsertAll(Arrays.asList(changed, added));
+
+        assertEquals(1, result.getInserted());
+        assertEquals(1, result.getUpdated());
+        assertEquals(0, result.getUnreported());
+        assertEquals(2, manager.count());
+    }
+
+    @Test
+    public void backfillsIdsOfInsertedRows() {
+        Account added = account("c@example.com", 4);
+        manager.upsert(added);
+
+        assertNotNull(added.getId());
+        assertTrue(added.isPersisted());
+        assertEquals("c@example.com", manager.read(added.getId()).email);
+    }
+
+}
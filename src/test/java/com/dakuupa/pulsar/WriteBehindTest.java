@@ -0,0 +1,151 @@
+package com.dakuupa.pulsar;
+
+import com.dakuupa.pulsar.annotations.DbUnique;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author etwilliams
+ */
+public class WriteBehindTest {
+
+    public static class Member extends Entity {
+
+        @DbUnique
+        public String handle;
+
+    }
+
+    public static class MemberManager extends AbstractDatabaseManager<Member> {
+
+        public MemberManager(Connection con) {
+            super(con, Member.class);
+        }
+
+    }
+
+    private Connection connection;
+    private MemberManager manager;
+    private final List<Member> failed = Collections.synchronizedList(new ArrayList<Member>());
+
+    private final ConnectionSource source = new ConnectionSource() {
+        @Override
+        public Connection getConnection() throws SQLException {
+            return TestDatabase.reopen(connection);
+        }
+    };
+
+    private final WriteFailureCallback<Member> callback = new WriteFailureCallback<Member>() {
+        @Override
+        public void onFailure(Member entity) {
+            failed.add(entity);
+        }
+    };
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = TestDatabase.open();
+        manager = new MemberManager(connection);
+        manager.insert(member("taken"));
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        manager.close();
+        connection.close();
+    }
+
+    private static Member member(String handle) {
+        Member member = new Member();
+        member.handle = handle;
+        return member;
+    }
+
+    private void enable(int maxAttempts) throws SQLException {
+        // writes only go out on flush
+        manager.enableWriteBehind(source, 100, 100, 60000, maxAttempts, callback);
+    }
+
+    @Test
+    public void writesOutsideTheManagersTransaction() throws SQLException {
+        enable(3);
+        Member member = member("queued");
+
+        UnitOfWork unit = new UnitOfWork(connection);
+        manager.save(member);
+        manager.flush();
+        unit.rollback();
+
+        assertTrue(member.isPersisted());
+        assertEquals(2, manager.count());
+    }
+
+    @Test
+    public void givesUpOnRowsThatKeepFailing() throws SQLException {
+        enable(2);
+        Member poison = member("taken");
+        manager.save(poison);
+        flushFailing();
+        assertEquals(1, manager.getQueuedSaves());
+        assertTrue(failed.isEmpty());
+
+        // the retried row is written on its own, not in the new batch
+        Member good = member("fine");
+        manager.save(good);
+        flushFailing();
+        assertTrue(good.isPersisted());
+        assertEquals(0, manager.getQueuedSaves());
+        assertEquals(1, failed.size());
+        assertSame(poison, failed.get(0));
+
+        manager.flush();
+        assertEquals(2, manager.count());
+    }
+
+    @Test
+    public void handsLastFailuresToTheCallbackOnDisable() throws SQLException {
+        enable(5);
+        Member poison = member("taken");
+        manager.save(poison);
+
+        manager.disableWriteBehind();
+
+        assertEquals(1, failed.size());
+        assertSame(poison, failed.get(0));
+    }
+
+    @Test
+    public void newSaveStartsAttemptsOver() throws SQLException {
+        enable(2);
+        Member poison = member("taken");
+        manager.save(poison);
+        flushFailing();
+
+        manager.save(poison);
+        flushFailing();
+        assertTrue(failed.isEmpty());
+
+        flushFailing();
+        assertEquals(1, failed.size());
+    }
+
+    private void flushFailing() {
+        try {
+            manager.flush();
+            fail("Flush saved a duplicate handle");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+package com.dakuupa.pulsar.processor;
+
+import com.dakuupa.pulsar.Entity;
+import com.dakuupa.pulsar.EntityMapper;
+import com.dakuupa.pulsar.EntityMetadata;
+import com.dakuupa.pulsar.typeconverter.TypeConverterRegistry;
+import com.dakuupa.pulsar.typeconverter.mysql.IntegerTypeConverter;
+import com.dakuupa.pulsar.typeconverter.mysql.LongTypeConverter;
+import com.dakuupa.pulsar.typeconverter.mysql.StringTypeConverter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compiles sample entities with the processor and checks the mappers it
+ * generates
+ *
+ * @author etwilliams
+ */
+public class EntityMapperProcessorTest {
+
+    private static final String GADGET = "package sample;\n"
+            + "\n"
+            + "import com.dakuupa.pulsar.Entity;\n"
+            + "import com.dakuupa.pulsar.annotations.DbColumn;\n"
+            + "import com.dakuupa.pulsar.annotations.DbIgnore;\n"
+            + "\n"
+            + "public class Gadget extends Entity {\n"
+            + "\n"
+            + "    public String name;\n"
+            + "    public int qty;\n"
+            + "    @DbColumn(name = \"price_cents\")\n"
+            + "    public Long price;\n"
+            + "    private String code;\n"
+            + "    @DbIgnore\n"
+            + "    public Object scratch;\n"
+            + "\n"
+            + "    public String getCode() {\n"
+            + "        return code;\n"
+            + "    }\n"
+            + "\n"
+            + "    public void setCode(String code) {\n"
+            + "        this.code = code;\n"
+            + "    }\n"
+            + "\n"
+            + "    public static class Part extends Entity {\n"
+            + "\n"
+            + "        public String label;\n"
+            + "    }\n"
+            + "}\n";
+
+    private static final String UNMAPPED = "package sample;\n"
+            + "\n"
+            + "public class Unmapped extends com.dakuupa.pulsar.Entity {\n"
+            + "\n"
+            + "    public java.math.BigInteger big;\n"
+            + "    private String hidden;\n"
+            + "}\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File sources;
+    private File classes;
+    private final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+    @Before
+    public void compile() throws IOException {
+        File input = folder.newFolder("input", "sample");
+        sources = folder.newFolder("generated");
+        classes = folder.newFolder("classes");
+        write(new File(input, "Gadget.java"), GADGET);
+        write(new File(input, "Unmapped.java"), UNMAPPED);
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8)) {
+            List<String> options = Arrays.asList(
+                    "-classpath", classpathOf(Entity.class),
+                    "-processor", EntityMapperProcessor.class.getName(),
+                    "-processorpath", classpathOf(EntityMapperProcessor.class),
+                    "-s", sources.getPath(),
+                    "-d", classes.getPath());
+            Iterable<? extends JavaFileObject> units = files.getJavaFileObjects(new File(input, "Gadget.java"), new File(input, "Unmapped.java"));
+            assertTrue(diagnostics.getDiagnostics().toString(), compiler.getTask(null, files, diagnostics, options, null, units).call());
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String classpathOf(Class<?> type) {
+        return new File(type.getProtectionDomain().getCodeSource().getLocation().getPath()).getPath();
+    }
+
+    private URLClassLoader loader() throws IOException {
+        return new URLClassLoader(new URL[]{classes.toURI().toURL()}, getClass().getClassLoader());
+    }
+
+    @Test
+    public void generatesMappersForTopLevelAndNestedEntities() {
+        assertTrue(new File(sources, "sample/Gadget" + EntityMapper.CLASS_SUFFIX + ".java").isFile());
+        assertTrue(new File(sources, "sample/Gadget_Part" + EntityMapper.CLASS_SUFFIX + ".java").isFile());
+    }
+
+    @Test
+    public void skipsEntitiesItCannotMap() {
+        assertFalse(new File(sources, "sample/Unmapped" + EntityMapper.CLASS_SUFFIX + ".java").exists());
+
+        List<String> notes = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.NOTE) {
+                notes.add(diagnostic.getMessage(null));
+            }
+        }
+        assertTrue(notes.toString(), notes.contains("no mapper generated, field big has no built in type converter"));
+    }
+
+    @Test
+    public void mapperMatchesTheReflectedColumns() throws Exception {
+        try (URLClassLoader loader = loader()) {
+            Class<?> gadget = loader.loadClass("sample.Gadget");
+            EntityMetadata metadata = TypeConverterRegistry.getDefault().getMetadata(gadget);
+            EntityMapper<?> mapper = metadata.getMapper();
+            assertNotNull(mapper);
+            assertSame(loader.loadClass("sample.Gadget" + EntityMapper.CLASS_SUFFIX), mapper.getClass());
+
+            assertArrayEquals(new String[]{"name", "qty", "price_cents", "code", "id"}, mapper.getColumnNames());
+            assertArrayEquals(new Class<?>[]{StringTypeConverter.class, IntegerTypeConverter.class, LongTypeConverter.class,
+                StringTypeConverter.class, LongTypeConverter.class}, mapper.getConverterClasses());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void mapperWritesAndReadsRows() throws Exception {
+        try (URLClassLoader loader = loader();
+                Connection connection = DriverManager.getConnection("jdbc:h2:mem:processor;MODE=MySQL;DATABASE_TO_LOWER=TRUE")) {
+            Class<? extends Entity> gadget = (Class<? extends Entity>) loader.loadClass("sample.Gadget");
+            EntityMapper<Entity> mapper = (EntityMapper<Entity>) loader.loadClass("sample.Gadget" + EntityMapper.CLASS_SUFFIX).getDeclaredConstructor().newInstance();
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(mapper.getCreateQuery("gadget"));
+            }
+
+            Entity written = gadget.getDeclaredConstructor().newInstance();
+            gadget.getField("name").set(written, "gear");
+            gadget.getField("qty").set(written, 3);
+            gadget.getMethod("setCode", String.class).invoke(written, "G-1");
+            written.setId(7L);
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO gadget (name, qty, price_cents, code, id) VALUES (?, ?, ?, ?, ?)")) {
+                assertEquals(6, mapper.bind(statement, written, 1));
+                statement.executeUpdate();
+            }
+
+            Entity read = gadget.getDeclaredConstructor().newInstance();
+            try (Statement statement = connection.createStatement();
+                    ResultSet rs = statement.executeQuery("SELECT id, code, name, price_cents FROM gadget")) {
+                assertTrue(rs.next());
+                // qty was not selected and keeps its default
+                mapper.read(rs, new int[]{3, 0, 4, 2, 1}, read);
+            }
+            assertEquals("gear", gadget.getField("name").get(read));
+            assertEquals(0, gadget.getField("qty").get(read));
+            assertEquals("G-1", gadget.getMethod("getCode").invoke(read));
+            assertEquals(Long.valueOf(7), read.getId());
+            // a null wrapper is bound as SQL NULL
+            assertNull(readPrice(connection));
+        }
+    }
+
+    private static Object readPrice(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT price_cents FROM gadget")) {
+            rs.next();
+            return rs.getObject(1);
+        }
+    }
+
+}